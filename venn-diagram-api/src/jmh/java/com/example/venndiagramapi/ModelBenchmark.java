@@ -0,0 +1,106 @@
+package com.example.venndiagramapi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded hot paths of the model and formatter, over a seeded random diagram.
+ * {@code density} is the chance that an element belongs to any one set, so it controls
+ * how much the sets overlap and how many of the 2^n regions are non-empty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int universeSize;
+
+    @Param({ "3", "8", "16" })
+    public int setCount;
+
+    @Param({ "0.1", "0.5" })
+    public double density;
+
+    private VennDiagramModel<Object> model;
+    private ModelSnapshot<Object> snapshot;
+    private VennDiagramFormatter<Object> formatter;
+    private Set<Object> universe;
+    private String[] setNames;
+    private Object[] elements;
+    private List<Set<String>> memberships;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        elements = new Object[universeSize];
+        universe = new HashSet<>();
+        for (int i = 0; i < universeSize; i++) {
+            elements[i] = "e" + i;
+            universe.add(elements[i]);
+        }
+        model = new VennDiagramModel<>();
+        setNames = new String[setCount];
+        for (int s = 0; s < setCount; s++) {
+            setNames[s] = "S" + s;
+            Set<Object> members = new HashSet<>();
+            for (Object element : elements) {
+                if (random.nextDouble() < density) members.add(element);
+            }
+            model.addSet(setNames[s], members);
+        }
+        model.setUniversalSet(universe);
+        snapshot = model.snapshot(0);
+        formatter = new VennDiagramFormatter<>();
+
+        // A fixed cycle of random memberships for the edit benchmark
+        memberships = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Set<String> sets = new HashSet<>();
+            for (String name : setNames) {
+                if (random.nextDouble() < density) sets.add(name);
+            }
+            memberships.add(sets);
+        }
+    }
+
+    @Benchmark
+    public int calculatePartitions() {
+        // Replacing the universe forces a full partition rebuild
+        model.setUniversalSet(universe);
+        return model.getPartitionMasks().size();
+    }
+
+    @Benchmark
+    public int intersectionOfTwo() {
+        return model.getIntersection(setNames[0], setNames[1]).size();
+    }
+
+    @Benchmark
+    public int unionOfAll() {
+        return model.getUnion(setNames).size();
+    }
+
+    @Benchmark
+    public int updateElementMembership() {
+        int i = next++;
+        model.updateElementMembership(elements[i % elements.length], memberships.get(i % memberships.size()));
+        return model.getElementCount();
+    }
+
+    @Benchmark
+    public int partitionsAsString() {
+        return formatter.getPartitionsAsString(snapshot).length();
+    }
+
+    @Benchmark
+    public ModelSnapshot<Object> snapshot() {
+        return model.snapshot(0);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiagramManagerService under concurrent load: all threads share one workspace, so
+ * the groups below measure how readers and writers get in each other's way. Persistence
+ * is disabled to keep disk latency out of the numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int universeSize;
+
+    @Param({ "4", "8" })
+    public int setCount;
+
+    @Param({ "0.3" })
+    public double density;
+
+    private DiagramManagerService service;
+    private String diagramId;
+    private String[] setNames;
+    private List<Set<String>> memberships;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        WorkspacePersistence persistence = new WorkspacePersistence(false, "target/jmh-data", false, false, 60);
+        service = new DiagramManagerService(new ObjectMapper(), persistence);
+        service.recover();
+        diagramId = service.createBlankWorkspace("bench", "STRING").getDiagramId();
+
+        Random random = new Random(42);
+        setNames = new String[setCount];
+        List<BatchOperation> batch = new ArrayList<>();
+        for (int s = 0; s < setCount; s++) {
+            setNames[s] = "S" + s;
+            Set<String> members = new HashSet<>();
+            for (int i = 0; i < universeSize; i++) {
+                if (random.nextDouble() < density) members.add("e" + i);
+            }
+            batch.add(new BatchOperation(BatchOperation.Type.ADD_SET, setNames[s], null, null, null));
+            batch.add(new BatchOperation(BatchOperation.Type.SET_ELEMENTS, setNames[s], null, null, members));
+        }
+        service.applyBatch(diagramId, batch);
+
+        memberships = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Set<String> sets = new HashSet<>();
+            for (String name : setNames) {
+                if (random.nextDouble() < density) sets.add(name);
+            }
+            memberships.add(sets);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    private void edit(Cursor cursor) {
+        int i = cursor.next++;
+        service.updateElementMembership(diagramId, "e" + (i % universeSize), memberships.get(i % memberships.size()));
+    }
+
+    // --- Readers only ---
+
+    @Benchmark
+    @Threads(4)
+    public DiagramStats stats() {
+        return service.getStats(diagramId, null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int expressionCount() {
+        return service.countExpression(diagramId, "(S0 ∪ S1) ∖ (S2 ∩ S3)");
+    }
+
+    // --- Mixed: three readers and one writer on the same workspace ---
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(3)
+    public int readMostlyRead() {
+        return service.countExpression(diagramId, "(S0 ∪ S1) ∖ (S2 ∩ S3)");
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public void readMostlyWrite(Cursor cursor) {
+        edit(cursor);
+    }
+
+    // --- Writers only, all contending for one write lock ---
+
+    @Benchmark
+    @Group("writeContention")
+    @GroupThreads(4)
+    public void contendedWrite(Cursor cursor) {
+        edit(cursor);
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.venndiagramapi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the probability templates, which happens on every "new from template".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({ "2", "3", "4", "5" })
+    public int numDice;
+
+    @Benchmark
+    public DiagramWorkspace diceRolls() {
+        return ProbabilityTemplateFactory.createFromTemplate("bench", "DICE_ROLLS_" + numDice);
+    }
+
+    @Benchmark
+    public DiagramWorkspace deckOfCards() {
+        return ProbabilityTemplateFactory.createFromTemplate("bench", "DECK_OF_CARDS");
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.venndiagramapi;
+
+import java.util.Set;
+
+/**
+ * One edit inside a batch request. Which fields are used depends on the type:
+ *   ADD_SET, REMOVE_SET:   name (the set)
+ *   RENAME_SET:            name, newName
+ *   SET_MEMBERSHIP:        name (the element), sets it should belong to
+ *   SET_ELEMENTS:          name (the set), elements it should contain
+ *   RENAME_ELEMENT:        name, newName
+ *   DELETE_ELEMENT:        name (the element)
+ *   DEFINE_RULE_SET:       name (the set), rule (see SetRule)
+ */
+public class BatchOperation {
+
+    public enum Type {
+        ADD_SET, REMOVE_SET, RENAME_SET, SET_MEMBERSHIP, SET_ELEMENTS, RENAME_ELEMENT, DELETE_ELEMENT,
+        DEFINE_RULE_SET
+    }
+
+    public Type op;
+    public String name;
+    public String newName;
+    public Set<String> sets;
+    public Set<String> elements;
+    public String rule;
+
+    public BatchOperation() {
+    }
+
+    public BatchOperation(Type op, String name, String newName, Set<String> sets, Set<String> elements) {
+        this.op = op;
+        this.name = name;
+        this.newName = newName;
+        this.sets = sets;
+        this.elements = elements;
+    }
+
+    @Override
+    public String toString() {
+        return op + " " + name + (newName != null ? " -> " + newName : "");
+    }
+
+    /**
+     * What the batch endpoint sends back: the workspace version the batch produced.
+     */
+    public static class Result {
+        public long version;
+        public int applied;
+
+        public Result(long version, int applied) {
+            this.version = version;
+            this.applied = applied;
+        }
+    }
+}
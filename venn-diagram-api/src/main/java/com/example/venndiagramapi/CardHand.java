@@ -0,0 +1,40 @@
+package com.example.venndiagramapi;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A hand of playing cards, lowest card first.
+ * Used for the "k-Card Hands" probability templates.
+ */
+public class CardHand {
+    private final List<PlayingCard> cards;
+
+    public CardHand(List<PlayingCard> cards) {
+        this.cards = List.copyOf(cards);
+    }
+
+    public List<PlayingCard> getCards() {
+        return cards;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        return cards.equals(((CardHand) o).cards);
+    }
+
+    @Override
+    public int hashCode() {
+        return cards.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        // e.g. "10H JH QH KH AH", the form parseElement reads back
+        return cards.stream().map(PlayingCard::toString).collect(Collectors.joining(" "));
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.venndiagramapi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The recent changes of one workspace, so an open editor can catch up by applying deltas
+ * instead of refetching the whole diagram.
+ *
+ * Each successful write is recorded with the version it produced, the operations it
+ * applied and the new sizes of the regions it touched. The log is bounded both in
+ * entries and in total size (roughly the number of names it holds); a client that falls
+ * further behind than the log reaches is told to resync.
+ */
+public class ChangeLog {
+
+    static final int MAX_ENTRIES = 1024;
+    static final int MAX_WEIGHT = 100_000;
+
+    /**
+     * One write. When {@code reset} is set the write cannot be expressed as operations
+     * (e.g. a bulk import) and the client has to refetch the diagram.
+     */
+    public static class Change {
+        public long version;
+        public List<BatchOperation> operations;
+        // New size of every region the write touched, keyed by mask; 0 means the region is gone
+        public Map<String, Integer> regions;
+        // The regions map lists every occupied region, e.g. after a set was removed and masks shifted
+        public boolean regionsReplaced;
+        public boolean reset;
+
+        public Change(long version, List<BatchOperation> operations, Map<String, Integer> regions,
+                boolean regionsReplaced, boolean reset) {
+            this.version = version;
+            this.operations = operations;
+            this.regions = regions;
+            this.regionsReplaced = regionsReplaced;
+            this.reset = reset;
+        }
+    }
+
+    /**
+     * What the changes endpoint sends back: the changes after the client's version, up to
+     * {@code version}. When {@code reset} is set the client is too far behind (or from a
+     * previous run) and has to refetch the diagram at {@code version}.
+     */
+    public static class ChangeSet {
+        public long version;
+        public boolean reset;
+        public List<Change> changes;
+
+        public ChangeSet(long version, boolean reset, List<Change> changes) {
+            this.version = version;
+            this.reset = reset;
+            this.changes = changes;
+        }
+    }
+
+    private final ArrayDeque<Change> entries = new ArrayDeque<>();
+    private final ArrayDeque<Integer> weights = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long weight;
+    // Every change after this version is still in the log
+    private long floor;
+
+    /**
+     * Records a write; call under the workspace's write lock with the version it will produce.
+     *
+     * @param regions new region sizes (see VennDiagramModel#takeRegionChanges), or null
+     *                when every region may have changed, in which case all of {@code model}'s
+     *                regions are listed
+     */
+    void record(long version, List<BatchOperation> operations, Map<RegionMask, Integer> regions,
+            VennDiagramView<?> model) {
+        boolean replaced = regions == null;
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        if (replaced) {
+            for (RegionMask mask : model.getPartitionMasks()) sizes.put(mask.toString(), model.getPartitionSize(mask));
+        } else {
+            regions.forEach((mask, size) -> sizes.put(mask.toString(), size));
+        }
+        int changeWeight = 1 + sizes.size();
+        for (BatchOperation operation : operations) {
+            changeWeight += 1 + (operation.sets != null ? operation.sets.size() : 0)
+                    + (operation.elements != null ? operation.elements.size() : 0);
+        }
+        if (changeWeight > MAX_WEIGHT) {
+            recordReset(version);
+        } else {
+            add(new Change(version, operations, sizes, replaced, false), changeWeight);
+        }
+    }
+
+    /**
+     * Records a write that clients can only follow by refetching.
+     */
+    void recordReset(long version) {
+        add(new Change(version, null, null, false, true), 1);
+    }
+
+    /**
+     * Forgets everything up to {@code version}, e.g. after recovery rebuilt the workspace.
+     */
+    void truncate(long version) {
+        lock.lock();
+        try {
+            entries.clear();
+            weights.clear();
+            weight = 0;
+            floor = version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(Change change, int changeWeight) {
+        lock.lock();
+        try {
+            entries.addLast(change);
+            weights.addLast(changeWeight);
+            weight += changeWeight;
+            while (entries.size() > MAX_ENTRIES || weight > MAX_WEIGHT) {
+                floor = entries.removeFirst().version;
+                weight -= weights.removeFirst();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The changes after {@code since}, up to and including {@code current} (the workspace's
+     * version, read before calling, so a write still holding the lock is left for next time).
+     */
+    public ChangeSet since(long since, long current) {
+        lock.lock();
+        try {
+            if (since < floor || since > current) return new ChangeSet(current, true, List.of());
+            List<Change> changes = new ArrayList<>();
+            for (Iterator<Change> it = entries.descendingIterator(); it.hasNext();) {
+                Change change = it.next();
+                if (change.version <= since) break;
+                if (change.version <= current) changes.add(change);
+            }
+            Collections.reverse(changes);
+            return new ChangeSet(current, false, changes);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.venndiagramapi;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes each workspace's changes to its open server-sent event streams.
+ *
+ * Events are sent from a separate thread after the write lock is released, so a slow
+ * client never holds up a writer. Each stream remembers the last version it was sent and
+ * catches up from the workspace's ChangeLog, so bursts of writes are coalesced and no
+ * change is skipped or sent twice.
+ *
+ * Events: "ready" (the version the stream starts from), "change" (a ChangeLog.Change,
+ * with the version as the event id) and "reset" (the client has to refetch the diagram).
+ */
+final class ChangeStreams {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final Map<String, List<Stream>> streams = new ConcurrentHashMap<>();
+    private final Executor sender;
+
+    /**
+     * @param virtualThreads send on a new virtual thread per publish instead of a pool of
+     *                       platform threads (Java 21+)
+     */
+    ChangeStreams(boolean virtualThreads) {
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("venn-sse-");
+            executor.setVirtualThreads(true);
+            sender = executor;
+        } else {
+            sender = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "venn-sse");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Opens a stream of the workspace's changes after {@code since} (from now when null).
+     * A reconnecting client passes the id of the last event it saw.
+     */
+    SseEmitter subscribe(DiagramWorkspace workspace, Long since) {
+        SseEmitter emitter = new SseEmitter(TIMEOUT_MILLIS);
+        Stream stream = new Stream(emitter, since != null ? since : workspace.getVersion());
+        List<Stream> open = streams.computeIfAbsent(workspace.getDiagramId(), id -> new CopyOnWriteArrayList<>());
+        open.add(stream);
+        Runnable remove = () -> open.remove(stream);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        sender.execute(() -> {
+            if (stream.ready()) stream.drain(workspace);
+        });
+        return emitter;
+    }
+
+    /**
+     * Sends the workspace's new changes to its streams; call after the write lock is released.
+     */
+    void publish(DiagramWorkspace workspace) {
+        List<Stream> open = streams.get(workspace.getDiagramId());
+        if (open == null || open.isEmpty()) return;
+        sender.execute(() -> {
+            for (Stream stream : open) {
+                if (!stream.drain(workspace)) open.remove(stream);
+            }
+        });
+    }
+
+    void close() {
+        if (sender instanceof ExecutorService pool) pool.shutdownNow();
+        if (sender instanceof SimpleAsyncTaskExecutor executor) executor.close();
+        streams.values().forEach(open -> open.forEach(stream -> stream.emitter.complete()));
+        streams.clear();
+    }
+
+    private static final class Stream {
+        final SseEmitter emitter;
+        // Guards 'sent' and keeps one stream's events in order
+        final ReentrantLock lock = new ReentrantLock();
+        long sent;
+
+        Stream(SseEmitter emitter, long since) {
+            this.emitter = emitter;
+            this.sent = since;
+        }
+
+        boolean ready() {
+            lock.lock();
+            try {
+                emitter.send(SseEmitter.event().name("ready").id(Long.toString(sent)).data(Map.of("version", sent)));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                return false; // The client went away; the emitter's callbacks drop the stream
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sends every change after the last one sent. Returns false once the client is gone.
+         */
+        boolean drain(DiagramWorkspace workspace) {
+            lock.lock();
+            try {
+                ChangeLog.ChangeSet changes = workspace.changesSince(sent);
+                // After a refetch the client is at the latest version, so nothing else is sent
+                if (changes.reset || changes.changes.stream().anyMatch(change -> change.reset)) {
+                    emitter.send(SseEmitter.event().name("reset").id(Long.toString(changes.version))
+                            .data(Map.of("version", changes.version)));
+                } else {
+                    for (ChangeLog.Change change : changes.changes) {
+                        emitter.send(SseEmitter.event().name("change").id(Long.toString(change.version)).data(change));
+                    }
+                }
+                sent = changes.version;
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -1,10 +1,31 @@
 package com.example.venndiagramapi;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import jakarta.annotation.PostConstruct;
-
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -15,8 +36,64 @@ import java.util.stream.Collectors;
 @Service
 public class DiagramManagerService {
 
+    private static final Logger log = LoggerFactory.getLogger(DiagramManagerService.class);
+
     // Our in-memory "database" of all diagrams, keyed by their unique ID
     private final Map<String, DiagramWorkspace> workspaces = new ConcurrentHashMap<>();
+    // Largest generated-template result a listing endpoint will serialize (see listable)
+    static final int MAX_LISTED_OUTCOMES = 100_000;
+
+    private final ObjectMapper objectMapper;
+    private final WorkspacePersistence persistence;
+    private final ChangeStreams changeStreams;
+    // Query results per diagram for the current version (see ResultCache)
+    private final Map<String, ResultCache> resultCaches = new ConcurrentHashMap<>();
+    @Value("${venn.result-cache.max-bytes:16777216}")
+    private long resultCacheMaxBytes = 16 << 20;
+    // Full partition rebuilds of this many elements or more run on a fork-join pool
+    @Value("${venn.partitions.parallel-threshold:200000}")
+    private int parallelRebuildThreshold = 200_000;
+    @Value("${venn.partitions.parallelism:0}")
+    private int parallelRebuildParallelism;
+    // Built from the two settings above in recover(); passed to every model this service creates
+    private ParallelRebuild parallelRebuild = ParallelRebuild.DEFAULT;
+
+    public DiagramManagerService(ObjectMapper objectMapper, WorkspacePersistence persistence) {
+        this(objectMapper, persistence, false);
+    }
+
+    /**
+     * With spring.threads.virtual.enabled on Java 21+, requests already run on virtual
+     * threads; change notifications are then sent on virtual threads too. Nothing here
+     * blocks inside a synchronized block, so virtual threads waiting on a workspace lock
+     * or the log's fsync unmount instead of pinning their carrier.
+     */
+    @Autowired
+    public DiagramManagerService(ObjectMapper objectMapper, WorkspacePersistence persistence,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.objectMapper = objectMapper;
+        this.persistence = persistence;
+        this.changeStreams = new ChangeStreams(virtualThreads && Runtime.version().feature() >= 21);
+    }
+
+    /**
+     * Rebuilds the workspaces saved by a previous run before any request is served.
+     */
+    @PostConstruct
+    public void recover() {
+        // Before replay, which rebuilds the partitions of templates and bulk edits as it goes
+        parallelRebuild = ParallelRebuild.of(parallelRebuildThreshold, parallelRebuildParallelism);
+        persistence.recover(this::restoreCheckpoint, this::replay);
+        persistence.start(workspaces::values);
+        // Versions restart with the process, so clients from a previous run have to resync
+        workspaces.values().forEach(workspace -> workspace.getChanges().truncate(workspace.getVersion()));
+    }
+
+    @PreDestroy
+    public void close() {
+        changeStreams.close();
+        parallelRebuild.shutdown();
+    }
 
     /**
      * Helper to find a workspace or throw a user-friendly error.
@@ -30,6 +107,17 @@ public class DiagramManagerService {
         return workspace;
     }
 
+    /**
+     * Like getWorkspace, but rejects generated templates, which cannot be edited.
+     */
+    private DiagramWorkspace getEditableWorkspace(String diagramId) {
+        DiagramWorkspace workspace = getWorkspace(diagramId);
+        if (workspace.isVirtual()) {
+            throw new IllegalArgumentException("Diagram '" + workspace.getName() + "' is a generated template and is read-only.");
+        }
+        return workspace;
+    }
+
     /**
      * Helper to get the core model from a workspace.
      */
@@ -50,17 +138,31 @@ public class DiagramManagerService {
                     // Try to parse as a Double for numerical data
                     return Double.parseDouble(elementValue);
                 case "DICE_ROLL":
-                    // Parse "(d1,d2)" string back to DiceRoll object
+                    // Parse "(d1,d2,...)" string back to DiceRoll object
                     if (elementValue.startsWith("(") && elementValue.endsWith(")")) {
                         String[] parts = elementValue.substring(1, elementValue.length() - 1).split(",");
-                        if (parts.length == 2) {
-                            int d1 = Integer.parseInt(parts[0].trim());
-                            int d2 = Integer.parseInt(parts[1].trim());
-                            return new DiceRoll(d1, d2);
+                        int[] dice = new int[parts.length];
+                        for (int i = 0; i < parts.length; i++) {
+                            dice[i] = Integer.parseInt(parts[i].trim());
                         }
+                        return DiceRoll.of(dice);
                     }
                     // Fallback if parsing fails (shouldn't happen if frontend is good)
                     return elementValue;
+                case "PLAYING_CARD":
+                    // Parse "10H" back to its card
+                    if (elementValue.length() < 2) return elementValue;
+                    return PlayingCard.of(elementValue.substring(0, elementValue.length() - 1),
+                            elementValue.substring(elementValue.length() - 1));
+                case "CARD_HAND":
+                    // Parse "10H JH QH KH AH" (or comma separated) back to a CardHand
+                    List<PlayingCard> cards = new ArrayList<>();
+                    for (String card : elementValue.trim().split("[\\s,]+")) {
+                        if (card.length() < 2) return elementValue;
+                        cards.add(PlayingCard.of(card.substring(0, card.length() - 1),
+                                card.substring(card.length() - 1)));
+                    }
+                    return new CardHand(cards);
                 case "STRING":
                 case "IMAGE_URL":
                 default:
@@ -89,7 +191,7 @@ public class DiagramManagerService {
      * 
      * @return The newly created workspace.
      */
-    public synchronized DiagramWorkspace createBlankWorkspace(String name, String elementType) {
+    public DiagramWorkspace createBlankWorkspace(String name, String elementType) {
         if (name == null || name.isBlank()) {
             throw new IllegalArgumentException("Diagram name cannot be empty.");
         }
@@ -98,8 +200,13 @@ public class DiagramManagerService {
         }
 
         String diagramId = UUID.randomUUID().toString();
-        DiagramWorkspace workspace = new DiagramWorkspace(diagramId, name, elementType);
-        workspaces.put(diagramId, workspace);
+        DiagramWorkspace workspace = new DiagramWorkspace(diagramId, name, elementType, parallelRebuild);
+        // Registered before the record is logged, as in createTemplateWorkspace
+        workspace.write(() -> {
+            workspaces.put(diagramId, workspace);
+            workspace.setLastLsn(persistence.logCreateBlank(diagramId, name, elementType));
+        });
+        persistence.awaitDurable(workspace.getLastLsn());
         return workspace;
     }
 
@@ -108,100 +215,650 @@ public class DiagramManagerService {
      * 
      * @return The newly created workspace.
      */
-    public synchronized DiagramWorkspace createTemplateWorkspace(String templateName) {
+    public DiagramWorkspace createTemplateWorkspace(String templateName) {
         String diagramId = UUID.randomUUID().toString();
-        DiagramWorkspace workspace = ProbabilityTemplateFactory.createFromTemplate(diagramId, templateName);
-        workspaces.put(diagramId, workspace);
+        DiagramWorkspace workspace = ProbabilityTemplateFactory.createFromTemplate(diagramId, templateName, parallelRebuild);
+        // Templates are deterministic, so the log only needs the template's name
+        workspace.write(() -> {
+            // The template's contents are not in the change log; clients start from a full fetch
+            workspace.getChanges().truncate(workspace.getVersion() + 1);
+            // A checkpoint that rotates the log before this record is written must already
+            // see the workspace, or it would drop the segment holding its creation. The
+            // write lock keeps any edit (and any checkpoint of it) waiting until it is logged.
+            workspaces.put(diagramId, workspace);
+            workspace.setLastLsn(persistence.logCreateTemplate(diagramId, templateName));
+        });
+        persistence.awaitDurable(workspace.getLastLsn());
         return workspace;
     }
 
+    // --- Export / Import ---
+
+    /**
+     * Writes the diagram's current snapshot in the binary workspace format.
+     */
+    public void exportWorkspace(String diagramId, OutputStream out) throws IOException {
+        DiagramWorkspace workspace = getWorkspace(diagramId);
+        if (workspace.isVirtual()) {
+            throw new IllegalArgumentException("Generated templates cannot be exported; recreate them from '"
+                    + workspace.getTemplate().getTemplateName() + "' or stream their memberships.");
+        }
+        WorkspaceCheckpoint checkpoint = WorkspaceCheckpoint.of(workspace);
+        WorkspaceFile.write(checkpoint, new BufferedOutputStream(out, 1 << 16));
+    }
+
+    /**
+     * Loads an exported workspace file as a new diagram (with a new ID, so importing the
+     * same file twice gives two independent copies).
+     *
+     * @return The newly created workspace.
+     */
+    public DiagramWorkspace importWorkspace(InputStream in) throws IOException {
+        // The format is read through a memory mapping, so the upload is spooled to a file first
+        Path upload = Files.createTempFile("venn-import-", ".vnws");
+        try {
+            Files.copy(in, upload, StandardCopyOption.REPLACE_EXISTING);
+            String diagramId = UUID.randomUUID().toString();
+            DiagramWorkspace workspace;
+            VennDiagramModel<Object> model = new VennDiagramModel<>(parallelRebuild);
+            try (WorkspaceFile file = WorkspaceFile.open(upload)) {
+                workspace = new DiagramWorkspace(diagramId, file.name(), file.elementType(), parallelRebuild);
+                model.restore(file);
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalArgumentException("Not a valid workspace file: " + e.getMessage());
+            }
+            workspace.write(() -> workspace.replaceModel(model));
+            workspace.getChanges().truncate(workspace.getVersion());
+            // The import is not in the operation log, so it is checkpointed before it becomes visible
+            persistence.checkpoint(workspace);
+            workspaces.put(diagramId, workspace);
+            return workspace;
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    /**
+     * Streams a CSV or NDJSON membership upload into an existing diagram (see MembershipImport).
+     * The upload is spooled to a temporary file and loaded, in one pass and without any lock,
+     * into a detached copy of the diagram: rows go straight into the set bitmaps and the
+     * partitions are computed once at the end. The copy then replaces the model under one
+     * write lock and is checkpointed once. The import is one transaction: a bad row or a
+     * failed checkpoint leaves the diagram untouched, and readers never see part of it.
+     */
+    public MembershipImport.Result importMemberships(String diagramId, String contentType, InputStream in)
+            throws IOException {
+        DiagramWorkspace workspace = getEditableWorkspace(diagramId);
+        Path upload = Files.createTempFile("venn-import-", ".rows");
+        try {
+            Files.copy(in, upload, StandardCopyOption.REPLACE_EXISTING);
+            ModelSnapshot<Object> base = workspace.snapshot();
+            VennDiagramModel<Object> staged = new VennDiagramModel<>(parallelRebuild);
+            VennDiagramModel<Object>.BulkLoad loaded = stageImport(diagramId, staged, base, contentType, upload);
+            MembershipImport.Result[] result = new MembershipImport.Result[1];
+            long version = workspace.write(() -> {
+                VennDiagramModel<Object> model = staged;
+                VennDiagramModel<Object>.BulkLoad load = loaded;
+                if (workspace.getVersion() != base.getVersion()) {
+                    // Edited while the upload was loading, so load it again on top of those edits
+                    model = new VennDiagramModel<>(parallelRebuild);
+                    load = stageImport(diagramId, model, workspace.snapshot(), contentType, upload);
+                }
+                // The rows are not in the operation log, so checkpoint before anyone can log an edit on top
+                try {
+                    persistence.checkpoint(new WorkspaceCheckpoint(diagramId, workspace.getName(),
+                            workspace.getElementType(), workspace.getLastLsn(), model.snapshot(workspace.getVersion() + 1)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Import failed: could not save the diagram", e);
+                }
+                workspace.replaceModel(model);
+                result[0] = new MembershipImport.Result(0, load.getRows(), load.getSetsCreated(), model.getElementCount());
+                workspace.getChanges().recordReset(workspace.getVersion() + 1);
+            });
+            changeStreams.publish(workspace);
+            result[0].version = version;
+            return result[0];
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    /**
+     * Loads a spooled upload into {@code staged}, a detached model that starts as {@code base}.
+     */
+    private VennDiagramModel<Object>.BulkLoad stageImport(String diagramId, VennDiagramModel<Object> staged,
+            ModelSnapshot<Object> base, String contentType, Path upload) {
+        staged.restore(base);
+        VennDiagramModel<Object>.BulkLoad load = staged.bulkLoad();
+        try (InputStream data = Files.newInputStream(upload)) {
+            MembershipImport.RowReader rows = MembershipImport.open(contentType, data, objectMapper);
+            try {
+                while (rows.next()) {
+                    load.add(parseElement(diagramId, rows.element()), rows.sets());
+                }
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalArgumentException("Import rejected: line " + rows.line() + " failed: " + e.getMessage());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        load.finish();
+        return load;
+    }
+
     // --- Editor "Read" Methods (all now require diagramId) ---
+    // Reads serialize from the workspace's immutable snapshot (or its generated template),
+    // so they take no lock and never observe a half-applied write.
 
     public List<String> getSetNames(String diagramId) {
-        return getVennModel(diagramId).getSetNames();
+        return getWorkspace(diagramId).view().getSetNames();
     }
 
     public List<SetDTO> getSetsInfo(String diagramId) {
-        VennDiagramModel<Object> model = getVennModel(diagramId);
-        List<String> names = model.getSetNames();
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        List<String> names = view.getSetNames();
+        Map<String, SetRule> rules = view instanceof ModelSnapshot<Object> snapshot ? snapshot.getRules() : Map.of();
         return names.stream()
-                .map(name -> new SetDTO(name, model.getElementsInSet(name).size()))
+                .map(name -> new SetDTO(name, view.getElementsInSet(name).size(),
+                        rules.containsKey(name) ? rules.get(name).toString() : null))
                 .collect(Collectors.toList());
     }
 
     public Set<Object> getAllElements(String diagramId) {
-        return getVennModel(diagramId).getUniversalSet();
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return listable(view, view.getUniversalSet());
     }
 
+    /**
+     * A page of the universe in a stable order: ascending for NUMBER diagrams (from the
+     * sorted numeric index), dictionary order otherwise.
+     */
+    public List<Object> getElements(String diagramId, int offset, Integer limit) {
+        if (offset < 0 || (limit != null && limit < 0)) {
+            throw new IllegalArgumentException("Offset and limit must not be negative.");
+        }
+        DiagramWorkspace workspace = getWorkspace(diagramId);
+        VennDiagramView<Object> view = workspace.view();
+        int max = limit != null ? limit : Integer.MAX_VALUE;
+        if (view instanceof ModelSnapshot<Object> snapshot && "NUMBER".equals(workspace.getElementType())) {
+            return snapshot.getSortedElements(offset, max);
+        }
+        Set<Object> universe = max <= MAX_LISTED_OUTCOMES ? view.getUniversalSet()
+                : listable(view, view.getUniversalSet());
+        return universe.stream().skip(offset).limit(max).collect(Collectors.toList());
+    }
+
+    /**
+     * A point lookup against the live model's dictionary, under a brief read lock.
+     * A generated template decodes the element instead.
+     */
     public Set<String> getSetsForElement(String diagramId, String elementValue) {
         Object element = parseElement(diagramId, elementValue);
-        return getVennModel(diagramId).getSetsForElement(element);
+        DiagramWorkspace workspace = getWorkspace(diagramId);
+        if (workspace.isVirtual()) return workspace.getTemplate().getSetsForElement(element);
+        return workspace.read(() -> workspace.getModel().getSetsForElement(element));
     }
 
     public Set<Object> getElementsInSet(String diagramId, String name) {
-        return getVennModel(diagramId).getElementsInSet(name);
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return listable(view, view.getElementsInSet(name));
     }
 
     public String getPartitions(String diagramId) {
-        // Formatter is created on-the-fly, so it's always up-to-date
-        VennDiagramFormatter<Object> formatter = new VennDiagramFormatter<>(getVennModel(diagramId));
-        return formatter.getPartitionsAsString();
+        // Each workspace keeps its formatter so region descriptions survive between requests
+        DiagramWorkspace workspace = getWorkspace(diagramId);
+        VennDiagramView<Object> view = workspace.view();
+        listable(view, view.getUniversalSet());
+        return cachedResult(diagramId, view, ResultCache.key("partitions"),
+                () -> workspace.getFormatter().getPartitionsAsString(view), text -> 2L * text.length());
+    }
+
+    /**
+     * Writes the partition table as structured JSON regions directly to the output stream.
+     */
+    public void writePartitionRegions(String diagramId, OutputStream out, int offset, Integer limit,
+            boolean countsOnly) throws IOException {
+        if (offset < 0 || (limit != null && limit < 0)) {
+            throw new IllegalArgumentException("Offset and limit must not be negative.");
+        }
+        DiagramWorkspace workspace = getWorkspace(diagramId);
+        VennDiagramView<Object> view = workspace.view();
+        try (JsonGenerator gen = objectMapper.createGenerator(out, JsonEncoding.UTF8)) {
+            workspace.getFormatter().writePartitionsJson(view, gen, offset,
+                    limit != null ? limit : Integer.MAX_VALUE, countsOnly);
+        }
     }
 
+    /**
+     * Counts-only statistics, with pairwise probabilities for the given sets (all sets when null).
+     */
+    public DiagramStats getStats(String diagramId, List<String> pairSetNames) {
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return DiagramStats.from(view, pairSetNames);
+    }
+
+    // Set operations and expressions go through the diagram's result cache. Results are
+    // views over a snapshot's bitmaps (or a template's predicates), so they stay valid
+    // however long they are cached.
+
     public Set<Object> getUnion(String diagramId, String setA, String setB) {
-        return getVennModel(diagramId).getUnion(setA, setB);
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return listable(view, cachedSet(diagramId, view, ResultCache.key("union", setA, setB),
+                () -> view.getUnion(setA, setB)));
     }
 
     public Set<Object> getIntersection(String diagramId, String setA, String setB) {
-        return getVennModel(diagramId).getIntersection(setA, setB);
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return listable(view, cachedSet(diagramId, view, ResultCache.key("intersection", setA, setB),
+                () -> view.getIntersection(setA, setB)));
     }
 
     public Set<Object> getDifference(String diagramId, String setA, String setB) {
-        return getVennModel(diagramId).getDifference(setA, setB);
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return listable(view, cachedSet(diagramId, view, ResultCache.key("difference", setA, setB),
+                () -> view.getDifference(setA, setB)));
     }
 
     public Set<Object> getComplement(String diagramId, String set) {
-        return getVennModel(diagramId).getComplement(set);
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return listable(view, cachedSet(diagramId, view, ResultCache.key("complement", set),
+                () -> view.getComplement(set)));
+    }
+
+    /**
+     * Evaluates an arbitrary set expression, e.g. "(A ∪ B) ∖ (C ∩ D)".
+     */
+    public Set<Object> evaluateExpression(String diagramId, String expression) {
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return listable(view, cachedSet(diagramId, view, ResultCache.key("query", expression), () -> {
+            SetExpression parsed = SetExpression.parse(expression);
+            return view.getRegionsMatching(parsed.compile(view.getSetNames()));
+        }));
+    }
+
+    public int countExpression(String diagramId, String expression) {
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        return cachedResult(diagramId, view, ResultCache.key("count", expression), () -> {
+            SetExpression parsed = SetExpression.parse(expression);
+            return view.countRegionsMatching(parsed.compile(view.getSetNames()));
+        }, count -> 16L);
+    }
+
+    /**
+     * Hit/miss counters and current weight of the diagram's result cache.
+     */
+    public ResultCache.Stats getResultCacheStats(String diagramId) {
+        return resultCache(diagramId).stats();
+    }
+
+    private ResultCache resultCache(String diagramId) {
+        getWorkspace(diagramId);
+        return resultCaches.computeIfAbsent(diagramId, id -> new ResultCache(resultCacheMaxBytes));
+    }
+
+    // A generated template never changes, so everything computed from it belongs to version 0
+    private <R> R cachedResult(String diagramId, VennDiagramView<Object> view, String key, Supplier<R> compute,
+            ToLongFunction<R> weigher) {
+        long version = view instanceof ModelSnapshot<Object> snapshot ? snapshot.getVersion() : 0;
+        return resultCache(diagramId).get(version, key, compute, weigher);
+    }
+
+    // A bitmap-backed set costs at most about 4 bytes per element; a template's sets are decoded lazily
+    private Set<Object> cachedSet(String diagramId, VennDiagramView<Object> view, String key,
+            Supplier<Set<Object>> compute) {
+        return cachedResult(diagramId, view, key, compute,
+                set -> view instanceof VirtualTemplate ? 16L : 16L + 4L * set.size());
+    }
+
+    /**
+     * Generated templates can have tens of millions of outcomes. Endpoints that answer with
+     * a whole list refuse more than MAX_LISTED_OUTCOMES of them; counts, stats and the
+     * streaming downloads work at any size.
+     */
+    private static Set<Object> listable(VennDiagramView<Object> view, Set<Object> elements) {
+        if (view instanceof VirtualTemplate && elements.size() > MAX_LISTED_OUTCOMES) {
+            throw new IllegalArgumentException("Result has " + elements.size() + " outcomes, more than "
+                    + MAX_LISTED_OUTCOMES + " can be listed; use the count, stats or stream endpoints instead.");
+        }
+        return elements;
+    }
+
+    // --- Numeric Queries (NUMBER diagrams) ---
+    // Answered from the snapshot's sorted index (see NumericIndex) in O(log n + k).
+
+    /**
+     * The elements in a range such as "[10, 50)", in ascending order.
+     */
+    public List<Object> getElementsInRange(String diagramId, String range) {
+        NumericIndex.Range parsed = NumericIndex.Range.parse(range);
+        return numericSnapshot(diagramId).getElementsInRange(parsed);
+    }
+
+    /**
+     * How many elements of a range each region holds.
+     */
+    public DiagramStats.RangeStats getRangeStats(String diagramId, String range) {
+        NumericIndex.Range parsed = NumericIndex.Range.parse(range);
+        return DiagramStats.forRange(numericSnapshot(diagramId), parsed);
+    }
+
+    /**
+     * The k largest elements ("desc", largest first) or smallest ("asc", smallest first).
+     */
+    public List<Object> getTopElements(String diagramId, int k, String order) {
+        if (k < 0) throw new IllegalArgumentException("k must not be negative.");
+        boolean largest;
+        switch (order.toLowerCase(Locale.ROOT)) {
+            case "desc":
+                largest = true;
+                break;
+            case "asc":
+                largest = false;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown order '" + order + "'; use asc or desc.");
+        }
+        return numericSnapshot(diagramId).getTopElements(k, largest);
+    }
+
+    /**
+     * The nearest-rank percentile (0 to 100) of the elements; null for an empty diagram.
+     */
+    public Object getPercentile(String diagramId, double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        return numericSnapshot(diagramId).getPercentile(percentile);
+    }
+
+    private ModelSnapshot<Object> numericSnapshot(String diagramId) {
+        DiagramWorkspace workspace = getWorkspace(diagramId);
+        if (!"NUMBER".equals(workspace.getElementType())) {
+            throw new IllegalArgumentException("Numeric queries need a NUMBER diagram, not " + workspace.getElementType() + ".");
+        }
+        return workspace.snapshot();
+    }
+
+    // --- Streaming Downloads ---
+    // Written from the snapshot region by region, so memory stays flat whatever the size.
+
+    /**
+     * Streams the elements of one set, or of the universal set when {@code setName} is null.
+     */
+    public void streamElements(String diagramId, String setName, String format, OutputStream out)
+            throws IOException {
+        StreamingExport.Format parsed = StreamingExport.Format.parse(format);
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        Set<Object> elements = setName != null ? view.getElementsInSet(setName) : view.getUniversalSet();
+        StreamingExport.writeElements(elements, parsed, objectMapper, out);
+    }
+
+    /**
+     * Streams the result of a set expression (which covers union, intersection, difference
+     * and complement) without building the combined result first.
+     */
+    public void streamExpression(String diagramId, String expression, String format, OutputStream out)
+            throws IOException {
+        StreamingExport.Format parsed = StreamingExport.Format.parse(format);
+        SetExpression query = SetExpression.parse(expression);
+        VennDiagramView<Object> view = getWorkspace(diagramId).view();
+        Predicate<RegionMask> regions = query.compile(view.getSetNames());
+        if (view instanceof VirtualTemplate) {
+            // One pass over the outcomes rather than one per matching region
+            StreamingExport.writeElements(view.getRegionsMatching(regions), parsed, objectMapper, out);
+        } else {
+            StreamingExport.writeElements(view, regions, parsed, objectMapper, out);
+        }
+    }
+
+    /**
+     * Streams "element, sets..." rows in the format the membership import reads.
+     */
+    public void streamMemberships(String diagramId, String format, OutputStream out) throws IOException {
+        StreamingExport.Format parsed = StreamingExport.Format.parse(format);
+        StreamingExport.writeMemberships(getWorkspace(diagramId).view(), parsed, objectMapper, out);
+    }
+
+    // --- Change Notifications ---
+
+    /**
+     * The changes after the client's version, so an open editor can patch its copy.
+     */
+    public ChangeLog.ChangeSet getChangesSince(String diagramId, long since) {
+        return getWorkspace(diagramId).changesSince(since);
+    }
+
+    /**
+     * Opens a server-sent event stream of the diagram's changes (see ChangeStreams).
+     */
+    public SseEmitter streamChanges(String diagramId, Long since) {
+        return changeStreams.subscribe(getWorkspace(diagramId), since);
     }
 
     // --- Editor "Write" Methods (all now require diagramId) ---
+    // Writes take only their own workspace's write lock. Each one is expressed as a
+    // BatchOperation, so the operation log records every kind of edit the same way.
 
-    public synchronized void addSet(String diagramId, String name) {
-        getVennModel(diagramId).addSet(name, new HashSet<>());
+    public void addSet(String diagramId, String name) {
+        apply(diagramId, List.of(new BatchOperation(BatchOperation.Type.ADD_SET, name, null, null, null)));
     }
 
-    public synchronized void removeSet(String diagramId, String name) {
-        getVennModel(diagramId).removeSet(name);
+    public void removeSet(String diagramId, String name) {
+        apply(diagramId, List.of(new BatchOperation(BatchOperation.Type.REMOVE_SET, name, null, null, null)));
     }
 
-    public synchronized void renameSet(String diagramId, String oldName, String newName) {
-        getVennModel(diagramId).renameSet(oldName, newName);
+    public void renameSet(String diagramId, String oldName, String newName) {
+        apply(diagramId, List.of(new BatchOperation(BatchOperation.Type.RENAME_SET, oldName, newName, null, null)));
     }
 
-    public synchronized void updateElementMembership(String diagramId, String elementValue, Set<String> setNames) {
-        Object element = parseElement(diagramId, elementValue);
-        Set<String> setsToJoin = (setNames != null) ? setNames : new HashSet<>();
-        getVennModel(diagramId).updateElementMembership(element, setsToJoin);
+    /**
+     * Makes a set the elements matching {@code rule}; see SetRule for the syntax.
+     */
+    public void defineRuleSet(String diagramId, String setName, String rule) {
+        BatchOperation operation = new BatchOperation(BatchOperation.Type.DEFINE_RULE_SET, setName, null, null, null);
+        operation.rule = rule;
+        apply(diagramId, List.of(operation));
     }
 
-    public synchronized void setElementMembershipForSet(String diagramId, String setName, Set<String> elementValues) {
-        Set<String> elementsStr = (elementValues != null) ? elementValues : new HashSet<>();
-        // Must parse every element in the set
-        Set<Object> elements = elementsStr.stream()
-                .map(val -> parseElement(diagramId, val))
-                .collect(Collectors.toSet());
+    public void updateElementMembership(String diagramId, String elementValue, Set<String> setNames) {
+        apply(diagramId, List.of(
+                new BatchOperation(BatchOperation.Type.SET_MEMBERSHIP, elementValue, null, setNames, null)));
+    }
 
-        getVennModel(diagramId).setElementMembershipForSet(setName, elements);
+    public void setElementMembershipForSet(String diagramId, String setName, Set<String> elementValues) {
+        apply(diagramId, List.of(
+                new BatchOperation(BatchOperation.Type.SET_ELEMENTS, setName, null, null, elementValues)));
     }
 
-    public synchronized void deleteElement(String diagramId, String elementValue) {
-        Object element = parseElement(diagramId, elementValue);
-        getVennModel(diagramId).removeElement(element);
+    public void deleteElement(String diagramId, String elementValue) {
+        apply(diagramId, List.of(
+                new BatchOperation(BatchOperation.Type.DELETE_ELEMENT, elementValue, null, null, null)));
+    }
+
+    public void renameElement(String diagramId, String oldElementValue, String newElementValue) {
+        apply(diagramId, List.of(
+                new BatchOperation(BatchOperation.Type.RENAME_ELEMENT, oldElementValue, newElementValue, null, null)));
+    }
+
+    // --- Batch Edits ---
+
+    /**
+     * Applies an ordered list of edits as one transaction: a single write lock, a single
+     * version bump and a single snapshot for readers. If any operation fails, the model is
+     * restored to its state before the batch and nothing is applied.
+     */
+    public BatchOperation.Result applyBatch(String diagramId, List<BatchOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one operation.");
+        }
+        return new BatchOperation.Result(apply(diagramId, operations), operations.size());
+    }
+
+    /**
+     * The one write path: parse, apply under the write lock, log and record the change,
+     * then (optionally) wait for the log to reach disk and notify open editors once the
+     * lock is released.
+     *
+     * @return The version the write produced.
+     */
+    private long apply(String diagramId, List<BatchOperation> operations) {
+        DiagramWorkspace workspace = getEditableWorkspace(diagramId);
+        // Parse every element before taking the lock
+        List<Consumer<VennDiagramModel<Object>>> edits = toEdits(diagramId, operations);
+        // Encoded up front too, so a record that cannot be logged never reaches the model
+        byte[] record = persistence.encodeBatch(diagramId, operations);
+        long version = workspace.write(() -> {
+            VennDiagramModel<Object> model = workspace.getModel();
+            model.takeRegionChanges(); // Drop whatever a failed write left behind
+            persistence.requireWritable();
+            ModelSnapshot<Object> before = workspace.snapshot(); // Usually already built for readers
+            applyEdits(workspace, operations, edits, before);
+            // Only edits that succeeded are logged, in the order they were applied
+            try {
+                workspace.setLastLsn(persistence.logBatch(record));
+            } catch (RuntimeException e) {
+                // The log closed since the check above; an edit that is not logged is not kept
+                model.restore(before);
+                throw e;
+            }
+            workspace.getChanges().record(workspace.getVersion() + 1, operations, model.takeRegionChanges(), model);
+        });
+        persistence.awaitDurable(workspace.getLastLsn());
+        changeStreams.publish(workspace);
+        return version;
+    }
+
+    private List<Consumer<VennDiagramModel<Object>>> toEdits(String diagramId, List<BatchOperation> operations) {
+        List<Consumer<VennDiagramModel<Object>>> edits = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            edits.add(toEdit(diagramId, operations.get(i), i));
+        }
+        return edits;
+    }
+
+    /**
+     * Runs the edits against the model; caller holds the write lock. A single edit validates
+     * before it mutates, so only multi-edit batches need a snapshot to roll back to.
+     *
+     * @param before The current snapshot if the caller has one, otherwise null.
+     */
+    private void applyEdits(DiagramWorkspace workspace, List<BatchOperation> operations,
+            List<Consumer<VennDiagramModel<Object>>> edits, ModelSnapshot<Object> before) {
+        VennDiagramModel<Object> model = workspace.getModel();
+        if (edits.size() == 1) {
+            try {
+                edits.get(0).accept(model);
+            } catch (RuntimeException e) {
+                // The version does not move on a failed write, so nothing half-applied may stay
+                if (before != null) model.restore(before);
+                throw e;
+            }
+            return;
+        }
+        if (before == null) before = workspace.snapshot();
+        for (int i = 0; i < edits.size(); i++) {
+            try {
+                edits.get(i).accept(model);
+            } catch (RuntimeException e) {
+                model.restore(before);
+                throw new IllegalArgumentException(
+                        "Batch rolled back: operation " + i + " (" + operations.get(i) + ") failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // --- Recovery ---
+
+    private void restoreCheckpoint(WorkspaceFile checkpoint) {
+        DiagramWorkspace workspace = new DiagramWorkspace(checkpoint.diagramId(), checkpoint.name(),
+                checkpoint.elementType(), parallelRebuild);
+        VennDiagramModel<Object> model = new VennDiagramModel<>(parallelRebuild);
+        try {
+            model.restore(checkpoint);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the checkpoint of " + checkpoint.diagramId(), e);
+        }
+        workspace.write(() -> {
+            workspace.replaceModel(model);
+            workspace.setLastLsn(checkpoint.lsn());
+        });
+        workspaces.put(checkpoint.diagramId(), workspace);
+    }
+
+    /**
+     * Re-applies one log record, skipping anything the workspace's checkpoint already covers.
+     */
+    private void replay(WalRecord record) {
+        DiagramWorkspace existing = workspaces.get(record.diagramId);
+        if (existing != null && record.lsn <= existing.getLastLsn()) return;
+        try {
+            switch (record.type) {
+                case CREATE_BLANK:
+                    workspaces.put(record.diagramId,
+                            new DiagramWorkspace(record.diagramId, record.name, record.elementType, parallelRebuild));
+                    break;
+                case CREATE_TEMPLATE:
+                    workspaces.put(record.diagramId,
+                            ProbabilityTemplateFactory.createFromTemplate(record.diagramId, record.name, parallelRebuild));
+                    break;
+                case BATCH:
+                    DiagramWorkspace workspace = getWorkspace(record.diagramId);
+                    List<Consumer<VennDiagramModel<Object>>> edits = toEdits(record.diagramId, record.operations);
+                    workspace.write(() -> applyEdits(workspace, record.operations, edits, null));
+                    break;
+            }
+            getWorkspace(record.diagramId).setLastLsn(record.lsn);
+        } catch (IllegalArgumentException e) {
+            // The edit succeeded when it was logged, so this means the log and code disagree
+            log.warn("Skipping log record {} for diagram {}: {}", record.lsn, record.diagramId, e.getMessage());
+        }
     }
 
-    public synchronized void renameElement(String diagramId, String oldElementValue, String newElementValue) {
-        Object oldElement = parseElement(diagramId, oldElementValue);
-        Object newElement = parseElement(diagramId, newElementValue);
-        getVennModel(diagramId).renameElement(oldElement, newElement);
+    private Consumer<VennDiagramModel<Object>> toEdit(String diagramId, BatchOperation operation, int index) {
+        if (operation == null || operation.op == null || operation.name == null) {
+            throw new IllegalArgumentException("Operation " + index + " needs an 'op' and a 'name'.");
+        }
+        String name = operation.name;
+        switch (operation.op) {
+            case ADD_SET:
+                return model -> model.addSet(name, new HashSet<>());
+            case REMOVE_SET:
+                return model -> model.removeSet(name);
+            case RENAME_SET:
+                String newSetName = requireNewName(operation, index);
+                return model -> model.renameSet(name, newSetName);
+            case SET_MEMBERSHIP:
+                Object element = parseElement(diagramId, name);
+                Set<String> sets = operation.sets != null ? operation.sets : new HashSet<>();
+                return model -> model.updateElementMembership(element, sets);
+            case SET_ELEMENTS:
+                Set<Object> elements = (operation.elements != null ? operation.elements : Set.<String>of()).stream()
+                        .map(val -> parseElement(diagramId, val))
+                        .collect(Collectors.toSet());
+                return model -> model.setElementMembershipForSet(name, elements);
+            case RENAME_ELEMENT:
+                Object oldElement = parseElement(diagramId, name);
+                Object newElement = parseElement(diagramId, requireNewName(operation, index));
+                return model -> model.renameElement(oldElement, newElement);
+            case DELETE_ELEMENT:
+                Object deleted = parseElement(diagramId, name);
+                return model -> model.removeElement(deleted);
+            case DEFINE_RULE_SET:
+                if (operation.rule == null) {
+                    throw new IllegalArgumentException("Operation " + index + " (" + operation.op + ") needs a 'rule'.");
+                }
+                SetRule rule = SetRule.parse(operation.rule);
+                rule.requireApplicable(getWorkspace(diagramId).getElementType());
+                return model -> model.defineRuleSet(name, rule);
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation.op);
+        }
+    }
+
+    private static String requireNewName(BatchOperation operation, int index) {
+        if (operation.newName == null) {
+            throw new IllegalArgumentException("Operation " + index + " (" + operation.op + ") needs a 'newName'.");
+        }
+        return operation.newName;
     }
-}
\ No newline at end of file
+}
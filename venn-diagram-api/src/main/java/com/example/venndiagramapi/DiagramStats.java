@@ -0,0 +1,171 @@
+package com.example.venndiagramapi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A counts-only probability summary of a diagram: set sizes, region sizes and the
+ * probabilities derived from them. It is built purely from the region cardinalities
+ * the model keeps up to date, so no element is ever materialized.
+ * The sample space is every element in the diagram.
+ */
+public class DiagramStats {
+    // Pairs are only listed by default for the first this many sets; more must be asked for
+    static final int MAX_DEFAULT_PAIR_SETS = 16;
+
+    public int universeSize;
+    public List<SetStat> sets;
+    public List<RegionStat> regions;
+    public List<PairStat> pairs;
+    // True when no sets were named and only the pairs of the first MAX_DEFAULT_PAIR_SETS are listed
+    public boolean pairsTruncated;
+
+    public static class SetStat {
+        public String name;
+        public int size;
+        public Double probability;
+
+        public SetStat(String name, int size, Double probability) {
+            this.name = name;
+            this.size = size;
+            this.probability = probability;
+        }
+    }
+
+    public static class RegionStat {
+        public String mask;
+        public List<String> sets;
+        public int count;
+        public Double probability;
+
+        public RegionStat(String mask, List<String> sets, int count, Double probability) {
+            this.mask = mask;
+            this.sets = sets;
+            this.count = count;
+            this.probability = probability;
+        }
+    }
+
+    /**
+     * P(A), P(B), P(A∩B), P(A∪B), the two conditionals and an exact independence check.
+     * Conditionals are null when the conditioning set is empty.
+     */
+    public static class PairStat {
+        public String setA;
+        public String setB;
+        public int intersection;
+        public Double pAandB;
+        public Double pAorB;
+        public Double pAgivenB;
+        public Double pBgivenA;
+        public boolean independent;
+    }
+
+    /**
+     * Computes the summary in one pass over the occupied regions.
+     * Pairwise statistics are produced for every pair drawn from {@code pairSetNames}; when
+     * that is null, from the first {@link #MAX_DEFAULT_PAIR_SETS} sets, since all pairs of
+     * many sets would cost O(regions × sets²).
+     */
+    public static DiagramStats from(VennDiagramView<?> model, Collection<String> pairSetNames) {
+        List<String> setNames = model.getSetNames();
+        boolean truncated = false;
+        if (pairSetNames == null) {
+            truncated = setNames.size() > MAX_DEFAULT_PAIR_SETS;
+            pairSetNames = truncated ? setNames.subList(0, MAX_DEFAULT_PAIR_SETS) : setNames;
+        }
+        List<RegionMask> masks = model.getPartitionMasks();
+        int total = model.getElementCount();
+
+        int[] pairIndexes = new int[pairSetNames.size()];
+        int k = 0;
+        for (String name : pairSetNames) {
+            int index = setNames.indexOf(name);
+            if (index == -1) throw new IllegalArgumentException("No set found with name: " + name);
+            pairIndexes[k++] = index;
+        }
+
+        long[] setSizes = new long[setNames.size()];
+        long[][] pairCounts = new long[pairIndexes.length][pairIndexes.length];
+        DiagramStats stats = new DiagramStats();
+        stats.universeSize = total;
+        stats.pairsTruncated = truncated;
+        stats.regions = new ArrayList<>(masks.size());
+        for (RegionMask mask : masks) {
+            int count = model.getPartitionSize(mask);
+            List<String> regionSets = new ArrayList<>(mask.bitCount());
+            for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+                setSizes[i] += count;
+                regionSets.add(setNames.get(i));
+            }
+            for (int a = 0; a < pairIndexes.length; a++) {
+                if (!mask.get(pairIndexes[a])) continue;
+                for (int b = a + 1; b < pairIndexes.length; b++) {
+                    if (mask.get(pairIndexes[b])) pairCounts[a][b] += count;
+                }
+            }
+            stats.regions.add(new RegionStat(mask.toString(), regionSets, count, ratio(count, total)));
+        }
+
+        stats.sets = new ArrayList<>(setNames.size());
+        for (int i = 0; i < setNames.size(); i++) {
+            stats.sets.add(new SetStat(setNames.get(i), (int) setSizes[i], ratio(setSizes[i], total)));
+        }
+
+        stats.pairs = new ArrayList<>();
+        for (int a = 0; a < pairIndexes.length; a++) {
+            for (int b = a + 1; b < pairIndexes.length; b++) {
+                long sizeA = setSizes[pairIndexes[a]];
+                long sizeB = setSizes[pairIndexes[b]];
+                long both = pairCounts[a][b];
+                PairStat pair = new PairStat();
+                pair.setA = setNames.get(pairIndexes[a]);
+                pair.setB = setNames.get(pairIndexes[b]);
+                pair.intersection = (int) both;
+                pair.pAandB = ratio(both, total);
+                pair.pAorB = ratio(sizeA + sizeB - both, total);
+                pair.pAgivenB = ratio(both, sizeB);
+                pair.pBgivenA = ratio(both, sizeA);
+                // P(A∩B) == P(A)P(B), checked on the integer counts to avoid rounding
+                pair.independent = total > 0 && both * total == sizeA * sizeB;
+                stats.pairs.add(pair);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * How the elements of a numeric range spread over the regions, with each region's
+     * probability given the range.
+     */
+    public static class RangeStats {
+        public String range;
+        public int count;
+        public List<RegionStat> regions;
+    }
+
+    /**
+     * Per-region counts of a range, from the snapshot's sorted numeric index.
+     */
+    static RangeStats forRange(ModelSnapshot<?> snapshot, NumericIndex.Range range) {
+        List<String> setNames = snapshot.getSetNames();
+        List<RegionMask> masks = snapshot.getPartitionMasks();
+        int[] counts = snapshot.countRangeByRegion(range);
+        RangeStats stats = new RangeStats();
+        stats.range = range.toString();
+        for (int count : counts) stats.count += count;
+        stats.regions = new ArrayList<>(masks.size());
+        for (int i = 0; i < masks.size(); i++) {
+            RegionMask mask = masks.get(i);
+            List<String> regionSets = new ArrayList<>(mask.bitCount());
+            for (int s = mask.nextSetBit(0); s >= 0; s = mask.nextSetBit(s + 1)) regionSets.add(setNames.get(s));
+            stats.regions.add(new RegionStat(mask.toString(), regionSets, counts[i], ratio(counts[i], stats.count)));
+        }
+        return stats;
+    }
+
+    private static Double ratio(long count, long total) {
+        return total == 0 ? null : (double) count / total;
+    }
+}
@@ -1,6 +1,12 @@
 package com.example.venndiagramapi;
 
+import java.security.SecureRandom;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 /**
  * A wrapper class that holds a single VennDiagramModel and its metadata.
@@ -12,13 +18,50 @@ public class DiagramWorkspace {
     private final String diagramId;
     private String name;
     private final String elementType; // "STRING", "NUMBER", or "IMAGE_URL"
-    private final VennDiagramModel<Object> model;
+    private VennDiagramModel<Object> model; // Replaced only under the write lock
+    private final VennDiagramFormatter<Object> formatter;
+    // Set for generated templates, which are never materialized; the model then stays empty
+    private final VirtualTemplate template;
+    // Guards the model. Each diagram has its own lock, so writers to different
+    // diagrams never wait on each other, and readers never see a half-applied edit.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Bumped after every write batch; snapshots are tagged with the version they reflect
+    private volatile long version;
+    private volatile ModelSnapshot<Object> snapshot;
+    // Taken inside the read lock while a snapshot is built, so readers build one at a time
+    private final Lock snapshotLock = new ReentrantLock();
+    // LSN of the last operation-log record applied to this workspace; written under the write lock
+    private volatile long lastLsn;
+    // Recent writes as deltas for open editors; recorded under the write lock
+    private final ChangeLog changes = new ChangeLog();
+    // Serialized read responses for the current version
+    private final ResponseCache responses = new ResponseCache();
+    // Versions restart with the process, so ETags carry a per-run prefix
+    private static final String ETAG_EPOCH = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
 
     public DiagramWorkspace(String diagramId, String name, String elementType) {
+        this(diagramId, name, elementType, ParallelRebuild.DEFAULT);
+    }
+
+    DiagramWorkspace(String diagramId, String name, String elementType, ParallelRebuild parallelRebuild) {
         this.diagramId = Objects.requireNonNull(diagramId);
         this.name = Objects.requireNonNull(name);
         this.elementType = Objects.requireNonNull(elementType);
+        this.model = new VennDiagramModel<>(parallelRebuild);
+        this.formatter = new VennDiagramFormatter<>();
+        this.template = null;
+    }
+
+    /**
+     * A read-only workspace over a generated template.
+     */
+    DiagramWorkspace(String diagramId, VirtualTemplate template) {
+        this.diagramId = Objects.requireNonNull(diagramId);
+        this.name = template.getName();
+        this.elementType = template.getElementType();
         this.model = new VennDiagramModel<>();
+        this.formatter = new VennDiagramFormatter<>();
+        this.template = template;
     }
 
     // Getters
@@ -27,6 +70,96 @@ public class DiagramWorkspace {
     public void setName(String name) { this.name = name; }
     public String getElementType() { return elementType; }
     public VennDiagramModel<Object> getModel() { return model; }
+    /** Swaps in a model built off to the side (see importMemberships); call under the write lock. */
+    void replaceModel(VennDiagramModel<Object> model) { this.model = Objects.requireNonNull(model); }
+    public VennDiagramFormatter<Object> getFormatter() { return formatter; }
+    public long getVersion() { return version; }
+    public long getLastLsn() { return lastLsn; }
+    public void setLastLsn(long lastLsn) { this.lastLsn = lastLsn; }
+    public ChangeLog getChanges() { return changes; }
+    ResponseCache getResponseCache() { return responses; }
+    VirtualTemplate getTemplate() { return template; }
+    public boolean isVirtual() { return template != null; }
+
+    /**
+     * What reads should serialize from: the current snapshot, or the template itself for a
+     * virtual workspace. Either can be used without locking.
+     */
+    public VennDiagramView<Object> view() {
+        return template != null ? template : snapshot();
+    }
+
+    /**
+     * The strong ETag of every read response at the given version of a workspace.
+     */
+    public static String etag(long version) {
+        return "\"" + ETAG_EPOCH + "-" + version + "\"";
+    }
+
+    /**
+     * The changes after the given version, up to the current one.
+     */
+    public ChangeLog.ChangeSet changesSince(long since) {
+        return changes.since(since, version);
+    }
+
+    /**
+     * Runs a read-only action against the model under this workspace's read lock.
+     * Results must not hand out live views of the model, because they outlive the lock.
+     */
+    public <R> R read(Supplier<R> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a mutation against the model under this workspace's write lock. The version
+     * only moves on if the action completes; an action that throws must leave the model
+     * as it found it, so caches and change feeds keyed by version stay valid.
+     *
+     * @return The version the write produced.
+     */
+    public long write(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            action.run();
+            return ++version;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The immutable snapshot for the current version. Once published, readers get it
+     * without any locking; the first reader after a write builds it under the read lock,
+     * so a burst of writes pays for at most one copy. Readers build it one at a time, as
+     * taking a snapshot updates the model's record of what it shares with the last one.
+     */
+    public ModelSnapshot<Object> snapshot() {
+        ModelSnapshot<Object> current = snapshot;
+        if (current != null && current.getVersion() == version) {
+            return current;
+        }
+        return read(() -> {
+            snapshotLock.lock();
+            try {
+                ModelSnapshot<Object> latest = snapshot;
+                if (latest != null && latest.getVersion() == version) {
+                    return latest;
+                }
+                // The version cannot move while we hold the read lock
+                ModelSnapshot<Object> fresh = model.snapshot(version);
+                snapshot = fresh;
+                return fresh;
+            } finally {
+                snapshotLock.unlock();
+            }
+        });
+    }
 
     /**
      * A simple "summary" class to send to the dashboard list,
@@ -1,59 +1,160 @@
 package com.example.venndiagramapi;
 
-import java.util.Objects;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.List;
 
 /**
- * Represents a single roll of two dice.
- * Used for the "Two Dice Rolls" probability template.
+ * Represents a single roll of one or more dice.
+ * Used for the "Dice Rolls" probability templates.
+ *
+ * The faces are packed into one int as base-6 digits, first die most significant, which
+ * is also the roll's rank among all rolls of that many dice. Rolls of up to
+ * {@link #CANONICAL_DICE} dice are canonical instances, so a template's universe costs
+ * no more than the rolls themselves.
  */
-public class DiceRoll {
-    private final java.util.List<Integer> dice;
+@JsonSerialize(using = DiceRoll.Json.class)
+public final class DiceRoll {
+
+    static final int MAX_DICE = 11; // 6^11 outcomes still fit an int
+    static final int CANONICAL_DICE = 5;
+
+    private static final int[] POW6 = new int[MAX_DICE + 1];
+    // CANONICAL[n][rank] is the roll of n dice with that rank
+    private static final DiceRoll[][] CANONICAL = new DiceRoll[CANONICAL_DICE + 1][];
 
-    public DiceRoll(java.util.List<Integer> dice) {
-        this.dice = new java.util.ArrayList<>(dice);
+    static {
+        POW6[0] = 1;
+        for (int i = 1; i <= MAX_DICE; i++) POW6[i] = POW6[i - 1] * 6;
+        for (int n = 1; n <= CANONICAL_DICE; n++) {
+            CANONICAL[n] = new DiceRoll[POW6[n]];
+            for (int rank = 0; rank < POW6[n]; rank++) CANONICAL[n][rank] = new DiceRoll(n, rank);
+        }
     }
 
-    public DiceRoll(int... diceValues) {
-        this.dice = new java.util.ArrayList<>();
-        for (int v : diceValues) {
-            this.dice.add(v);
+    private final byte count;
+    private final int packed;
+    private final int hash;
+
+    private DiceRoll(int count, int packed) {
+        this.count = (byte) count;
+        this.packed = packed;
+        this.hash = 31 * packed + count;
+    }
+
+    public static DiceRoll of(int... dice) {
+        if (dice.length < 1 || dice.length > MAX_DICE) {
+            throw new IllegalArgumentException("A roll must have between 1 and " + MAX_DICE + " dice");
         }
+        int rank = 0;
+        for (int face : dice) {
+            if (face < 1 || face > 6) throw new IllegalArgumentException("Die faces must be between 1 and 6");
+            rank = rank * 6 + face - 1;
+        }
+        return ofRank(dice.length, rank);
+    }
+
+    public static DiceRoll of(List<Integer> dice) {
+        int[] faces = new int[dice.size()];
+        for (int i = 0; i < faces.length; i++) faces[i] = dice.get(i);
+        return of(faces);
+    }
+
+    /**
+     * The roll of {@code count} dice with the given rank (0 is all ones).
+     */
+    static DiceRoll ofRank(int count, int rank) {
+        return count <= CANONICAL_DICE ? CANONICAL[count][rank] : new DiceRoll(count, rank);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getDie(int index) {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException(index);
+        return packed / POW6[count - 1 - index] % 6 + 1;
+    }
+
+    /**
+     * The faces as a list, decoded on access.
+     */
+    public List<Integer> getDice() {
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return getDie(index);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
     }
 
-    public java.util.List<Integer> getDice() {
-        return java.util.Collections.unmodifiableList(dice);
+    int getRank() {
+        return packed;
     }
 
-    // Backward compatibility helpers (optional, but might break if used elsewhere)
-    // Better to update usages.
+    /**
+     * Appends the roll as JSON, {"dice": [1, 2, 3]}, without building a String first.
+     */
+    void appendJson(StringBuilder sb) {
+        sb.append("{\"dice\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(getDie(i));
+        }
+        sb.append("]}");
+    }
 
     @Override
     public boolean equals(Object o) {
         if (this == o)
             return true;
-        if (o == null || getClass() != o.getClass())
+        if (!(o instanceof DiceRoll))
             return false;
         DiceRoll diceRoll = (DiceRoll) o;
-        return java.util.Objects.equals(dice, diceRoll.dice);
+        return count == diceRoll.count && packed == diceRoll.packed;
     }
 
     @Override
     public int hashCode() {
-        return java.util.Objects.hash(dice);
+        return hash;
     }
 
     @Override
     public String toString() {
         // Output JSON format for easier parsing in frontend
-        // {"dice": [1, 2, 3]}
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"dice\": [");
-        for (int i = 0; i < dice.size(); i++) {
-            sb.append(dice.get(i));
-            if (i < dice.size() - 1)
-                sb.append(", ");
-        }
-        sb.append("]}");
+        StringBuilder sb = new StringBuilder(12 + 3 * count);
+        appendJson(sb);
         return sb.toString();
     }
+
+    /**
+     * Writes the same {"dice": [...]} object, straight from the packed faces.
+     */
+    static final class Json extends StdSerializer<DiceRoll> {
+        private static final long serialVersionUID = 1L;
+
+        Json() {
+            super(DiceRoll.class);
+        }
+
+        @Override
+        public void serialize(DiceRoll roll, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("dice");
+            for (int i = 0; i < roll.count; i++) gen.writeNumber(roll.getDie(i));
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package com.example.venndiagramapi;
+
+import java.util.Arrays;
+
+/**
+ * The id-to-element half of a model's dictionary, in fixed-size chunks so that snapshots
+ * can share it. {@link #share()} copies only the table of chunks; after that the first
+ * write to a chunk copies that one chunk, so a snapshot costs O(n / 4096) plus 4096 per
+ * chunk written since the previous one, rather than a copy of every element.
+ */
+final class ElementArray {
+
+    private static final int SHIFT = 12;
+    private static final int CHUNK = 1 << SHIFT;
+
+    private Object[][] chunks;
+    private boolean[] owned; // Chunks no other ElementArray holds, which may be written in place
+    private int size;
+
+    ElementArray() {
+        this(new Object[0][], 0);
+    }
+
+    private ElementArray(Object[][] chunks, int size) {
+        this.chunks = chunks;
+        this.owned = new boolean[chunks.length];
+        this.size = size;
+    }
+
+    /**
+     * Wraps a plain array (a checkpoint's dictionary, say), which is copied.
+     */
+    static ElementArray of(Object[] elements) {
+        ElementArray array = new ElementArray();
+        for (Object element : elements) array.add(element);
+        return array;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(int id) {
+        return chunks[id >>> SHIFT][id & (CHUNK - 1)];
+    }
+
+    void set(int id, Object element) {
+        int chunk = id >>> SHIFT;
+        if (!owned[chunk]) {
+            chunks[chunk] = chunks[chunk].clone();
+            owned[chunk] = true;
+        }
+        chunks[chunk][id & (CHUNK - 1)] = element;
+    }
+
+    /**
+     * Appends an element and returns its id.
+     */
+    int add(Object element) {
+        int chunk = size >>> SHIFT;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, chunk * 2));
+            owned = Arrays.copyOf(owned, chunks.length);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new Object[CHUNK];
+            owned[chunk] = true;
+        }
+        set(size, element);
+        return size++;
+    }
+
+    /**
+     * A copy that shares every chunk with this one; neither writes a shared chunk in place.
+     */
+    ElementArray share() {
+        Arrays.fill(owned, false);
+        return new ElementArray(chunks.clone(), size);
+    }
+
+    Object[] toArray() {
+        Object[] elements = new Object[size];
+        for (int id = 0; id < size; id += CHUNK) {
+            System.arraycopy(chunks[id >>> SHIFT], 0, elements, id, Math.min(CHUNK, size - id));
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.venndiagramapi;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding for the element types a workspace can hold, used by the
+ * operation log and by workspace snapshots. Each value is a one-byte type tag followed
+ * by its payload, so a DiceRoll costs a few bytes instead of a JSON object.
+ *
+ * Strings are an int byte count followed by UTF-8, so an element of any length (a data
+ * URI, say) can be stored. Data written before that used {@link DataOutput#writeUTF},
+ * which stops at 64 KB; {@link #readLegacy} still reads it.
+ */
+final class ElementCodec {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte DICE_ROLL = 3;
+    private static final byte PLAYING_CARD = 4;
+    // Longer strings are read in pieces of at least this size (see readString)
+    private static final int STRING_CHUNK = 1 << 16;
+
+    private ElementCodec() {
+    }
+
+    static void write(DataOutput out, Object element) throws IOException {
+        if (element == null) {
+            out.writeByte(NULL);
+        } else if (element instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) element);
+        } else if (element instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) element);
+        } else if (element instanceof DiceRoll) {
+            DiceRoll roll = (DiceRoll) element;
+            out.writeByte(DICE_ROLL);
+            out.writeByte(roll.getCount());
+            for (int i = 0; i < roll.getCount(); i++) out.writeByte(roll.getDie(i));
+        } else if (element instanceof PlayingCard) {
+            PlayingCard card = (PlayingCard) element;
+            out.writeByte(PLAYING_CARD);
+            writeString(out, card.getRank());
+            writeString(out, card.getSuit());
+        } else {
+            throw new IllegalArgumentException("Cannot encode element of type " + element.getClass().getName());
+        }
+    }
+
+    static Object read(DataInput in) throws IOException {
+        return read(in, false);
+    }
+
+    /**
+     * Reads an element written with writeUTF strings (workspace files before version 3).
+     */
+    static Object readLegacy(DataInput in) throws IOException {
+        return read(in, true);
+    }
+
+    private static Object read(DataInput in, boolean legacy) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in, legacy);
+            case DOUBLE:
+                return in.readDouble();
+            case DICE_ROLL:
+                int[] dice = new int[in.readUnsignedByte()];
+                for (int i = 0; i < dice.length; i++) dice[i] = in.readUnsignedByte();
+                return DiceRoll.of(dice);
+            case PLAYING_CARD:
+                return PlayingCard.of(readString(in, legacy), readString(in, legacy));
+            default:
+                throw new IOException("Unknown element tag: " + tag);
+        }
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in, boolean legacy) throws IOException {
+        if (legacy) return in.readUTF();
+        int length = in.readInt();
+        if (length < 0) throw new IOException("Negative string length: " + length);
+        // The length may come from an uploaded file, so the buffer only grows as bytes arrive
+        byte[] bytes = new byte[Math.min(length, STRING_CHUNK)];
+        for (int read = 0; read < length; read = bytes.length) {
+            if (read == bytes.length) bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+            in.readFully(bytes, read, bytes.length - read);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a nullable string (a presence flag, then the string).
+     */
+    static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) writeString(out, value);
+    }
+
+    static String readNullableString(DataInput in, boolean legacy) throws IOException {
+        return in.readBoolean() ? readString(in, legacy) : null;
+    }
+}
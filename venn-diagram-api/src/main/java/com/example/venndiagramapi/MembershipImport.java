@@ -0,0 +1,192 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming readers for bulk membership uploads. Each row names one element and the
+ * sets it belongs to; rows are read one at a time, so an upload is never held in memory.
+ *
+ * CSV: {@code element,set1,set2,...} per line, with RFC 4180 quoting ("(1,2)" needs quotes).
+ * NDJSON: {@code {"element": "x", "sets": ["A", "B"]}} per line.
+ */
+public final class MembershipImport {
+
+    public static final String CSV = "text/csv";
+    public static final String NDJSON = "application/x-ndjson";
+
+    private MembershipImport() {
+    }
+
+    /**
+     * What the import endpoint sends back.
+     */
+    public static class Result {
+        public long version;
+        public int rows;
+        public int setsCreated;
+        public int elementCount;
+
+        public Result(long version, int rows, int setsCreated, int elementCount) {
+            this.version = version;
+            this.rows = rows;
+            this.setsCreated = setsCreated;
+            this.elementCount = elementCount;
+        }
+    }
+
+    /**
+     * A cursor over the rows of an upload.
+     */
+    interface RowReader {
+        /** Advances to the next row; false at the end of the input. */
+        boolean next() throws IOException;
+
+        String element();
+
+        /** The current row's sets; the list is reused, so it is only valid until next(). */
+        List<String> sets();
+
+        /** Where the current row starts, for error messages. */
+        long line();
+    }
+
+    static RowReader open(String contentType, InputStream in, ObjectMapper objectMapper) throws IOException {
+        String type = contentType == null ? "" : contentType.toLowerCase();
+        if (type.startsWith(CSV)) return new CsvReader(in);
+        if (type.startsWith(NDJSON)) return new NdjsonReader(objectMapper.createParser(in));
+        throw new IllegalArgumentException("Unsupported import format: " + contentType
+                + " (use " + CSV + " or " + NDJSON + ")");
+    }
+
+    private static final class CsvReader implements RowReader {
+        private final BufferedReader reader;
+        private final List<String> fields = new ArrayList<>();
+        private final List<String> sets = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private long line;
+
+        CsvReader(InputStream in) {
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            String text;
+            do {
+                text = reader.readLine();
+                line++;
+                if (text == null) return false;
+            } while (text.isBlank());
+            split(text);
+            return true;
+        }
+
+        private void split(String text) {
+            fields.clear();
+            field.setLength(0);
+            boolean quoted = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString().trim());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (quoted) throw new IllegalArgumentException("Unterminated quote");
+            fields.add(field.toString().trim());
+        }
+
+        @Override
+        public String element() {
+            return fields.get(0);
+        }
+
+        @Override
+        public List<String> sets() {
+            sets.clear();
+            for (int i = 1; i < fields.size(); i++) {
+                if (!fields.get(i).isEmpty()) sets.add(fields.get(i)); // Tolerate "x,A,,"
+            }
+            return sets;
+        }
+
+        @Override
+        public long line() {
+            return line;
+        }
+    }
+
+    /**
+     * Reads the stream token by token, so each row allocates only its own strings.
+     */
+    private static final class NdjsonReader implements RowReader {
+        private final JsonParser parser;
+        private String element;
+        private final List<String> sets = new ArrayList<>();
+        private long line;
+
+        NdjsonReader(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            JsonToken token = parser.nextToken();
+            if (token == null) return false;
+            line = parser.currentLocation().getLineNr();
+            if (token != JsonToken.START_OBJECT) throw new IllegalArgumentException("Expected a JSON object");
+            element = null;
+            sets.clear();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("element".equals(field)) {
+                    if (!value.isScalarValue()) throw new IllegalArgumentException("'element' must be a value");
+                    element = parser.getText();
+                } else if ("sets".equals(field)) {
+                    if (value != JsonToken.START_ARRAY) throw new IllegalArgumentException("'sets' must be an array");
+                    while (parser.nextToken() != JsonToken.END_ARRAY) sets.add(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (element == null) throw new IllegalArgumentException("Missing 'element'");
+            return true;
+        }
+
+        @Override
+        public String element() {
+            return element;
+        }
+
+        @Override
+        public List<String> sets() {
+            return sets;
+        }
+
+        @Override
+        public long line() {
+            return line;
+        }
+    }
+}
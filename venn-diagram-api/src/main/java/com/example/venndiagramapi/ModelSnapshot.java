@@ -0,0 +1,281 @@
+package com.example.venndiagramapi;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * An immutable, versioned copy of a VennDiagramModel: sets, regions, universe and the
+ * element dictionary as it was after one write batch.
+ *
+ * Snapshots are published atomically by their DiagramWorkspace, so GET endpoints can
+ * serialize from one without taking any lock while writers carry on with the live model.
+ * Its bitmaps and dictionary chunks are never modified once it holds them; they may be
+ * shared with the model and with later snapshots (see VennDiagramModel.snapshot).
+ */
+public final class ModelSnapshot<T> implements VennDiagramView<T> {
+
+    private final long version;
+    private final int setOrderVersion;
+    private final Map<String, RoaringBitmap> sets;
+    private final RoaringBitmap universalSet;
+    private final RoaringBitmap allElements;
+    private final List<RegionMask> masks;
+    private final Map<RegionMask, Integer> regionIndex;
+    private final RoaringBitmap[] regionMembers;
+    private final int[] regionCounts;
+    private final ElementArray elementsById;
+    private final int elementCount;
+    private final Map<String, SetRule> rules;
+    private final NumericIndex numericIndex;
+
+    ModelSnapshot(long version, int setOrderVersion, Map<String, RoaringBitmap> sets, RoaringBitmap universalSet,
+            RoaringBitmap allElements, List<RegionMask> masks, RoaringBitmap[] regionMembers, int[] regionCounts,
+            ElementArray elementsById, int elementCount, Map<String, SetRule> rules, NumericIndex numericIndex) {
+        this.version = version;
+        this.setOrderVersion = setOrderVersion;
+        this.sets = Collections.unmodifiableMap(sets);
+        this.universalSet = universalSet;
+        this.allElements = allElements;
+        this.masks = masks;
+        this.regionMembers = regionMembers;
+        this.regionCounts = regionCounts;
+        this.elementsById = elementsById;
+        this.elementCount = elementCount;
+        this.rules = Collections.unmodifiableMap(rules);
+        this.numericIndex = numericIndex;
+        this.regionIndex = new HashMap<>();
+        for (int i = 0; i < masks.size(); i++) regionIndex.put(masks.get(i), i);
+    }
+
+    /**
+     * The workspace version this snapshot was taken at.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public List<String> getSetNames() {
+        return new ArrayList<>(sets.keySet());
+    }
+
+    @Override
+    public int getSetOrderVersion() {
+        return setOrderVersion;
+    }
+
+    @Override
+    public Set<T> getUniversalSet() {
+        return new IdSetView(universalSet);
+    }
+
+    @Override
+    public Set<T> getElementsInSet(String setName) {
+        return new IdSetView(requireSet(setName));
+    }
+
+    @Override
+    public List<RegionMask> getPartitionMasks() {
+        return masks;
+    }
+
+    @Override
+    public Set<T> getPartition(RegionMask mask) {
+        Integer index = regionIndex.get(mask);
+        return index == null ? Collections.emptySet() : new IdSetView(regionMembers[index]);
+    }
+
+    @Override
+    public int getPartitionSize(RegionMask mask) {
+        Integer index = regionIndex.get(mask);
+        return index == null ? 0 : regionCounts[index];
+    }
+
+    @Override
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public Set<T> getIntersection(String... setNames) {
+        if (setNames.length == 0) return Collections.emptySet();
+        return new IdSetView(FastAggregation.and(requireSets(setNames)));
+    }
+
+    @Override
+    public Set<T> getUnion(String... setNames) {
+        if (setNames.length == 0) return Collections.emptySet();
+        return new IdSetView(FastAggregation.or(requireSets(setNames)));
+    }
+
+    @Override
+    public Set<T> getDifference(String setA, String setB) {
+        return new IdSetView(RoaringBitmap.andNot(requireSet(setA), requireSet(setB)));
+    }
+
+    @Override
+    public Set<T> getComplement(String setName) {
+        return new IdSetView(RoaringBitmap.andNot(allElements, requireSet(setName)));
+    }
+
+    @Override
+    public Set<T> getRegionsMatching(Predicate<RegionMask> predicate) {
+        List<RoaringBitmap> matching = new ArrayList<>();
+        for (int i = 0; i < regionMembers.length; i++) {
+            if (predicate.test(masks.get(i))) matching.add(regionMembers[i]);
+        }
+        return new IdSetView(FastAggregation.or(matching.iterator()));
+    }
+
+    @Override
+    public int countRegionsMatching(Predicate<RegionMask> predicate) {
+        int count = 0;
+        for (int i = 0; i < regionCounts.length; i++) {
+            if (predicate.test(masks.get(i))) count += regionCounts[i];
+        }
+        return count;
+    }
+
+    /**
+     * The rule of each rule-defined set.
+     */
+    public Map<String, SetRule> getRules() {
+        return rules;
+    }
+
+    // --- Numeric Elements in Order (see NumericIndex) ---
+    // Every query is a binary search or two plus the elements it returns. Non-numeric
+    // elements are not indexed, and NaN sorts last and is never in a range, top-k or percentile.
+
+    /**
+     * The numeric elements in ascending order, starting at {@code offset}.
+     */
+    public List<T> getSortedElements(int offset, int limit) {
+        int from = Math.min(offset, numericIndex.size());
+        return slice(from, (int) Math.min((long) from + limit, numericIndex.size()), false);
+    }
+
+    /**
+     * The elements in the range, in ascending order.
+     */
+    public List<T> getElementsInRange(NumericIndex.Range range) {
+        return slice(numericIndex.start(range), numericIndex.end(range), false);
+    }
+
+    /**
+     * How many elements of the range each region holds, in {@link #getPartitionMasks()} order.
+     */
+    public int[] countRangeByRegion(NumericIndex.Range range) {
+        RoaringBitmap ids = numericIndex.select(range);
+        int[] counts = new int[regionMembers.length];
+        for (int i = 0; i < counts.length; i++) counts[i] = RoaringBitmap.andCardinality(ids, regionMembers[i]);
+        return counts;
+    }
+
+    /**
+     * The {@code k} largest elements, largest first, or the smallest, smallest first.
+     */
+    public List<T> getTopElements(int k, boolean largest) {
+        int n = numericIndex.comparableSize();
+        int count = Math.min(k, n);
+        return largest ? slice(n - count, n, true) : slice(0, count, false);
+    }
+
+    /**
+     * The nearest-rank percentile (0 to 100) of the numeric elements; null when there are none.
+     */
+    @SuppressWarnings("unchecked")
+    public T getPercentile(double percentile) {
+        int n = numericIndex.comparableSize();
+        if (n == 0) return null;
+        int rank = (int) Math.ceil(percentile / 100 * n);
+        return (T) elementsById.get(numericIndex.id(Math.max(rank, 1) - 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> slice(int from, int to, boolean descending) {
+        int[] ids = numericIndex.ids(from, to);
+        List<T> elements = new ArrayList<>(ids.length);
+        if (descending) {
+            for (int i = ids.length - 1; i >= 0; i--) elements.add((T) elementsById.get(ids[i]));
+        } else {
+            for (int id : ids) elements.add((T) elementsById.get(id));
+        }
+        return elements;
+    }
+
+    // --- Raw state, for VennDiagramModel.restore ---
+    Map<String, RoaringBitmap> sets() {
+        return sets;
+    }
+    RoaringBitmap universalSet() {
+        return universalSet;
+    }
+    RoaringBitmap allElements() {
+        return allElements;
+    }
+    RoaringBitmap regionMembers(int index) {
+        return regionMembers[index];
+    }
+    ElementArray elementsById() {
+        return elementsById;
+    }
+    Map<String, SetRule> rules() {
+        return rules;
+    }
+
+    private RoaringBitmap requireSet(String setName) {
+        RoaringBitmap set = sets.get(setName);
+        if (set == null) throw new IllegalArgumentException("No set found with name: " + setName);
+        return set;
+    }
+
+    private RoaringBitmap[] requireSets(String... setNames) {
+        RoaringBitmap[] result = new RoaringBitmap[setNames.length];
+        for (int i = 0; i < setNames.length; i++) result[i] = requireSet(setNames[i]);
+        return result;
+    }
+
+    /**
+     * Decodes a bitmap through the snapshot's copy of the element dictionary.
+     * Snapshots carry no reverse index, so contains() is a linear scan; it is meant for serialization.
+     */
+    private class IdSetView extends AbstractSet<T> {
+        private final RoaringBitmap ids;
+
+        IdSetView(RoaringBitmap ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public int size() {
+            return ids.getCardinality();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ids.isEmpty();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            IntIterator it = ids.getIntIterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public T next() {
+                    return (T) elementsById.get(it.next());
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.example.venndiagramapi;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+
+/**
+ * The numeric elements of a diagram in ascending order. A range is a few binary searches,
+ * so range sets, range counts, top-k, percentiles and ordered paging cost O(log n + k)
+ * rather than a scan.
+ *
+ * The index is a sorted base of parallel primitive arrays (values and element ids) plus
+ * a small delta: the base positions removed since the base was built (tombstones) and
+ * the values added since, kept sorted. The model keeps its index current as elements are
+ * interned and released; new values first go to an unsorted tail that is sorted into the
+ * delta when the index is next read. Only when the delta outgrows a few times sqrt(n)
+ * entries is everything merged into a new base, so a bulk load or bulk delete costs one
+ * O(n + k log k) merge rather than k array shifts.
+ *
+ * A base is never modified once built, so a copy for a snapshot shares it and copies
+ * only the delta.
+ *
+ * Values are ordered as {@link Double#compare} orders them, which puts NaN last; NaN is
+ * never inside a range, matching the comparisons of a SetRule.
+ */
+final class NumericIndex {
+
+    // The delta may always grow to this many entries before a merge
+    private static final int MIN_DELTA = 1024;
+
+    // Sorted base, shared with copies and never modified
+    private double[] values;
+    private int[] ids;
+    private int baseComparable; // Base entries before this position are not NaN
+    // Base positions removed since the base was built
+    private RoaringBitmap removed;
+    // Values added since the base was built, sorted
+    private double[] addedValues;
+    private int[] addedIds;
+    private int added;
+    private int addedComparable;
+    // Added since the index was last read, unsorted, and the positions in it removed again since
+    private double[] pendingValues = new double[0];
+    private int[] pendingIds = new int[0];
+    private int pending;
+    private final RoaringBitmap pendingRemoved = new RoaringBitmap();
+
+    NumericIndex() {
+        this(new double[0], new int[0], new RoaringBitmap(), new double[0], new int[0], 0);
+    }
+
+    private NumericIndex(double[] values, int[] ids, RoaringBitmap removed, double[] addedValues, int[] addedIds,
+            int added) {
+        this.values = values;
+        this.ids = ids;
+        this.removed = removed;
+        this.addedValues = addedValues;
+        this.addedIds = addedIds;
+        this.added = added;
+        this.baseComparable = firstNaN(values, values.length);
+        this.addedComparable = firstNaN(addedValues, added);
+    }
+
+    /**
+     * Indexes the numeric entries of an element dictionary (a checkpoint's, say).
+     */
+    static NumericIndex of(Object[] elementsById) {
+        NumericIndex index = new NumericIndex();
+        for (int id = 0; id < elementsById.length; id++) {
+            if (elementsById[id] instanceof Double) index.add(id, (Double) elementsById[id]);
+        }
+        index.fold();
+        index.rebuild();
+        return index;
+    }
+
+    void add(int id, double value) {
+        if (pending == pendingValues.length) {
+            int capacity = Math.max(16, pending * 2);
+            pendingValues = Arrays.copyOf(pendingValues, capacity);
+            pendingIds = Arrays.copyOf(pendingIds, capacity);
+        }
+        pendingValues[pending] = value;
+        pendingIds[pending] = id;
+        pending++;
+    }
+
+    /**
+     * Removes an entry without touching the base: O(log n) for a base entry, O(delta) for
+     * one added since. An id can be released and reused for the same value in between, so
+     * an entry that is already removed is skipped; the unsorted tail is searched newest first.
+     */
+    void remove(int id, double value) {
+        int position = Arrays.binarySearch(values, value);
+        if (position >= 0 && ids[position] == id && !removed.contains(position)) {
+            removed.add(position);
+            return;
+        }
+        position = Arrays.binarySearch(addedValues, 0, added, value);
+        if (position >= 0 && addedIds[position] == id) {
+            System.arraycopy(addedValues, position + 1, addedValues, position, added - position - 1);
+            System.arraycopy(addedIds, position + 1, addedIds, position, added - position - 1);
+            added--;
+            addedComparable = firstNaN(addedValues, added);
+            return;
+        }
+        for (int i = pending - 1; i >= 0; i--) {
+            if (pendingIds[i] == id && Double.compare(pendingValues[i], value) == 0 && !pendingRemoved.contains(i)) {
+                pendingRemoved.add(i);
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        values = new double[0];
+        ids = new int[0];
+        removed = new RoaringBitmap();
+        addedValues = new double[0];
+        addedIds = new int[0];
+        added = 0;
+        pending = 0;
+        pendingRemoved.clear();
+        baseComparable = 0;
+        addedComparable = 0;
+    }
+
+    /**
+     * A copy for a snapshot, which is never modified. It shares the base, so it costs
+     * O(delta) rather than O(n).
+     */
+    NumericIndex copy() {
+        fold();
+        return new NumericIndex(values, ids, removed.clone(), Arrays.copyOf(addedValues, added),
+                Arrays.copyOf(addedIds, added), added);
+    }
+
+    /**
+     * Sorts the live pending values into the delta, then merges the delta into a new base
+     * if it has grown past its bound. Live values are unique (they are keys of the element
+     * dictionary), so the pending ids can be placed by looking each value up in the sorted
+     * pending values.
+     */
+    private void fold() {
+        if (pending > 0) {
+            int count = pending - pendingRemoved.getCardinality();
+            double[] sortedValues = new double[count];
+            int[] sortedIds = new int[count];
+            int live = 0;
+            for (int i = 0; i < pending; i++) {
+                if (!pendingRemoved.contains(i)) sortedValues[live++] = pendingValues[i];
+            }
+            Arrays.sort(sortedValues);
+            for (int i = 0; i < pending; i++) {
+                if (!pendingRemoved.contains(i)) {
+                    sortedIds[Arrays.binarySearch(sortedValues, pendingValues[i])] = pendingIds[i];
+                }
+            }
+            double[] mergedValues = new double[added + count];
+            int[] mergedIds = new int[added + count];
+            merge(addedValues, addedIds, added, null, sortedValues, sortedIds, count, mergedValues, mergedIds);
+            addedValues = mergedValues;
+            addedIds = mergedIds;
+            added += count;
+            addedComparable = firstNaN(addedValues, added);
+            pending = 0;
+            pendingRemoved.clear();
+            if (pendingValues.length > 1024) {
+                pendingValues = new double[0]; // Don't hold on to a bulk load's buffer
+                pendingIds = new int[0];
+            }
+        }
+        if (added + removed.getCardinality() > Math.max(MIN_DELTA, 4 * (int) Math.sqrt(values.length))) rebuild();
+    }
+
+    /**
+     * Merges the delta into a new base, in one pass.
+     */
+    private void rebuild() {
+        int size = size();
+        double[] mergedValues = new double[size];
+        int[] mergedIds = new int[size];
+        merge(values, ids, values.length, removed, addedValues, addedIds, added, mergedValues, mergedIds);
+        values = mergedValues;
+        ids = mergedIds;
+        removed = new RoaringBitmap();
+        addedValues = new double[0];
+        addedIds = new int[0];
+        added = 0;
+        baseComparable = firstNaN(values, values.length);
+        addedComparable = 0;
+    }
+
+    /**
+     * Merges two sorted runs into {@code outValues}/{@code outIds}, leaving out the
+     * positions of the first run in {@code skip} (if not null).
+     */
+    private static void merge(double[] aValues, int[] aIds, int aCount, RoaringBitmap skip,
+            double[] bValues, int[] bIds, int bCount, double[] outValues, int[] outIds) {
+        PeekableIntIterator dead = skip == null ? null : skip.getIntIterator();
+        int a = 0, b = 0, out = 0;
+        while (a < aCount || b < bCount) {
+            if (dead != null && dead.hasNext() && dead.peekNext() == a) {
+                dead.next();
+                a++;
+            } else if (b == bCount || (a < aCount && Double.compare(aValues[a], bValues[b]) <= 0)) {
+                outValues[out] = aValues[a];
+                outIds[out++] = aIds[a++];
+            } else {
+                outValues[out] = bValues[b];
+                outIds[out++] = bIds[b++];
+            }
+        }
+    }
+
+    private static int firstNaN(double[] sorted, int length) {
+        int position = length;
+        while (position > 0 && Double.isNaN(sorted[position - 1])) position--;
+        return position;
+    }
+
+    // --- Queries (on a copy, which has nothing pending) ---
+    // A position is a rank in the merged order of the live base entries and the added ones.
+
+    int size() {
+        return values.length - removed.getCardinality() + added;
+    }
+
+    /**
+     * The number of values that are not NaN; they come first.
+     */
+    int comparableSize() {
+        return liveBase(baseComparable) + addedComparable;
+    }
+
+    int id(int position) {
+        return ids(position, position + 1)[0];
+    }
+
+    /**
+     * The ids at positions [from, to), in ascending order of value: a binary search to
+     * find where {@code from} falls in the base and in the delta, then a merge walk.
+     */
+    int[] ids(int from, int to) {
+        int[] result = new int[Math.max(0, to - from)];
+        if (result.length == 0) return result;
+        int a = addedBefore(from);
+        int b = basePosition(from - a);
+        PeekableIntIterator dead = removed.getIntIterator();
+        dead.advanceIfNeeded(b);
+        for (int out = 0; out < result.length; out++) {
+            while (dead.hasNext() && dead.peekNext() == b) {
+                dead.next();
+                b++;
+            }
+            if (a < added && (b == values.length || Double.compare(addedValues[a], values[b]) < 0)) {
+                result[out] = addedIds[a++];
+            } else {
+                result[out] = ids[b++];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The first position inside the range.
+     */
+    int start(Range range) {
+        return range.lowerInclusive ? firstAtLeast(range.lower) : firstAbove(range.lower);
+    }
+
+    /**
+     * The position after the last one inside the range.
+     */
+    int end(Range range) {
+        return Math.max(start(range), range.upperInclusive ? firstAbove(range.upper) : firstAtLeast(range.upper));
+    }
+
+    /**
+     * The ids of the elements in the range. Unlike the other queries this can be used on
+     * the model's own index, as it folds the pending values in first.
+     */
+    RoaringBitmap select(Range range) {
+        fold();
+        return RoaringBitmap.bitmapOfUnordered(ids(start(range), end(range)));
+    }
+
+    // Live base entries before a base position
+    private int liveBase(int position) {
+        return position == 0 ? 0 : position - (int) removed.rankLong(position - 1);
+    }
+
+    // How many added values sit before the given position: the first whose own position is not lower
+    private int addedBefore(int position) {
+        int low = 0, high = added;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int below = Arrays.binarySearch(values, addedValues[mid]);
+            // An equal base value can only be a removed one
+            if (mid + liveBase(below >= 0 ? below : -below - 1) >= position) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    // The base position of the live base entry with the given rank among them
+    private int basePosition(int rank) {
+        if (removed.isEmpty()) return Math.min(rank, values.length);
+        int low = rank, high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (liveBase(mid + 1) > rank) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    // Binary searches with the primitive comparisons a rule uses, so -0.0 equals 0.0
+    private int firstAtLeast(double bound) {
+        return liveBase(firstAtLeast(values, baseComparable, bound)) + firstAtLeast(addedValues, addedComparable, bound);
+    }
+
+    private int firstAbove(double bound) {
+        return liveBase(firstAbove(values, baseComparable, bound)) + firstAbove(addedValues, addedComparable, bound);
+    }
+
+    private static int firstAtLeast(double[] sorted, int length, double bound) {
+        int low = 0, high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] >= bound) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    private static int firstAbove(double[] sorted, int length, double bound) {
+        int low = 0, high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] > bound) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    /**
+     * An interval of values, written as in mathematics: {@code [10, 50)}, {@code (0, 1]}.
+     * A missing bound is unbounded, e.g. {@code [100, )}.
+     */
+    static final class Range {
+        static final Range ALL = new Range(Double.NEGATIVE_INFINITY, true, Double.POSITIVE_INFINITY, true);
+
+        final double lower;
+        final boolean lowerInclusive;
+        final double upper;
+        final boolean upperInclusive;
+
+        Range(double lower, boolean lowerInclusive, double upper, boolean upperInclusive) {
+            if (Double.isNaN(lower) || Double.isNaN(upper)) throw new IllegalArgumentException("Range bounds cannot be NaN.");
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+        }
+
+        static Range parse(String text) {
+            String trimmed = text == null ? "" : text.trim();
+            int comma = trimmed.indexOf(',');
+            if (trimmed.length() < 3 || comma < 0 || "[(".indexOf(trimmed.charAt(0)) < 0
+                    || "])".indexOf(trimmed.charAt(trimmed.length() - 1)) < 0) {
+                throw new IllegalArgumentException("Invalid range '" + text + "'; expected e.g. [10, 50) or [100, ).");
+            }
+            double lower = bound(trimmed.substring(1, comma), Double.NEGATIVE_INFINITY, text);
+            double upper = bound(trimmed.substring(comma + 1, trimmed.length() - 1), Double.POSITIVE_INFINITY, text);
+            // An unbounded side always includes its infinity
+            return new Range(lower, trimmed.charAt(0) == '[' || lower == Double.NEGATIVE_INFINITY,
+                    upper, trimmed.charAt(trimmed.length() - 1) == ']' || upper == Double.POSITIVE_INFINITY);
+        }
+
+        private static double bound(String text, double unbounded, String range) {
+            String trimmed = text.trim();
+            if (trimmed.isEmpty()) return unbounded;
+            try {
+                return Double.parseDouble(trimmed);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid range '" + range + "': '" + trimmed + "' is not a number.");
+            }
+        }
+
+        Range intersect(Range other) {
+            double lo = lower;
+            boolean loInclusive = lowerInclusive;
+            if (other.lower > lo || (other.lower == lo && !other.lowerInclusive)) {
+                lo = other.lower;
+                loInclusive = other.lowerInclusive;
+            }
+            double hi = upper;
+            boolean hiInclusive = upperInclusive;
+            if (other.upper < hi || (other.upper == hi && !other.upperInclusive)) {
+                hi = other.upper;
+                hiInclusive = other.upperInclusive;
+            }
+            return new Range(lo, loInclusive, hi, hiInclusive);
+        }
+
+        @Override
+        public String toString() {
+            boolean unboundedBelow = lower == Double.NEGATIVE_INFINITY;
+            boolean unboundedAbove = upper == Double.POSITIVE_INFINITY;
+            return (lowerInclusive && !unboundedBelow ? "[" : "(") + (unboundedBelow ? "" : lower) + ", "
+                    + (unboundedAbove ? "" : upper) + (upperInclusive && !unboundedAbove ? "]" : ")");
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.venndiagramapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, segmented write-ahead log.
+ *
+ * Request threads only encode their record and hand it to a queue; a single writer
+ * thread drains whatever has accumulated, writes it in one go and fsyncs once for the
+ * whole group. Each frame is {@code [int length][int crc32][long lsn][payload]}, so a torn
+ * write at the tail is detected on replay and cut off.
+ *
+ * Segments are named after the first LSN they may contain. After a checkpoint, segments
+ * that only hold records older than every workspace's snapshot are deleted.
+ */
+final class OperationLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(OperationLog.class);
+
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final boolean fsync;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    // Orders LSN assignment with queueing; held only for that, never across I/O
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durableAdvanced = durableLock.newCondition();
+    private long nextLsn;
+    private volatile long durableLsn;
+    private volatile boolean closed;
+    private FileChannel channel;
+    private Thread writer;
+
+    OperationLog(Path dir, boolean fsync) {
+        this.dir = dir;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Feeds every intact record to {@code consumer}, oldest first. A corrupt or torn
+     * frame ends its segment; the file is truncated there so new records never follow garbage.
+     *
+     * @return The highest LSN seen, or 0 for an empty log.
+     */
+    long replay(Consumer<WalRecord> consumer) throws IOException {
+        long maxLsn = 0;
+        for (Path segment : segments()) {
+            long validBytes = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+                CRC32 crc = new CRC32();
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int expectedCrc;
+                    byte[] body;
+                    try {
+                        expectedCrc = in.readInt();
+                        if (length < 8) throw new EOFException();
+                        body = new byte[length];
+                        in.readFully(body);
+                    } catch (EOFException e) {
+                        log.warn("Torn record at end of {}, truncating", segment.getFileName());
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != expectedCrc) {
+                        log.warn("Checksum mismatch in {} at byte {}, truncating", segment.getFileName(), validBytes);
+                        break;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(body);
+                    long lsn = buffer.getLong();
+                    byte[] payload = new byte[length - 8];
+                    buffer.get(payload);
+                    consumer.accept(WalRecord.decode(lsn, payload));
+                    maxLsn = Math.max(maxLsn, lsn);
+                    validBytes += 8 + length;
+                }
+            }
+            if (validBytes < Files.size(segment)) {
+                try (FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    file.truncate(validBytes);
+                }
+            }
+        }
+        return maxLsn;
+    }
+
+    /**
+     * Opens a fresh segment and starts the writer thread. Call after {@link #replay}.
+     */
+    void open(long firstLsn) throws IOException {
+        Files.createDirectories(dir);
+        nextLsn = firstLsn;
+        durableLsn = firstLsn - 1;
+        channel = openSegment(firstLsn);
+        writer = new Thread(this::runWriter, "venn-wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a record for the writer thread and returns its LSN. Cheap enough to call
+     * while holding a workspace's write lock, which keeps each workspace's records in order.
+     */
+    long append(WalRecord record) {
+        return append(record.encode());
+    }
+
+    /**
+     * Like append(WalRecord), for a record encoded ahead of time.
+     */
+    long append(byte[] payload) {
+        appendLock.lock();
+        try {
+            if (closed) throw new IllegalStateException("Operation log is closed");
+            long lsn = nextLsn++;
+            queue.add(new Frame(lsn, payload));
+            return lsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Blocks until every record up to {@code lsn} has been written (and fsynced, if enabled).
+     */
+    void awaitDurable(long lsn) throws InterruptedException {
+        durableLock.lock();
+        try {
+            while (durableLsn < lsn && !closed) durableAdvanced.await();
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment and waits for the writer to switch to it.
+     *
+     * @return The first LSN of the new segment; every earlier record is in older segments.
+     */
+    long rotate() throws InterruptedException {
+        Rotation rotation;
+        appendLock.lock();
+        try {
+            if (closed) throw new IllegalStateException("Operation log is closed");
+            rotation = new Rotation(nextLsn);
+            queue.add(rotation);
+        } finally {
+            appendLock.unlock();
+        }
+        rotation.done.await();
+        if (closed) throw new IllegalStateException("Operation log is closed");
+        return rotation.firstLsn;
+    }
+
+    /**
+     * Deletes segments whose records all have an LSN below {@code lsn}.
+     */
+    void deleteSegmentsBefore(long lsn) throws IOException {
+        List<Path> segments = segments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstLsn(segments.get(i + 1)) <= lsn) Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            boolean running = !closed && writer != null;
+            closed = true;
+            if (!running) return;
+            queue.add(Stop.INSTANCE);
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        signalDurable();
+    }
+
+    private void runWriter() {
+        List<Object> group = new ArrayList<>();
+        ByteArrayOutputStream pending = new ByteArrayOutputStream(8192);
+        DataOutputStream out = new DataOutputStream(pending);
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                group.add(queue.take());
+                queue.drainTo(group);
+                long groupLsn = -1;
+                for (Object item : group) {
+                    if (item instanceof Frame) {
+                        Frame frame = (Frame) item;
+                        ByteBuffer body = ByteBuffer.allocate(8 + frame.payload.length);
+                        body.putLong(frame.lsn).put(frame.payload);
+                        crc.reset();
+                        crc.update(body.array());
+                        out.writeInt(body.capacity());
+                        out.writeInt((int) crc.getValue());
+                        out.write(body.array());
+                        groupLsn = frame.lsn;
+                    } else {
+                        flush(pending);
+                        markDurable(groupLsn);
+                        if (item instanceof Rotation) {
+                            Rotation rotation = (Rotation) item;
+                            channel.close();
+                            channel = openSegment(rotation.firstLsn);
+                            rotation.done.countDown();
+                        } else {
+                            channel.close();
+                            return;
+                        }
+                    }
+                }
+                group.clear();
+                flush(pending);
+                markDurable(groupLsn);
+            }
+        } catch (IOException e) {
+            log.error("Operation log writer failed; further edits will not be persisted", e);
+            closed = true;
+            // Release anyone still waiting on this writer
+            queue.forEach(item -> {
+                if (item instanceof Rotation) ((Rotation) item).done.countDown();
+            });
+            signalDurable();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush(ByteArrayOutputStream pending) throws IOException {
+        if (pending.size() == 0) return;
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        while (buffer.hasRemaining()) channel.write(buffer);
+        if (fsync) channel.force(false);
+        pending.reset();
+    }
+
+    private void markDurable(long lsn) {
+        if (lsn < 0) return;
+        durableLock.lock();
+        try {
+            durableLsn = lsn;
+            durableAdvanced.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    private void signalDurable() {
+        durableLock.lock();
+        try {
+            durableAdvanced.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    private FileChannel openSegment(long firstLsn) throws IOException {
+        Path segment = dir.resolve(String.format("%s%020d%s", PREFIX, firstLsn, SUFFIX));
+        return FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> segments() throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted((a, b) -> Long.compare(firstLsn(a), firstLsn(b))).toList();
+        }
+    }
+
+    private static long firstLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static final class Frame {
+        final long lsn;
+        final byte[] payload;
+
+        Frame(long lsn, byte[] payload) {
+            this.lsn = lsn;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Rotation {
+        final long firstLsn;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Rotation(long firstLsn) {
+            this.firstLsn = firstLsn;
+        }
+    }
+
+    private enum Stop {
+        INSTANCE
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.venndiagramapi;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * When a model's full partition rebuilds go parallel, and the pool they run on (see
+ * VennDiagramModel.calculatePartitions). The service builds one from its settings and
+ * hands it to the models it creates; it owns the pool and shuts it down on close.
+ */
+final class ParallelRebuild {
+
+    // Models created outside the service (templates for benchmarks, tests)
+    static final ParallelRebuild DEFAULT = new ParallelRebuild(200_000, ForkJoinPool.commonPool());
+
+    final int threshold;
+    final ForkJoinPool pool;
+
+    ParallelRebuild(int threshold, ForkJoinPool pool) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Parallel rebuild threshold must be positive.");
+        }
+        this.threshold = threshold;
+        this.pool = pool;
+    }
+
+    /**
+     * @param threshold   Smallest number of elements rebuilt in parallel.
+     * @param parallelism Worker threads; 0 uses the common fork-join pool (one per core).
+     */
+    static ParallelRebuild of(int threshold, int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallel rebuild parallelism must not be negative.");
+        }
+        return new ParallelRebuild(threshold, parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism));
+    }
+
+    /**
+     * Stops a pool created by {@link #of}; running rebuilds still finish.
+     */
+    void shutdown() {
+        if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+    }
+}
@@ -1,64 +1,118 @@
 package com.example.venndiagramapi;
 
-import java.util.Objects;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
-public class PlayingCard {
-    private String rank; // 2-10, J, Q, K, A
-    private String suit; // H, D, C, S
+import java.io.IOException;
 
-    public PlayingCard() {
+/**
+ * One of the 52 cards, identified by a 6-bit code: suit * 13 + rank, with ranks ordered
+ * 2..10, J, Q, K, A and suits H, D, C, S. There is exactly one instance per card, and
+ * its text and JSON forms are built once, when the deck is.
+ */
+@JsonSerialize(using = PlayingCard.Json.class)
+public final class PlayingCard {
+
+    static final String[] RANKS = { "2", "3", "4", "5", "6", "7", "8", "9", "10", "J", "Q", "K", "A" };
+    static final String[] SUITS = { "H", "D", "C", "S" }; // Hearts, Diamonds, Clubs, Spades
+    private static final PlayingCard[] DECK = new PlayingCard[52];
+
+    static {
+        for (int code = 0; code < DECK.length; code++) DECK[code] = new PlayingCard(code);
     }
 
-    public PlayingCard(String rank, String suit) {
-        this.rank = rank;
-        this.suit = suit;
+    private final byte code;
+    private final String text;
+    private final String json; // As the partitions text shows it
+
+    private PlayingCard(int code) {
+        this.code = (byte) code;
+        this.text = getRank() + getSuit();
+        this.json = "{\"rank\":\"" + getRank() + "\",\"suit\":\"" + getSuit() + "\"}";
     }
 
-    public String getRank() {
-        return rank;
+    public static PlayingCard of(int code) {
+        if (code < 0 || code >= DECK.length) throw new IllegalArgumentException("No card with code " + code);
+        return DECK[code];
     }
 
-    public void setRank(String rank) {
-        this.rank = rank;
+    public static PlayingCard of(String rank, String suit) {
+        int r = indexOf(RANKS, rank);
+        int s = indexOf(SUITS, suit);
+        if (r < 0 || s < 0) throw new IllegalArgumentException("Not a playing card: " + rank + suit);
+        return DECK[s * 13 + r];
     }
 
-    public String getSuit() {
-        return suit;
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) return i;
+        }
+        return -1;
     }
 
-    public void setSuit(String suit) {
-        this.suit = suit;
+    public int getCode() {
+        return code;
+    }
+
+    public String getRank() {
+        return RANKS[code % 13];
+    }
+
+    public String getSuit() {
+        return SUITS[code / 13];
     }
 
     // Helper to determine color
     public String getColor() {
-        if ("H".equals(suit) || "D".equals(suit)) {
-            return "RED";
-        }
-        return "BLACK";
+        return code < 26 ? "RED" : "BLACK"; // Hearts and diamonds come first
     }
 
     public boolean isFaceCard() {
-        return "J".equals(rank) || "Q".equals(rank) || "K".equals(rank);
+        int rank = code % 13;
+        return rank >= 9 && rank <= 11;
+    }
+
+    void appendJson(StringBuilder sb) {
+        sb.append(json);
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o)
             return true;
-        if (o == null || getClass() != o.getClass())
-            return false;
-        PlayingCard that = (PlayingCard) o;
-        return Objects.equals(rank, that.rank) && Objects.equals(suit, that.suit);
+        return o instanceof PlayingCard && code == ((PlayingCard) o).code;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(rank, suit);
+        return code;
     }
 
     @Override
     public String toString() {
-        return rank + suit;
+        return text;
+    }
+
+    /**
+     * Writes the same fields the getters would, without reflection or per-card strings.
+     */
+    static final class Json extends StdSerializer<PlayingCard> {
+        private static final long serialVersionUID = 1L;
+
+        Json() {
+            super(PlayingCard.class);
+        }
+
+        @Override
+        public void serialize(PlayingCard card, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("rank", card.getRank());
+            gen.writeStringField("suit", card.getSuit());
+            gen.writeStringField("color", card.getColor());
+            gen.writeBooleanField("faceCard", card.isFaceCard());
+            gen.writeEndObject();
+        }
     }
 }
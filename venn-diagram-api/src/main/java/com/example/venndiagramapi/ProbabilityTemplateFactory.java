@@ -9,139 +9,98 @@ import java.util.Set;
  */
 public class ProbabilityTemplateFactory {
 
+    // Up to 6^5 rolls are built as a regular diagram; larger templates are virtual (see VirtualTemplate)
+    private static final int MAX_MATERIALIZED_DICE = 5;
+
     /**
      * Creates a new workspace based on a template name.
      */
     public static DiagramWorkspace createFromTemplate(String diagramId, String templateName) {
+        return createFromTemplate(diagramId, templateName, ParallelRebuild.DEFAULT);
+    }
+
+    static DiagramWorkspace createFromTemplate(String diagramId, String templateName, ParallelRebuild parallelRebuild) {
         if ("DECK_OF_CARDS".equals(templateName)) {
-            return createDeckOfCards(diagramId);
+            return createDeckOfCards(diagramId, parallelRebuild);
         } else if (templateName.startsWith("DICE_ROLLS_")) {
             try {
                 int numDice = Integer.parseInt(templateName.substring("DICE_ROLLS_".length()));
-                return createDiceRolls(diagramId, numDice);
+                if (numDice > MAX_MATERIALIZED_DICE) {
+                    return new DiagramWorkspace(diagramId, new VirtualTemplate.Dice(templateName, numDice));
+                }
+                return createDiceRolls(diagramId, numDice, parallelRebuild);
             } catch (NumberFormatException e) {
                 throw new IllegalArgumentException("Invalid dice count in template: " + templateName);
             }
+        } else if (templateName.startsWith("CARD_HANDS_")) {
+            try {
+                int numCards = Integer.parseInt(templateName.substring("CARD_HANDS_".length()));
+                return new DiagramWorkspace(diagramId, new VirtualTemplate.CardHands(templateName, numCards));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid card count in template: " + templateName);
+            }
         } else if ("TWO_DICE_ROLLS".equals(templateName)) {
             // Backward compatibility
-            return createDiceRolls(diagramId, 2);
+            return createDiceRolls(diagramId, 2, parallelRebuild);
         } else {
             throw new IllegalArgumentException("Unknown template name: " + templateName);
         }
     }
 
-    private static DiagramWorkspace createDeckOfCards(String diagramId) {
+    private static DiagramWorkspace createDeckOfCards(String diagramId, ParallelRebuild parallelRebuild) {
         // Use the new PLAYING_CARD type
-        DiagramWorkspace workspace = new DiagramWorkspace(diagramId, "52-Card Deck", "PLAYING_CARD");
+        DiagramWorkspace workspace = new DiagramWorkspace(diagramId, "52-Card Deck", "PLAYING_CARD", parallelRebuild);
         VennDiagramModel<Object> model = workspace.getModel();
 
-        String[] suits = { "H", "D", "C", "S" }; // Hearts, Diamonds, Clubs, Spades
-        String[] ranks = { "2", "3", "4", "5", "6", "7", "8", "9", "10", "J", "Q", "K", "A" };
-
         Set<Object> universalSet = new HashSet<>();
-        Set<Object> hearts = new HashSet<>();
-        Set<Object> diamonds = new HashSet<>();
-        Set<Object> clubs = new HashSet<>();
-        Set<Object> spades = new HashSet<>();
-        Set<Object> aces = new HashSet<>();
-        Set<Object> faceCards = new HashSet<>();
-        Set<Object> redCards = new HashSet<>();
-
-        for (String suit : suits) {
-            for (String rank : ranks) {
-                PlayingCard card = new PlayingCard(rank, suit);
-                universalSet.add(card);
-
-                if (suit.equals("H"))
-                    hearts.add(card);
-                if (suit.equals("D"))
-                    diamonds.add(card);
-                if (suit.equals("C"))
-                    clubs.add(card);
-                if (suit.equals("S"))
-                    spades.add(card);
-                if (suit.equals("H") || suit.equals("D"))
-                    redCards.add(card);
-                if (rank.equals("A"))
-                    aces.add(card);
-                if (rank.equals("J") || rank.equals("Q") || rank.equals("K"))
-                    faceCards.add(card);
-            }
-        }
-
+        for (int code = 0; code < 52; code++) universalSet.add(PlayingCard.of(code));
         model.setUniversalSet(universalSet);
-        model.addSet("Hearts", hearts);
-        model.addSet("Diamonds", diamonds);
-        model.addSet("Clubs", clubs);
-        model.addSet("Spades", spades);
-        model.addSet("Aces", aces);
-        model.addSet("Face Cards", faceCards);
-        model.addSet("Red Cards", redCards);
+
+        Object[] deck = universalSet.toArray();
+        model.addSet("Hearts", matching(deck, "suit = H"));
+        model.addSet("Diamonds", matching(deck, "suit = D"));
+        model.addSet("Clubs", matching(deck, "suit = C"));
+        model.addSet("Spades", matching(deck, "suit = S"));
+        model.addSet("Aces", matching(deck, "rank = A"));
+        model.addSet("Face Cards", matching(deck, "rank in (J, Q, K)"));
+        model.addSet("Red Cards", matching(deck, "color = RED"));
 
         return workspace;
     }
 
-    private static DiagramWorkspace createDiceRolls(String diagramId, int numDice) {
-        if (numDice < 1 || numDice > 5) {
-            throw new IllegalArgumentException("Number of dice must be between 1 and 5");
+    private static DiagramWorkspace createDiceRolls(String diagramId, int numDice, ParallelRebuild parallelRebuild) {
+        if (numDice < 1) {
+            throw new IllegalArgumentException("Number of dice must be between 1 and " + VirtualTemplate.Dice.MAX_DICE);
         }
 
-        DiagramWorkspace workspace = new DiagramWorkspace(diagramId, numDice + " Dice Rolls", "DICE_ROLL");
+        DiagramWorkspace workspace = new DiagramWorkspace(diagramId, numDice + " Dice Rolls", "DICE_ROLL", parallelRebuild);
         VennDiagramModel<Object> model = workspace.getModel();
 
+        // Every roll of numDice dice, in rank order (the first die changes slowest)
         Set<Object> universalSet = new HashSet<>();
-        Set<Object> sumIs7 = new HashSet<>(); // Only relevant for >= 2 dice, but we can keep generic logic
-        Set<Object> doubles = new HashSet<>(); // All same
-        Set<Object> firstRollIsEven = new HashSet<>();
-        Set<Object> sumGreaterThan8 = new HashSet<>();
-
-        // Generate all combinations recursively
-        generateDiceCombinations(new java.util.ArrayList<>(), numDice, universalSet, sumIs7, doubles, firstRollIsEven,
-                sumGreaterThan8);
-
+        int rolls = (int) Math.pow(6, numDice);
+        for (int rank = 0; rank < rolls; rank++) universalSet.add(DiceRoll.ofRank(numDice, rank));
         model.setUniversalSet(universalSet);
 
         // Add sets based on what makes sense
+        Object[] outcomes = universalSet.toArray();
         if (numDice >= 2) {
-            model.addSet("Sum is 7", sumIs7);
-            model.addSet("Doubles (All Same)", doubles);
-            model.addSet("Sum > 8", sumGreaterThan8);
+            model.addSet("Sum is 7", matching(outcomes, "sum = 7"));
+            model.addSet("Doubles (All Same)", matching(outcomes, "distinct = 1"));
+            model.addSet("Sum > 8", matching(outcomes, "sum > 8"));
         }
-        model.addSet("First Die Even", firstRollIsEven);
+        model.addSet("First Die Even", matching(outcomes, "die1 in (2, 4, 6)"));
 
         return workspace;
     }
 
-    private static void generateDiceCombinations(java.util.List<Integer> currentRoll, int targetDice,
-            Set<Object> universalSet,
-            Set<Object> sumIs7,
-            Set<Object> doubles,
-            Set<Object> firstRollIsEven,
-            Set<Object> sumGreaterThan8) {
-        if (currentRoll.size() == targetDice) {
-            DiceRoll roll = new DiceRoll(currentRoll);
-            universalSet.add(roll);
-
-            int sum = currentRoll.stream().mapToInt(Integer::intValue).sum();
-            boolean isAllSame = currentRoll.stream().distinct().count() == 1;
-            boolean isFirstEven = currentRoll.get(0) % 2 == 0;
-
-            if (sum == 7)
-                sumIs7.add(roll);
-            if (isAllSame)
-                doubles.add(roll);
-            if (isFirstEven)
-                firstRollIsEven.add(roll);
-            if (sum > 8)
-                sumGreaterThan8.add(roll);
-            return;
-        }
-
-        for (int i = 1; i <= 6; i++) {
-            currentRoll.add(i);
-            generateDiceCombinations(currentRoll, targetDice, universalSet, sumIs7, doubles, firstRollIsEven,
-                    sumGreaterThan8);
-            currentRoll.remove(currentRoll.size() - 1);
-        }
+    /**
+     * The elements a rule accepts, evaluated once. Template sets are plain sets the user
+     * can edit; rule-defined sets are only made on request (see defineRuleSet).
+     */
+    private static Set<Object> matching(Object[] elements, String rule) {
+        Set<Object> members = new HashSet<>();
+        SetRule.parse(rule).select(elements).forEach((int i) -> members.add(elements[i]));
+        return members;
     }
-}
\ No newline at end of file
+}
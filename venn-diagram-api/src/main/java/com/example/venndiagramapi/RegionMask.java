@@ -0,0 +1,171 @@
+package com.example.venndiagramapi;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * An immutable membership mask of arbitrary width.
+ * Bit i is set when an element belongs to the i-th set in the diagram's set order.
+ * Masks are stored as trimmed 64-bit words, so diagrams are not limited to 31 sets
+ * and two masks with the same bits are always equal.
+ */
+public final class RegionMask implements Comparable<RegionMask> {
+
+    public static final RegionMask EMPTY = new RegionMask(new long[0]);
+
+    private final long[] words; // Little-endian words, no trailing zero word
+    private final int hash;
+
+    private RegionMask(long[] words) {
+        this.words = words;
+        this.hash = Arrays.hashCode(words);
+    }
+
+    /**
+     * Builds a mask from raw words (bit i lives in words[i / 64]).
+     * The array is copied, so callers can keep reusing it.
+     */
+    public static RegionMask fromWords(long[] words) {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0) length--;
+        return length == 0 ? EMPTY : new RegionMask(Arrays.copyOf(words, length));
+    }
+
+    public static RegionMask valueOf(long bits) {
+        return bits == 0 ? EMPTY : new RegionMask(new long[] { bits });
+    }
+
+    /**
+     * A mask with the lowest {@code numBits} bits set, i.e. "in every set".
+     */
+    public static RegionMask allOf(int numBits) {
+        long[] words = new long[(numBits + 63) >>> 6];
+        for (int i = 0; i < numBits; i++) words[i >>> 6] |= 1L << i;
+        return fromWords(words);
+    }
+
+    /**
+     * A copy of the underlying words, lowest bits first. Inverse of {@link #fromWords}.
+     */
+    public long[] toLongArray() {
+        return words.clone();
+    }
+
+    public boolean get(int bit) {
+        int word = bit >>> 6;
+        return word < words.length && (words[word] & (1L << bit)) != 0;
+    }
+
+    public RegionMask with(int bit) {
+        if (get(bit)) return this;
+        long[] newWords = Arrays.copyOf(words, Math.max(words.length, (bit >>> 6) + 1));
+        newWords[bit >>> 6] |= 1L << bit;
+        return new RegionMask(newWords);
+    }
+
+    public RegionMask without(int bit) {
+        if (!get(bit)) return this;
+        long[] newWords = words.clone();
+        newWords[bit >>> 6] &= ~(1L << bit);
+        return fromWords(newWords);
+    }
+
+    /**
+     * Removes bit {@code index} and shifts every higher bit down by one place.
+     * Used when a set is deleted from the middle of the set order.
+     */
+    public RegionMask removeBit(int index) {
+        if (index >= words.length * 64) return this;
+        long[] newWords = new long[words.length];
+        for (int bit = nextSetBit(0); bit >= 0; bit = nextSetBit(bit + 1)) {
+            if (bit == index) continue;
+            int target = bit < index ? bit : bit - 1;
+            newWords[target >>> 6] |= 1L << target;
+        }
+        return fromWords(newWords);
+    }
+
+    public int nextSetBit(int fromIndex) {
+        int word = fromIndex >>> 6;
+        if (word >= words.length) return -1;
+        long remaining = words[word] & (-1L << fromIndex);
+        while (true) {
+            if (remaining != 0) return (word * 64) + Long.numberOfTrailingZeros(remaining);
+            if (++word == words.length) return -1;
+            remaining = words[word];
+        }
+    }
+
+    /**
+     * True when every bit of {@code other} is also set here.
+     */
+    public boolean containsAll(RegionMask other) {
+        if (other.words.length > words.length) return false;
+        for (int i = 0; i < other.words.length; i++) {
+            if ((words[i] & other.words[i]) != other.words[i]) return false;
+        }
+        return true;
+    }
+
+    public boolean intersects(RegionMask other) {
+        int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            if ((words[i] & other.words[i]) != 0) return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    public int bitCount() {
+        int count = 0;
+        for (long word : words) count += Long.bitCount(word);
+        return count;
+    }
+
+    public BigInteger toBigInteger() {
+        BigInteger value = BigInteger.ZERO;
+        for (int i = words.length - 1; i >= 0; i--) {
+            value = value.shiftLeft(64).or(new BigInteger(Long.toUnsignedString(words[i])));
+        }
+        return value;
+    }
+
+    @Override
+    public int compareTo(RegionMask other) {
+        // Trimmed words mean a longer mask is always the larger number
+        if (words.length != other.words.length) return Integer.compare(words.length, other.words.length);
+        for (int i = words.length - 1; i >= 0; i--) {
+            int cmp = Long.compareUnsigned(words[i], other.words[i]);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof RegionMask))
+            return false;
+        RegionMask that = (RegionMask) o;
+        return hash == that.hash && Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * The mask as an unsigned decimal number, e.g. "5" for sets 0 and 2.
+     */
+    @Override
+    public String toString() {
+        if (words.length == 0) return "0";
+        if (words.length == 1) return Long.toUnsignedString(words[0]);
+        return toBigInteger().toString();
+    }
+}
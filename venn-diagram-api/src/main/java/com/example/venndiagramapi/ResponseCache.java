@@ -0,0 +1,70 @@
+package com.example.venndiagramapi;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The serialized bodies of a workspace's recent read responses, keyed by request URL, for
+ * the current version only. A response is only worth keeping until the next write, so
+ * the first response stored for a newer version drops everything from older ones.
+ *
+ * Bounded in entries and bytes; bodies too large to keep are simply recomputed (their
+ * clients still get 304s through the ETag).
+ */
+final class ResponseCache {
+
+    static final int MAX_ENTRIES = 256;
+    static final long MAX_BYTES = 8L << 20;
+    static final int MAX_ENTRY_BYTES = 1 << 20;
+
+    /**
+     * A response body as it was sent, with its content type.
+     */
+    static final class Entry {
+        final String contentType;
+        final byte[] body;
+
+        Entry(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private static final class Generation {
+        final long version;
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        final AtomicLong bytes = new AtomicLong();
+
+        Generation(long version) {
+            this.version = version;
+        }
+    }
+
+    private final AtomicReference<Generation> current = new AtomicReference<>(new Generation(-1));
+
+    Entry get(String key, long version) {
+        Generation generation = current.get();
+        return generation.version == version ? generation.entries.get(key) : null;
+    }
+
+    /**
+     * Stores a body computed at {@code version}; ignored if a newer version was already seen.
+     */
+    void put(String key, long version, Entry entry) {
+        if (entry.body.length > MAX_ENTRY_BYTES) return;
+        Generation generation = current.get();
+        while (generation.version < version) {
+            Generation next = new Generation(version);
+            generation = current.compareAndSet(generation, next) ? next : current.get();
+        }
+        if (generation.version != version || generation.entries.size() >= MAX_ENTRIES) return;
+        if (generation.bytes.addAndGet(entry.body.length) > MAX_BYTES) {
+            generation.bytes.addAndGet(-entry.body.length);
+            return;
+        }
+        Entry previous = generation.entries.put(key, entry);
+        if (previous != null) generation.bytes.addAndGet(-previous.body.length);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.venndiagramapi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Results of repeated queries against one workspace (set operations, expressions, the
+ * partition table), keyed by operation and operands, for a single model version.
+ *
+ * Entries are evicted least recently used first once their total weight (roughly their
+ * size in bytes) exceeds the limit. The first lookup at a newer version empties the cache,
+ * so nothing computed from an older model is ever returned. Results are computed outside
+ * the lock; two concurrent misses for the same key both compute, and the later one wins.
+ */
+public final class ResultCache {
+
+    /**
+     * What the cache stats endpoint sends back.
+     */
+    public static class Stats {
+        public long version;
+        public int entries;
+        public long weight;
+        public long maxWeight;
+        public long hits;
+        public long misses;
+        public long evictions;
+
+        Stats(long version, int entries, long weight, long maxWeight, long hits, long misses, long evictions) {
+            this.version = version;
+            this.entries = entries;
+            this.weight = weight;
+            this.maxWeight = maxWeight;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final long maxWeight;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long version = -1;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    ResultCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Builds a key from an operation name and its operands.
+     */
+    static String key(String operation, Object... operands) {
+        StringBuilder key = new StringBuilder(operation);
+        for (Object operand : operands) key.append('\u0000').append(operand);
+        return key.toString();
+    }
+
+    /**
+     * The cached result for {@code key} at {@code version}, computing and caching it on a miss.
+     */
+    @SuppressWarnings("unchecked")
+    <R> R get(long version, String key, Supplier<R> compute, ToLongFunction<R> weigher) {
+        lock.lock();
+        try {
+            if (version > this.version) {
+                entries.clear();
+                weight = 0;
+                this.version = version;
+            } else if (version == this.version) {
+                Entry entry = entries.get(key);
+                if (entry != null) {
+                    hits++;
+                    return (R) entry.value;
+                }
+            }
+            misses++;
+        } finally {
+            lock.unlock();
+        }
+
+        R value = compute.get();
+        long valueWeight = weigher.applyAsLong(value);
+        lock.lock();
+        try {
+            // A reader holding an older snapshot still gets its answer, it just is not kept
+            if (version != this.version || valueWeight > maxWeight) return value;
+            Entry previous = entries.put(key, new Entry(value, valueWeight));
+            weight += valueWeight - (previous != null ? previous.weight : 0);
+            for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); weight > maxWeight;) {
+                weight -= it.next().getValue().weight;
+                it.remove();
+                evictions++;
+            }
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(version, entries.size(), weight, maxWeight, hits, misses, evictions);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
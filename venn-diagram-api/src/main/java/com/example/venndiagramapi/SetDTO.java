@@ -3,12 +3,18 @@ package com.example.venndiagramapi;
 public class SetDTO {
     private String name;
     private int size;
+    private String rule; // Null unless the set is rule-defined
 
     public SetDTO(String name, int size) {
         this.name = name;
         this.size = size;
     }
 
+    public SetDTO(String name, int size, String rule) {
+        this(name, size);
+        this.rule = rule;
+    }
+
     public String getName() {
         return name;
     }
@@ -24,4 +30,12 @@ public class SetDTO {
     public void setSize(int size) {
         this.size = size;
     }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public void setRule(String rule) {
+        this.rule = rule;
+    }
 }
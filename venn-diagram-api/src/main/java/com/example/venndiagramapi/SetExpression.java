@@ -0,0 +1,261 @@
+package com.example.venndiagramapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A parsed set expression such as {@code (A ∪ B) ∖ (C ∩ D)} or {@code ¬"Face Cards" ∩ Aces}.
+ *
+ * Rather than building intermediate sets, an expression is compiled into a single
+ * predicate over region masks. Every element of a region shares the same memberships,
+ * so the result is the union of the regions the predicate accepts, found in one pass
+ * over the occupied regions however complex the expression is.
+ *
+ * Syntax (loosest to tightest binding):
+ *   union / difference:  A ∪ B, A | B, A + B, A ∖ B, A \ B, A - B   (left associative)
+ *   intersection:        A ∩ B, {@code A & B}
+ *   complement:          ¬A, !A, ~A, A'
+ *   grouping:            ( ... )
+ * Set names may be written bare when they only use letters, digits, spaces and other
+ * non-operator characters; otherwise quote them, e.g. "Doubles (All Same)".
+ */
+public final class SetExpression {
+
+    private static final String OPERATOR_CHARS = "∪|+∖\\-∩&¬!~'()\"";
+
+    private final String text;
+    private final Node root;
+
+    private SetExpression(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    public static SetExpression parse(String text) {
+        if (text == null || text.isBlank()) {
+            throw new IllegalArgumentException("Expression cannot be empty.");
+        }
+        Parser parser = new Parser(text);
+        Node root = parser.parseUnionLevel();
+        parser.skipWhitespace();
+        if (parser.pos < text.length()) {
+            throw parser.error("Unexpected '" + text.charAt(parser.pos) + "'");
+        }
+        return new SetExpression(text, root.normalize());
+    }
+
+    /**
+     * Resolves set names against the diagram's set order and compiles the expression
+     * into a predicate over region masks.
+     */
+    public Predicate<RegionMask> compile(List<String> setNames) {
+        return root.compile(setNames);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    // --- Expression Tree ---
+
+    private abstract static class Node {
+        Node normalize() {
+            return this;
+        }
+
+        abstract Predicate<RegionMask> compile(List<String> setNames);
+    }
+
+    private static final class SetRef extends Node {
+        final String name;
+
+        SetRef(String name) {
+            this.name = name;
+        }
+
+        int index(List<String> setNames) {
+            int index = setNames.indexOf(name);
+            if (index == -1) throw new IllegalArgumentException("No set found with name: " + name);
+            return index;
+        }
+
+        @Override
+        Predicate<RegionMask> compile(List<String> setNames) {
+            int index = index(setNames);
+            return mask -> mask.get(index);
+        }
+    }
+
+    private static final class Not extends Node {
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        Node normalize() {
+            Node inner = child.normalize();
+            return inner instanceof Not ? ((Not) inner).child : new Not(inner);
+        }
+
+        @Override
+        Predicate<RegionMask> compile(List<String> setNames) {
+            return child.compile(setNames).negate();
+        }
+    }
+
+    /**
+     * An n-ary AND (intersection) or OR (union). Plain and negated set references are
+     * folded into one bit-mask test, so "A ∩ B ∖ C" costs a couple of word comparisons.
+     */
+    private static final class Junction extends Node {
+        final boolean isAnd;
+        final List<Node> children;
+
+        Junction(boolean isAnd, List<Node> children) {
+            this.isAnd = isAnd;
+            this.children = children;
+        }
+
+        @Override
+        Node normalize() {
+            List<Node> flat = new ArrayList<>();
+            for (Node child : children) {
+                Node n = child.normalize();
+                if (n instanceof Junction && ((Junction) n).isAnd == isAnd) {
+                    flat.addAll(((Junction) n).children);
+                } else {
+                    flat.add(n);
+                }
+            }
+            return flat.size() == 1 ? flat.get(0) : new Junction(isAnd, flat);
+        }
+
+        @Override
+        Predicate<RegionMask> compile(List<String> setNames) {
+            RegionMask positive = RegionMask.EMPTY;
+            RegionMask negative = RegionMask.EMPTY;
+            List<Predicate<RegionMask>> rest = new ArrayList<>();
+            for (Node child : children) {
+                if (child instanceof SetRef) {
+                    positive = positive.with(((SetRef) child).index(setNames));
+                } else if (child instanceof Not && ((Not) child).child instanceof SetRef) {
+                    negative = negative.with(((SetRef) ((Not) child).child).index(setNames));
+                } else {
+                    rest.add(child.compile(setNames));
+                }
+            }
+            final RegionMask pos = positive;
+            final RegionMask neg = negative;
+            if (isAnd) {
+                // A ∩ ¬A can never match
+                if (pos.intersects(neg)) return mask -> false;
+                Predicate<RegionMask> leaves = mask -> mask.containsAll(pos) && !mask.intersects(neg);
+                return rest.stream().reduce(leaves, Predicate::and);
+            }
+            List<Predicate<RegionMask>> alternatives = new ArrayList<>();
+            if (!pos.isEmpty()) alternatives.add(mask -> mask.intersects(pos));
+            // ¬A ∪ ¬B is ¬(A ∩ B)
+            if (!neg.isEmpty()) alternatives.add(mask -> !mask.containsAll(neg));
+            alternatives.addAll(rest);
+            return alternatives.stream().reduce(mask -> false, Predicate::or);
+        }
+    }
+
+    // --- Recursive Descent Parser ---
+
+    private static final class Parser {
+        final String text;
+        int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parseUnionLevel() {
+            Node left = parseIntersectionLevel();
+            while (true) {
+                skipWhitespace();
+                if (pos >= text.length()) return left;
+                char c = text.charAt(pos);
+                if (c == '∪' || c == '|' || c == '+') {
+                    pos++;
+                    left = new Junction(false, List.of(left, parseIntersectionLevel()));
+                } else if (c == '∖' || c == '\\' || c == '-') {
+                    pos++;
+                    left = new Junction(true, List.of(left, new Not(parseIntersectionLevel())));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Node parseIntersectionLevel() {
+            Node left = parseUnary();
+            while (true) {
+                skipWhitespace();
+                if (pos < text.length() && (text.charAt(pos) == '∩' || text.charAt(pos) == '&')) {
+                    pos++;
+                    left = new Junction(true, List.of(left, parseUnary()));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Node parseUnary() {
+            skipWhitespace();
+            if (pos < text.length() && "¬!~".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+                return new Not(parseUnary());
+            }
+            Node node = parsePrimary();
+            while (true) {
+                skipWhitespace();
+                if (pos < text.length() && text.charAt(pos) == '\'') {
+                    pos++;
+                    node = new Not(node);
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        Node parsePrimary() {
+            skipWhitespace();
+            if (pos >= text.length()) throw error("Expected a set name");
+            char c = text.charAt(pos);
+            if (c == '(') {
+                pos++;
+                Node inner = parseUnionLevel();
+                skipWhitespace();
+                if (pos >= text.length() || text.charAt(pos) != ')') throw error("Missing ')'");
+                pos++;
+                return inner;
+            }
+            if (c == '"') {
+                int end = text.indexOf('"', pos + 1);
+                if (end == -1) throw error("Unterminated quoted set name");
+                String name = text.substring(pos + 1, end);
+                pos = end + 1;
+                return new SetRef(name);
+            }
+            int start = pos;
+            while (pos < text.length() && OPERATOR_CHARS.indexOf(text.charAt(pos)) < 0) pos++;
+            String name = text.substring(start, pos).trim();
+            if (name.isEmpty()) throw error("Expected a set name");
+            return new SetRef(name);
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in expression: " + text);
+        }
+    }
+}
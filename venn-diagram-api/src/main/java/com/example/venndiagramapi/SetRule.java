@@ -0,0 +1,526 @@
+package com.example.venndiagramapi;
+
+import org.roaringbitmap.BitSetUtil;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.IntStream;
+
+/**
+ * A parsed membership rule such as {@code sum > 8}, {@code rank in (J, Q, K)} or
+ * {@code text startsWith "img_" and length < 40}. A set defined by a rule contains exactly
+ * the elements the rule accepts (see VennDiagramModel#defineRuleSet).
+ *
+ * Rules are evaluated column by column over a block of elements: each attribute is
+ * extracted once into a primitive array, and every comparison or connective is then one
+ * plain loop over that block, which the JIT can vectorize. Over a whole dictionary the
+ * blocks are evaluated in parallel.
+ *
+ * Syntax (loosest to tightest binding):
+ *   or, ||                 either side holds
+ *   and, {@code &&}        both sides hold
+ *   not, !                 negation
+ *   ( ... )                grouping
+ *   attribute = value      also ==, !=, &lt;, &lt;=, &gt;, &gt;=
+ *   attribute in (a, b)    any of the listed values
+ *   attribute startsWith "x"   also endsWith, contains, and matches (a regular expression)
+ * Values are numbers, bare words, or "quoted text". Text comparisons are case-sensitive.
+ *
+ * Attributes by element type:
+ *   NUMBER         value
+ *   DICE_ROLL      sum, min, max, distinct (number of different faces), count, die1, die2, ...
+ *   PLAYING_CARD   rank (2..10, J, Q, K, A), rankValue (2..14, ace high), suit (H, D, C, S), color (RED, BLACK)
+ *   any type       text (the element as text), length (of the text)
+ */
+public final class SetRule {
+
+    // A multiple of 64, so parallel blocks never share a word of the result bitmap
+    private static final int BLOCK = 4096;
+
+    private final String text;
+    private final Node root;
+
+    private SetRule(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    public static SetRule parse(String text) {
+        if (text == null || text.isBlank()) {
+            throw new IllegalArgumentException("Rule cannot be empty.");
+        }
+        Parser parser = new Parser(text);
+        Node root = parser.parseOr();
+        parser.skipWhitespace();
+        if (parser.pos < text.length()) {
+            throw parser.error("Unexpected '" + text.charAt(parser.pos) + "'");
+        }
+        return new SetRule(text, root);
+    }
+
+    /**
+     * Rejects rules that use attributes elements of this type do not have.
+     */
+    public void requireApplicable(String elementType) {
+        List<Attribute> attributes = new ArrayList<>();
+        root.collect(attributes);
+        for (Attribute attribute : attributes) {
+            if (attribute.elementTypes != null && !attribute.elementTypes.contains(elementType)) {
+                throw new IllegalArgumentException("Attribute '" + attribute.name + "' does not apply to "
+                        + elementType + " elements (it applies to " + String.join(", ", attribute.elementTypes) + ").");
+            }
+        }
+    }
+
+    /**
+     * The indexes of the elements the rule accepts. Null entries (free dictionary slots)
+     * never match.
+     */
+    RoaringBitmap select(Object[] elements) {
+        long[] words = new long[(elements.length + 63) >>> 6];
+        int blocks = (elements.length + BLOCK - 1) / BLOCK;
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            int from = block * BLOCK;
+            int length = Math.min(BLOCK, elements.length - from);
+            boolean[] accepted = new boolean[length];
+            root.eval(elements, from, length, accepted);
+            for (int i = 0; i < length; i++) {
+                if (accepted[i] && elements[from + i] != null) words[(from + i) >>> 6] |= 1L << (from + i);
+            }
+        });
+        return BitSetUtil.bitmapOf(words);
+    }
+
+    /**
+     * The interval the rule accepts when it only bounds {@code value}, e.g.
+     * {@code value >= 10 and value < 50}; null for any other rule. Such a rule is answered
+     * from the workspace's NumericIndex instead of a scan.
+     */
+    NumericIndex.Range valueRange() {
+        List<Node> bounds = root instanceof Junction && ((Junction) root).isAnd ? ((Junction) root).children : List.of(root);
+        NumericIndex.Range range = NumericIndex.Range.ALL;
+        for (Node node : bounds) {
+            if (!(node instanceof NumberComparison)) return null;
+            NumberComparison comparison = (NumberComparison) node;
+            double v = comparison.values[0];
+            if (!comparison.attribute.name.equalsIgnoreCase("value") || Double.isNaN(v)) return null;
+            switch (comparison.op) {
+                case EQ:
+                    range = range.intersect(new NumericIndex.Range(v, true, v, true));
+                    break;
+                case LT:
+                case LE:
+                    range = range.intersect(new NumericIndex.Range(Double.NEGATIVE_INFINITY, true, v, comparison.op == Op.LE));
+                    break;
+                case GT:
+                case GE:
+                    range = range.intersect(new NumericIndex.Range(v, comparison.op == Op.GE, Double.POSITIVE_INFINITY, true));
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return range;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    // --- Attributes ---
+
+    private static final class Attribute {
+        final String name;
+        final Set<String> elementTypes; // null when every type has it
+        final ToDoubleFunction<Object> number; // Set for numeric attributes; NaN when missing
+        final Function<Object, String> text; // Set for text attributes; null when missing
+
+        private Attribute(String name, Set<String> elementTypes, ToDoubleFunction<Object> number,
+                Function<Object, String> text) {
+            this.name = name;
+            this.elementTypes = elementTypes;
+            this.number = number;
+            this.text = text;
+        }
+
+        static Attribute numeric(String name, String elementType, ToDoubleFunction<Object> number) {
+            return new Attribute(name, elementType != null ? Set.of(elementType) : null, number, null);
+        }
+
+        static Attribute text(String name, String elementType, Function<Object, String> text) {
+            return new Attribute(name, elementType != null ? Set.of(elementType) : null, null, text);
+        }
+
+        boolean isNumeric() {
+            return number != null;
+        }
+
+        static Attribute resolve(String name) {
+            switch (name.toLowerCase(Locale.ROOT)) {
+                case "value":
+                    return numeric(name, "NUMBER", e -> e instanceof Double ? (Double) e : Double.NaN);
+                case "sum":
+                    return dice(name, roll -> {
+                        int sum = 0;
+                        for (int i = 0; i < roll.getCount(); i++) sum += roll.getDie(i);
+                        return sum;
+                    });
+                case "min":
+                    return dice(name, roll -> {
+                        int min = 6;
+                        for (int i = 0; i < roll.getCount(); i++) min = Math.min(min, roll.getDie(i));
+                        return min;
+                    });
+                case "max":
+                    return dice(name, roll -> {
+                        int max = 1;
+                        for (int i = 0; i < roll.getCount(); i++) max = Math.max(max, roll.getDie(i));
+                        return max;
+                    });
+                case "distinct":
+                    return dice(name, roll -> {
+                        int faces = 0;
+                        for (int i = 0; i < roll.getCount(); i++) faces |= 1 << roll.getDie(i);
+                        return Integer.bitCount(faces);
+                    });
+                case "count":
+                    return dice(name, DiceRoll::getCount);
+                case "rank":
+                    return text(name, "PLAYING_CARD", e -> e instanceof PlayingCard ? ((PlayingCard) e).getRank() : null);
+                case "rankvalue":
+                    return numeric(name, "PLAYING_CARD",
+                            e -> e instanceof PlayingCard ? ((PlayingCard) e).getCode() % 13 + 2 : Double.NaN);
+                case "suit":
+                    return text(name, "PLAYING_CARD", e -> e instanceof PlayingCard ? ((PlayingCard) e).getSuit() : null);
+                case "color":
+                    return text(name, "PLAYING_CARD", e -> e instanceof PlayingCard ? ((PlayingCard) e).getColor() : null);
+                case "text":
+                    return text(name, null, e -> e != null ? e.toString() : null);
+                case "length":
+                    return numeric(name, null, e -> e != null ? e.toString().length() : Double.NaN);
+                default:
+                    if (name.toLowerCase(Locale.ROOT).matches("die[1-9][0-9]?")) {
+                        int index = Integer.parseInt(name.substring(3)) - 1;
+                        return dice(name, roll -> index < roll.getCount() ? roll.getDie(index) : Double.NaN);
+                    }
+                    return null;
+            }
+        }
+
+        private static Attribute dice(String name, ToDoubleFunction<DiceRoll> number) {
+            return numeric(name, "DICE_ROLL", e -> e instanceof DiceRoll ? number.applyAsDouble((DiceRoll) e) : Double.NaN);
+        }
+    }
+
+    // --- Rule Tree ---
+    // eval() fills out[i] for elements[from + i], i < length.
+
+    private abstract static class Node {
+        abstract void eval(Object[] elements, int from, int length, boolean[] out);
+
+        abstract void collect(List<Attribute> attributes);
+    }
+
+    private static final class Not extends Node {
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        void eval(Object[] elements, int from, int length, boolean[] out) {
+            child.eval(elements, from, length, out);
+            for (int i = 0; i < length; i++) out[i] = !out[i];
+        }
+
+        @Override
+        void collect(List<Attribute> attributes) {
+            child.collect(attributes);
+        }
+    }
+
+    private static final class Junction extends Node {
+        final boolean isAnd;
+        final List<Node> children;
+
+        Junction(boolean isAnd, List<Node> children) {
+            this.isAnd = isAnd;
+            this.children = children;
+        }
+
+        @Override
+        void eval(Object[] elements, int from, int length, boolean[] out) {
+            children.get(0).eval(elements, from, length, out);
+            boolean[] next = new boolean[length];
+            for (int c = 1; c < children.size(); c++) {
+                children.get(c).eval(elements, from, length, next);
+                if (isAnd) {
+                    for (int i = 0; i < length; i++) out[i] &= next[i];
+                } else {
+                    for (int i = 0; i < length; i++) out[i] |= next[i];
+                }
+            }
+        }
+
+        @Override
+        void collect(List<Attribute> attributes) {
+            for (Node child : children) child.collect(attributes);
+        }
+    }
+
+    private enum Op {
+        EQ, NE, LT, LE, GT, GE, IN, STARTS_WITH, ENDS_WITH, CONTAINS, MATCHES
+    }
+
+    private static final class NumberComparison extends Node {
+        final Attribute attribute;
+        final Op op;
+        final double[] values;
+
+        NumberComparison(Attribute attribute, Op op, double[] values) {
+            this.attribute = attribute;
+            this.op = op;
+            this.values = values;
+        }
+
+        @Override
+        void eval(Object[] elements, int from, int length, boolean[] out) {
+            double[] column = new double[length];
+            for (int i = 0; i < length; i++) column[i] = attribute.number.applyAsDouble(elements[from + i]);
+            double v = values[0];
+            // One branch-free loop per operator; NaN (attribute missing) fails every test
+            switch (op) {
+                case EQ:
+                    for (int i = 0; i < length; i++) out[i] = column[i] == v;
+                    break;
+                case NE:
+                    for (int i = 0; i < length; i++) out[i] = column[i] != v & column[i] == column[i];
+                    break;
+                case LT:
+                    for (int i = 0; i < length; i++) out[i] = column[i] < v;
+                    break;
+                case LE:
+                    for (int i = 0; i < length; i++) out[i] = column[i] <= v;
+                    break;
+                case GT:
+                    for (int i = 0; i < length; i++) out[i] = column[i] > v;
+                    break;
+                case GE:
+                    for (int i = 0; i < length; i++) out[i] = column[i] >= v;
+                    break;
+                case IN:
+                    Arrays.fill(out, 0, length, false);
+                    for (double value : values) {
+                        for (int i = 0; i < length; i++) out[i] |= column[i] == value;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException(op + " is not a numeric comparison");
+            }
+        }
+
+        @Override
+        void collect(List<Attribute> attributes) {
+            attributes.add(attribute);
+        }
+    }
+
+    private static final class TextComparison extends Node {
+        final Attribute attribute;
+        final Op op;
+        final List<String> values;
+        final Pattern pattern;
+
+        TextComparison(Attribute attribute, Op op, List<String> values) {
+            this.attribute = attribute;
+            this.op = op;
+            this.values = values;
+            this.pattern = op == Op.MATCHES ? Pattern.compile(values.get(0)) : null;
+        }
+
+        @Override
+        void eval(Object[] elements, int from, int length, boolean[] out) {
+            String value = values.get(0);
+            for (int i = 0; i < length; i++) {
+                String s = attribute.text.apply(elements[from + i]);
+                if (s == null) {
+                    out[i] = false;
+                    continue;
+                }
+                out[i] = test(s, value);
+            }
+        }
+
+        private boolean test(String s, String value) {
+            switch (op) {
+                case EQ: return s.equals(value);
+                case NE: return !s.equals(value);
+                case IN: return values.contains(s);
+                case STARTS_WITH: return s.startsWith(value);
+                case ENDS_WITH: return s.endsWith(value);
+                case CONTAINS: return s.contains(value);
+                case MATCHES: return pattern.matcher(s).find();
+                case LT: return s.compareTo(value) < 0;
+                case LE: return s.compareTo(value) <= 0;
+                case GT: return s.compareTo(value) > 0;
+                default: return s.compareTo(value) >= 0;
+            }
+        }
+
+        @Override
+        void collect(List<Attribute> attributes) {
+            attributes.add(attribute);
+        }
+    }
+
+    // --- Recursive Descent Parser ---
+
+    private static final class Parser {
+        final String text;
+        int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parseOr() {
+            List<Node> children = new ArrayList<>(List.of(parseAnd()));
+            while (acceptKeyword("or") || accept("||")) children.add(parseAnd());
+            return children.size() == 1 ? children.get(0) : new Junction(false, children);
+        }
+
+        Node parseAnd() {
+            List<Node> children = new ArrayList<>(List.of(parseUnary()));
+            while (acceptKeyword("and") || accept("&&")) children.add(parseUnary());
+            return children.size() == 1 ? children.get(0) : new Junction(true, children);
+        }
+
+        Node parseUnary() {
+            if (acceptKeyword("not") || (!peek("!=") && accept("!"))) return new Not(parseUnary());
+            if (accept("(")) {
+                Node inner = parseOr();
+                if (!accept(")")) throw error("Missing ')'");
+                return inner;
+            }
+            return parseComparison();
+        }
+
+        Node parseComparison() {
+            skipWhitespace();
+            int start = pos;
+            String name = readWord();
+            if (name.isEmpty()) throw error("Expected an attribute");
+            Attribute attribute = Attribute.resolve(name);
+            if (attribute == null) {
+                pos = start;
+                throw error("Unknown attribute '" + name + "'");
+            }
+            Op op = readOperator();
+            List<String> values = new ArrayList<>();
+            if (op == Op.IN) {
+                if (!accept("(")) throw error("Expected '(' after 'in'");
+                do values.add(readLiteral()); while (accept(","));
+                if (!accept(")")) throw error("Missing ')'");
+            } else {
+                values.add(readLiteral());
+            }
+
+            if (!attribute.isNumeric()) {
+                try {
+                    return new TextComparison(attribute, op, values);
+                } catch (PatternSyntaxException e) {
+                    throw error("Invalid regular expression: " + e.getDescription());
+                }
+            }
+            if (op != Op.IN && op.compareTo(Op.GE) > 0) {
+                throw error("'" + name + "' is a number; " + op.name().toLowerCase(Locale.ROOT) + " applies to text");
+            }
+            double[] numbers = new double[values.size()];
+            for (int i = 0; i < numbers.length; i++) {
+                try {
+                    numbers[i] = Double.parseDouble(values.get(i));
+                } catch (NumberFormatException e) {
+                    throw error("'" + name + "' is a number, but '" + values.get(i) + "' is not");
+                }
+            }
+            return new NumberComparison(attribute, op, numbers);
+        }
+
+        Op readOperator() {
+            skipWhitespace();
+            if (accept("==") || accept("=")) return Op.EQ;
+            if (accept("!=")) return Op.NE;
+            if (accept("<=")) return Op.LE;
+            if (accept("<")) return Op.LT;
+            if (accept(">=")) return Op.GE;
+            if (accept(">")) return Op.GT;
+            String word = readWord().toLowerCase(Locale.ROOT);
+            switch (word) {
+                case "in": return Op.IN;
+                case "startswith": return Op.STARTS_WITH;
+                case "endswith": return Op.ENDS_WITH;
+                case "contains": return Op.CONTAINS;
+                case "matches": return Op.MATCHES;
+                default: throw error("Expected a comparison");
+            }
+        }
+
+        String readLiteral() {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '"') {
+                int end = text.indexOf('"', pos + 1);
+                if (end == -1) throw error("Unterminated quoted value");
+                String value = text.substring(pos + 1, end);
+                pos = end + 1;
+                return value;
+            }
+            int start = pos;
+            if (pos < text.length() && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) pos++;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '.'
+                    || text.charAt(pos) == '_')) pos++;
+            if (pos == start) throw error("Expected a value");
+            return text.substring(start, pos);
+        }
+
+        String readWord() {
+            skipWhitespace();
+            int start = pos;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) pos++;
+            return text.substring(start, pos);
+        }
+
+        boolean acceptKeyword(String keyword) {
+            skipWhitespace();
+            int end = pos + keyword.length();
+            if (!text.regionMatches(true, pos, keyword, 0, keyword.length())) return false;
+            if (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) return false;
+            pos = end;
+            return true;
+        }
+
+        boolean peek(String symbol) {
+            skipWhitespace();
+            return text.startsWith(symbol, pos);
+        }
+
+        boolean accept(String symbol) {
+            if (!peek(symbol)) return false;
+            pos += symbol.length();
+            return true;
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in rule: " + text);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Writes elements and memberships as NDJSON or CSV, one line per element, straight from
+ * a view's region bitmaps. Nothing is collected first, so a download uses a fixed-size
+ * buffer however large the result is.
+ *
+ * The memberships stream uses the same row shapes as MembershipImport and writes each
+ * element in the text form parseElement reads (a roll as "(1,2)", a card as "10H"), so
+ * an export can be uploaded again as-is.
+ */
+final class StreamingExport {
+
+    enum Format {
+        NDJSON(MembershipImport.NDJSON), CSV(MembershipImport.CSV);
+
+        final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        static Format parse(String format) {
+            if (format == null || format.equalsIgnoreCase("ndjson")) return NDJSON;
+            if (format.equalsIgnoreCase("csv")) return CSV;
+            throw new IllegalArgumentException("Unknown stream format: " + format + " (use ndjson or csv)");
+        }
+    }
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Format format;
+    private final ObjectWriter writer;
+    private final JsonGenerator json;
+    private final Writer csv;
+
+    private StreamingExport(Format format, ObjectMapper objectMapper, OutputStream out) throws IOException {
+        this.format = format;
+        OutputStream buffered = new BufferedOutputStream(out, BUFFER_BYTES);
+        if (format == Format.NDJSON) {
+            // Flushing after every value would turn each line into its own network write
+            this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            this.json = objectMapper.createGenerator(buffered);
+            this.json.setRootValueSeparator(null); // Lines are separated by '\n' below
+            this.csv = null;
+        } else {
+            this.writer = null;
+            this.json = null;
+            this.csv = new OutputStreamWriter(buffered, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Streams every element of the view's regions that match {@code regions}, one region
+     * bitmap at a time (so no union of the matching regions is ever built).
+     */
+    static <T> void writeElements(VennDiagramView<T> view, Predicate<RegionMask> regions, Format format,
+            ObjectMapper objectMapper, OutputStream out) throws IOException {
+        StreamingExport export = new StreamingExport(format, objectMapper, out);
+        for (RegionMask mask : view.getPartitionMasks()) {
+            if (!regions.test(mask)) continue;
+            for (T element : view.getPartition(mask)) export.element(element);
+        }
+        export.finish();
+    }
+
+    /**
+     * Streams the elements of one set (or the universe) in id order.
+     */
+    static void writeElements(Iterable<?> elements, Format format, ObjectMapper objectMapper, OutputStream out)
+            throws IOException {
+        StreamingExport export = new StreamingExport(format, objectMapper, out);
+        for (Object element : elements) export.element(element);
+        export.finish();
+    }
+
+    /**
+     * Streams one row per element with the sets it belongs to. Set names are resolved once
+     * per region, not per element.
+     */
+    static <T> void writeMemberships(VennDiagramView<T> view, Format format, ObjectMapper objectMapper,
+            OutputStream out) throws IOException {
+        StreamingExport export = new StreamingExport(format, objectMapper, out);
+        List<String> setNames = view.getSetNames();
+        for (RegionMask mask : view.getPartitionMasks()) {
+            List<String> sets = new ArrayList<>(mask.bitCount());
+            for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) sets.add(setNames.get(i));
+            for (T element : view.getPartition(mask)) export.membership(element, sets);
+        }
+        export.finish();
+    }
+
+    private void element(Object element) throws IOException {
+        if (format == Format.NDJSON) {
+            writer.writeValue(json, element);
+            json.writeRaw('\n');
+        } else {
+            csvField(String.valueOf(element));
+            csv.write('\n');
+        }
+    }
+
+    private void membership(Object element, List<String> sets) throws IOException {
+        if (format == Format.NDJSON) {
+            json.writeStartObject();
+            json.writeFieldName("element");
+            if (element instanceof Number) {
+                writer.writeValue(json, element);
+            } else {
+                json.writeString(text(element));
+            }
+            json.writeArrayFieldStart("sets");
+            for (String set : sets) json.writeString(set);
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeRaw('\n');
+        } else {
+            csvField(text(element));
+            for (String set : sets) {
+                csv.write(',');
+                csvField(set);
+            }
+            csv.write('\n');
+        }
+    }
+
+    /**
+     * An element as parseElement reads it back. A roll's toString is its JSON object, so
+     * rolls are written out here; cards and hands already print in the parsed form.
+     */
+    static String text(Object element) {
+        if (!(element instanceof DiceRoll roll)) return String.valueOf(element);
+        StringBuilder text = new StringBuilder(2 + 2 * roll.getCount()).append('(');
+        for (int i = 0; i < roll.getCount(); i++) {
+            if (i > 0) text.append(',');
+            text.append(roll.getDie(i));
+        }
+        return text.append(')').toString();
+    }
+
+    private void csvField(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            csv.write(value);
+            return;
+        }
+        csv.write('"');
+        csv.write(value.replace("\"", "\"\""));
+        csv.write('"');
+    }
+
+    private void finish() throws IOException {
+        if (json != null) json.flush();
+        if (csv != null) csv.flush();
+    }
+}
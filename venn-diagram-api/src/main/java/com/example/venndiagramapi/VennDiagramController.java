@@ -1,11 +1,24 @@
 package com.example.venndiagramapi;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * API Controller (Front Door) - Rewritten for Multi-Workspace support.
@@ -19,9 +32,14 @@ import java.util.Set;
 @CrossOrigin(origins = { "http://localhost:3000", "http://localhost:3001", "http://localhost:3002" })
 public class VennDiagramController {
 
+    private static final String TEXT_UTF8 = "text/plain;charset=UTF-8";
+
     @Autowired
     private DiagramManagerService manager;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     // --- 1. Dashboard Endpoints ---
 
     /**
@@ -49,80 +67,247 @@ public class VennDiagramController {
         return manager.createTemplateWorkspace(templateName).getSummary();
     }
 
+    /**
+     * Imports a diagram previously downloaded from the export endpoint, as a new workspace.
+     */
+    @PostMapping(value = "/diagrams/import", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public DiagramWorkspace.Summary importWorkspace(InputStream body) throws IOException {
+        return manager.importWorkspace(body).getSummary();
+    }
+
     // --- 2. Editor Endpoints (all require a diagramId) ---
 
     /**
      * Gets the metadata (name, type) for a single diagram.
      */
     @GetMapping("/diagrams/{diagramId}/metadata")
-    public DiagramWorkspace.Summary getWorkspaceMetadata(@PathVariable String diagramId) {
-        return manager.getWorkspace(diagramId).getSummary();
+    public ResponseEntity<byte[]> getWorkspaceMetadata(@PathVariable String diagramId, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getWorkspace(diagramId).getSummary());
     }
 
     /**
      * Gets all set names for a specific diagram.
      */
     @GetMapping("/diagrams/{diagramId}/sets")
-    public List<SetDTO> getSetNames(@PathVariable String diagramId) {
-        return manager.getSetsInfo(diagramId);
+    public ResponseEntity<byte[]> getSetNames(@PathVariable String diagramId, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getSetsInfo(diagramId));
     }
 
     /**
-     * Gets all elements in the universal set for a specific diagram.
+     * Gets all elements in the universal set for a specific diagram, optionally a page at a
+     * time. NUMBER diagrams list them in ascending order.
      */
     @GetMapping("/diagrams/{diagramId}/elements")
-    public Set<Object> getAllElements(@PathVariable String diagramId) {
-        return manager.getAllElements(diagramId);
+    public ResponseEntity<byte[]> getAllElements(@PathVariable String diagramId,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(required = false) Integer limit, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getElements(diagramId, offset, limit));
     }
 
     /**
      * Gets the list of set names an element belongs to.
      */
     @GetMapping("/diagrams/{diagramId}/element/{elementValue}")
-    public Set<String> getSetsForElement(@PathVariable String diagramId,
-            @PathVariable String elementValue) {
-        return manager.getSetsForElement(diagramId, elementValue);
+    public ResponseEntity<byte[]> getSetsForElement(@PathVariable String diagramId,
+            @PathVariable String elementValue, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getSetsForElement(diagramId, elementValue));
     }
 
     /**
      * Gets all elements in a specific set.
      */
     @GetMapping("/diagrams/{diagramId}/set/{setName}/elements")
-    public Set<Object> getElementsInSet(@PathVariable String diagramId,
-            @PathVariable String setName) {
-        return manager.getElementsInSet(diagramId, setName);
+    public ResponseEntity<byte[]> getElementsInSet(@PathVariable String diagramId,
+            @PathVariable String setName, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getElementsInSet(diagramId, setName));
     }
 
     /**
      * Gets the formatted partition table for a diagram.
      */
     @GetMapping("/diagrams/{diagramId}/partitions")
-    public String getPartitions(@PathVariable String diagramId) {
-        return manager.getPartitions(diagramId);
+    public ResponseEntity<byte[]> getPartitions(@PathVariable String diagramId, ServletWebRequest request) {
+        return cached(diagramId, request, TEXT_UTF8,
+                () -> manager.getPartitions(diagramId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Streams the partition table as structured JSON regions (mask, set names, count, elements).
+     * Regions can be paged with offset/limit, and countsOnly drops the element lists.
+     */
+    @GetMapping("/diagrams/{diagramId}/partitions/regions")
+    public void getPartitionRegions(@PathVariable String diagramId,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean countsOnly,
+            ServletWebRequest request, HttpServletResponse response) throws IOException {
+        if (notModified(diagramId, request)) return;
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        manager.writePartitionRegions(diagramId, response.getOutputStream(), offset, limit, countsOnly);
+    }
+
+    /**
+     * Gets set sizes, region sizes and derived probabilities without any element lists.
+     * Pairwise probabilities cover every pair of the given sets (default: the first 16 sets,
+     * with pairsTruncated set if there are more).
+     */
+    @GetMapping("/diagrams/{diagramId}/stats")
+    public ResponseEntity<byte[]> getStats(@PathVariable String diagramId,
+            @RequestParam(required = false) List<String> sets, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getStats(diagramId, sets));
+    }
+
+    // --- Numeric Queries (NUMBER diagrams only) ---
+
+    /**
+     * Gets the elements in a range such as [10, 50) or [100, ), in ascending order.
+     */
+    @GetMapping("/diagrams/{diagramId}/range")
+    public ResponseEntity<byte[]> getElementsInRange(@PathVariable String diagramId, @RequestParam String range,
+            ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getElementsInRange(diagramId, range));
+    }
+
+    /**
+     * Gets how many elements of a range fall in each region.
+     */
+    @GetMapping("/diagrams/{diagramId}/range/stats")
+    public ResponseEntity<byte[]> getRangeStats(@PathVariable String diagramId, @RequestParam String range,
+            ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getRangeStats(diagramId, range));
+    }
+
+    /**
+     * Gets the k largest (order=desc) or smallest (order=asc) elements.
+     */
+    @GetMapping("/diagrams/{diagramId}/top")
+    public ResponseEntity<byte[]> getTopElements(@PathVariable String diagramId,
+            @RequestParam(defaultValue = "10") int k, @RequestParam(defaultValue = "desc") String order,
+            ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getTopElements(diagramId, k, order));
+    }
+
+    /**
+     * Gets the element at a percentile (0 to 100), by nearest rank.
+     */
+    @GetMapping("/diagrams/{diagramId}/percentile")
+    public ResponseEntity<byte[]> getPercentile(@PathVariable String diagramId, @RequestParam double p,
+            ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getPercentile(diagramId, p));
     }
 
     // --- Set Operations (now with diagramId) ---
 
     @GetMapping("/diagrams/{diagramId}/union")
-    public Set<Object> getUnion(@PathVariable String diagramId, @RequestParam String setA, @RequestParam String setB) {
-        return manager.getUnion(diagramId, setA, setB);
+    public ResponseEntity<byte[]> getUnion(@PathVariable String diagramId, @RequestParam String setA,
+            @RequestParam String setB, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getUnion(diagramId, setA, setB));
     }
 
     @GetMapping("/diagrams/{diagramId}/intersection")
-    public Set<Object> getIntersection(@PathVariable String diagramId, @RequestParam String setA,
-            @RequestParam String setB) {
-        return manager.getIntersection(diagramId, setA, setB);
+    public ResponseEntity<byte[]> getIntersection(@PathVariable String diagramId, @RequestParam String setA,
+            @RequestParam String setB, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getIntersection(diagramId, setA, setB));
     }
 
     @GetMapping("/diagrams/{diagramId}/difference")
-    public Set<Object> getDifference(@PathVariable String diagramId, @RequestParam String setA,
-            @RequestParam String setB) {
-        return manager.getDifference(diagramId, setA, setB);
+    public ResponseEntity<byte[]> getDifference(@PathVariable String diagramId, @RequestParam String setA,
+            @RequestParam String setB, ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getDifference(diagramId, setA, setB));
     }
 
     @GetMapping("/diagrams/{diagramId}/complement")
-    public Set<Object> getComplement(@PathVariable String diagramId, @RequestParam String set) {
-        return manager.getComplement(diagramId, set);
+    public ResponseEntity<byte[]> getComplement(@PathVariable String diagramId, @RequestParam String set,
+            ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.getComplement(diagramId, set));
+    }
+
+    /**
+     * Evaluates a set expression over any number of sets, e.g. (A ∪ B) ∖ (C ∩ D).
+     */
+    @GetMapping("/diagrams/{diagramId}/query")
+    public ResponseEntity<byte[]> evaluateExpression(@PathVariable String diagramId, @RequestParam String expr,
+            ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.evaluateExpression(diagramId, expr));
+    }
+
+    // --- Streaming Downloads (format=ndjson or csv, one element per line) ---
+
+    @GetMapping("/diagrams/{diagramId}/elements/stream")
+    public void streamAllElements(@PathVariable String diagramId,
+            @RequestParam(defaultValue = "ndjson") String format, ServletWebRequest request,
+            HttpServletResponse response) throws IOException {
+        if (notModified(diagramId, request)) return;
+        response.setContentType(StreamingExport.Format.parse(format).contentType);
+        manager.streamElements(diagramId, null, format, response.getOutputStream());
+    }
+
+    @GetMapping("/diagrams/{diagramId}/set/{setName}/elements/stream")
+    public void streamElementsInSet(@PathVariable String diagramId, @PathVariable String setName,
+            @RequestParam(defaultValue = "ndjson") String format, ServletWebRequest request,
+            HttpServletResponse response) throws IOException {
+        if (notModified(diagramId, request)) return;
+        response.setContentType(StreamingExport.Format.parse(format).contentType);
+        manager.streamElements(diagramId, setName, format, response.getOutputStream());
+    }
+
+    /**
+     * Streams the result of a set expression; use it for large unions, intersections, etc.
+     */
+    @GetMapping("/diagrams/{diagramId}/query/stream")
+    public void streamExpression(@PathVariable String diagramId, @RequestParam String expr,
+            @RequestParam(defaultValue = "ndjson") String format, ServletWebRequest request,
+            HttpServletResponse response) throws IOException {
+        if (notModified(diagramId, request)) return;
+        response.setContentType(StreamingExport.Format.parse(format).contentType);
+        manager.streamExpression(diagramId, expr, format, response.getOutputStream());
+    }
+
+    /**
+     * Streams every element with the sets it belongs to, readable by /import/memberships.
+     */
+    @GetMapping("/diagrams/{diagramId}/memberships/stream")
+    public void streamMemberships(@PathVariable String diagramId,
+            @RequestParam(defaultValue = "ndjson") String format, ServletWebRequest request,
+            HttpServletResponse response) throws IOException {
+        if (notModified(diagramId, request)) return;
+        response.setContentType(StreamingExport.Format.parse(format).contentType);
+        manager.streamMemberships(diagramId, format, response.getOutputStream());
+    }
+
+    @GetMapping("/diagrams/{diagramId}/query/count")
+    public ResponseEntity<byte[]> countExpression(@PathVariable String diagramId, @RequestParam String expr,
+            ServletWebRequest request) {
+        return cached(diagramId, request, () -> manager.countExpression(diagramId, expr));
+    }
+
+    /**
+     * Hit/miss counters of the diagram's query result cache.
+     */
+    @GetMapping("/diagrams/{diagramId}/cache/stats")
+    public ResultCache.Stats getResultCacheStats(@PathVariable String diagramId) {
+        return manager.getResultCacheStats(diagramId);
+    }
+
+    // --- Change Notifications ---
+
+    /**
+     * The edits made after version {@code since}, for an editor to patch its copy with.
+     * If {@code reset} is set in the reply, the editor has to refetch the diagram instead.
+     */
+    @GetMapping("/diagrams/{diagramId}/changes")
+    public ChangeLog.ChangeSet getChanges(@PathVariable String diagramId, @RequestParam long since) {
+        return manager.getChangesSince(diagramId, since);
+    }
+
+    /**
+     * Pushes the diagram's edits as server-sent events. A reconnecting EventSource sends
+     * Last-Event-ID, so it resumes where it left off.
+     */
+    @GetMapping(value = "/diagrams/{diagramId}/changes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@PathVariable String diagramId, @RequestParam(required = false) Long since,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return manager.streamChanges(diagramId, lastEventId != null ? lastEventId : since);
     }
 
     // --- POST Endpoints (now with diagramId) ---
@@ -142,6 +327,16 @@ public class VennDiagramController {
         manager.renameSet(diagramId, oldName, newName);
     }
 
+    /**
+     * Makes a set the elements matching a rule, e.g. {@code sum >= 10 and distinct = 3},
+     * and keeps it that way as elements are added.
+     */
+    @PostMapping("/diagrams/{diagramId}/set/rule")
+    public void defineRuleSet(@PathVariable String diagramId, @RequestParam String name,
+            @RequestParam String rule) {
+        manager.defineRuleSet(diagramId, name, rule);
+    }
+
     @PostMapping("/diagrams/{diagramId}/set/membership")
     public void setElementMembershipForSet(@PathVariable String diagramId,
             @RequestParam String name,
@@ -167,8 +362,77 @@ public class VennDiagramController {
         manager.renameElement(diagramId, oldName, newName);
     }
 
+    /**
+     * Applies an ordered list of edits atomically (all or nothing) and returns the new version.
+     */
+    @PostMapping("/diagrams/{diagramId}/batch")
+    public BatchOperation.Result applyBatch(@PathVariable String diagramId,
+            @RequestBody List<BatchOperation> operations) {
+        return manager.applyBatch(diagramId, operations);
+    }
+
+    /**
+     * Bulk-loads element memberships from a CSV or NDJSON upload (see MembershipImport),
+     * creating sets as they appear. The format is picked from the Content-Type.
+     */
+    @PostMapping(value = "/diagrams/{diagramId}/import/memberships",
+            consumes = { MembershipImport.CSV, MembershipImport.NDJSON })
+    public MembershipImport.Result importMemberships(@PathVariable String diagramId,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType, InputStream body) throws IOException {
+        return manager.importMemberships(diagramId, contentType, body);
+    }
+
+    /**
+     * Downloads the diagram in the compact binary workspace format (see WorkspaceFile).
+     */
+    @GetMapping("/diagrams/{diagramId}/export")
+    public void exportWorkspace(@PathVariable String diagramId, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + diagramId + ".vnws\"");
+        manager.exportWorkspace(diagramId, response.getOutputStream());
+    }
+
+    // --- Conditional GETs ---
+    // Every read is tagged with the diagram's version. A client that sends back the tag of
+    // an unchanged diagram gets a 304 before the model is touched, and a repeated read of the
+    // same URL at the same version is answered with the bytes serialized the first time.
+
+    private boolean notModified(String diagramId, ServletWebRequest request) {
+        return request.checkNotModified(DiagramWorkspace.etag(manager.getWorkspace(diagramId).getVersion()));
+    }
+
+    private ResponseEntity<byte[]> cached(String diagramId, ServletWebRequest request, Supplier<?> body) {
+        return cached(diagramId, request, MediaType.APPLICATION_JSON_VALUE, () -> {
+            try {
+                return objectMapper.writeValueAsBytes(body.get());
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private ResponseEntity<byte[]> cached(String diagramId, ServletWebRequest request, String contentType,
+            Supplier<byte[]> body) {
+        DiagramWorkspace workspace = manager.getWorkspace(diagramId);
+        long version = workspace.getVersion();
+        if (request.checkNotModified(DiagramWorkspace.etag(version))) {
+            return null; // The 304 is already on the response
+        }
+        HttpServletRequest servletRequest = request.getRequest();
+        String key = servletRequest.getQueryString() == null ? servletRequest.getRequestURI()
+                : servletRequest.getRequestURI() + "?" + servletRequest.getQueryString();
+        ResponseCache.Entry entry = workspace.getResponseCache().get(key, version);
+        if (entry == null) {
+            entry = new ResponseCache.Entry(contentType, body.get());
+            // Only cache what is known to match the tag: no write may have finished meanwhile
+            if (workspace.getVersion() == version) workspace.getResponseCache().put(key, version, entry);
+        }
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(entry.contentType)).body(entry.body);
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<String> handleIllegalArgument(IllegalArgumentException ex) {
-        return ResponseEntity.badRequest().body(ex.getMessage());
+        // Explicit type, since streaming endpoints may already have set JSON on the response
+        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(ex.getMessage());
     }
 }
\ No newline at end of file
@@ -1,65 +1,141 @@
 package com.example.venndiagramapi;
 
-import java.util.ArrayList;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.math.BigInteger;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Formats a VennDiagramModel<Object> into a readable string.
- * This class is now stateless and created on-the-fly.
+ * Formats a VennDiagramModel<Object> (or one of its snapshots) into a readable string.
+ * One formatter lives alongside each model so that region descriptions
+ * ("In (A, B) ∖ Not in (C)") are built once per set order instead of on every render.
  */
 public class VennDiagramFormatter<T> { // Still generic, will be <Object>
 
-    private final VennDiagramModel<T> model;
-
-    public VennDiagramFormatter(VennDiagramModel<T> model) {
-        this.model = model;
-    }
+    private volatile DescriptionCache descriptions = new DescriptionCache(-1, List.of());
 
-    public String getPartitionsAsString() {
+    public String getPartitionsAsString(VennDiagramView<T> model) {
         StringBuilder sb = new StringBuilder();
         List<String> setNames = model.getSetNames();
         int numSets = setNames.size();
-        int totalPartitions = 1 << numSets;
+        BigInteger totalPartitions = BigInteger.ONE.shiftLeft(numSets);
+        DescriptionCache cache = descriptionsFor(model.getSetOrderVersion(), setNames);
 
         sb.append("--- Venn Diagram Partitions (N=").append(numSets).append(") ---");
         sb.append("\nSet Order: ").append(setNames);
         sb.append("\nTotal unique regions: ").append(totalPartitions).append("\n");
 
-        for (int mask = 0; mask < totalPartitions; mask++) {
+        // Walk only the occupied regions, already in ascending mask order
+        for (RegionMask mask : model.getPartitionMasks()) {
             Set<T> elements = model.getPartition(mask);
-            if (!elements.isEmpty()) {
-                String regionDescription = formatMask(mask, setNames);
-                // Convert elements to string for printing
-                String elementsStr = elements.stream()
-                        .map(obj -> {
-                            if (obj instanceof DiceRoll) {
-                                DiceRoll d = (DiceRoll) obj;
-                                return d.toString(); // DiceRoll.toString() now returns JSON
-                            } else if (obj instanceof PlayingCard) {
-                                PlayingCard c = (PlayingCard) obj;
-                                return String.format("{\"rank\":\"%s\",\"suit\":\"%s\"}", c.getRank(), c.getSuit());
-                            }
-                            return obj.toString();
-                        })
-                        .collect(Collectors.joining(", "));
-                sb.append(String.format("Region %d (%s): [%s]\n", mask, regionDescription, elementsStr));
+            if (elements.isEmpty())
+                continue;
+            sb.append("Region ").append(mask).append(" (").append(cache.describe(mask)).append("): [");
+            boolean first = true;
+            for (T obj : elements) {
+                if (!first)
+                    sb.append(", ");
+                first = false;
+                appendElement(sb, obj);
             }
+            sb.append("]\n");
         }
         sb.append("-------------------------------------------------");
         return sb.toString();
     }
 
-    private String formatMask(int mask, List<String> setNames) {
-        if (mask == 0)
+    /**
+     * Streams the occupied regions as structured JSON, one region at a time, so the
+     * response never exists as one big String. Regions are paged in ascending mask order;
+     * with {@code countsOnly} the element lists are left out and only region sizes are sent.
+     */
+    public void writePartitionsJson(VennDiagramView<T> model, JsonGenerator gen, int offset, int limit, boolean countsOnly) throws IOException {
+        List<String> setNames = model.getSetNames();
+        List<RegionMask> masks = model.getPartitionMasks();
+        int from = Math.min(offset, masks.size());
+        int to = (int) Math.min((long) from + limit, masks.size());
+
+        gen.writeStartObject();
+        gen.writeObjectField("setNames", setNames);
+        gen.writeNumberField("universeSize", model.getElementCount());
+        gen.writeNumberField("totalRegions", masks.size());
+        gen.writeNumberField("offset", from);
+        gen.writeArrayFieldStart("regions");
+        for (RegionMask mask : masks.subList(from, to)) {
+            gen.writeStartObject();
+            gen.writeStringField("mask", mask.toString()); // Wide masks do not fit a JS number
+            gen.writeArrayFieldStart("sets");
+            for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+                gen.writeString(setNames.get(i));
+            }
+            gen.writeEndArray();
+            gen.writeNumberField("count", model.getPartitionSize(mask));
+            if (!countsOnly) {
+                gen.writeArrayFieldStart("elements");
+                for (T element : model.getPartition(mask)) {
+                    gen.writeObject(element);
+                }
+                gen.writeEndArray();
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.flush();
+    }
+
+    private static void appendElement(StringBuilder sb, Object obj) {
+        // Cards and rolls write their JSON straight into the buffer
+        if (obj instanceof PlayingCard) {
+            ((PlayingCard) obj).appendJson(sb);
+        } else if (obj instanceof DiceRoll) {
+            ((DiceRoll) obj).appendJson(sb);
+        } else {
+            sb.append(obj);
+        }
+    }
+
+    private DescriptionCache descriptionsFor(int version, List<String> setNames) {
+        DescriptionCache cache = descriptions;
+        if (cache.version != version) {
+            cache = new DescriptionCache(version, setNames);
+            descriptions = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Region descriptions for one version of the set order.
+     * Replaced wholesale when sets are added, removed or renamed.
+     */
+    private static final class DescriptionCache {
+        final int version;
+        final List<String> setNames;
+        final Map<RegionMask, String> byMask = new ConcurrentHashMap<>();
+
+        DescriptionCache(int version, List<String> setNames) {
+            this.version = version;
+            this.setNames = setNames;
+        }
+
+        String describe(RegionMask mask) {
+            return byMask.computeIfAbsent(mask, m -> formatMask(m, setNames));
+        }
+    }
+
+    private static String formatMask(RegionMask mask, List<String> setNames) {
+        if (mask.isEmpty())
             return "Outside all sets (Universal Set)";
         StringBuilder sb = new StringBuilder();
         sb.append("In (");
         StringBuilder notIn = new StringBuilder();
         for (int i = 0; i < setNames.size(); i++) {
             String name = setNames.get(i);
-            if ((mask & (1 << i)) != 0)
+            if (mask.get(i))
                 sb.append(name).append(", ");
             else
                 notIn.append(name).append(", ");
@@ -68,4 +144,4 @@ public class VennDiagramFormatter<T> { // Still generic, will be <Object>
         String notInStr = (notIn.length() > 0) ? " ∖ Not in (" + notIn.substring(0, notIn.length() - 2) + ")" : "";
         return inStr + notInStr;
     }
-}
\ No newline at end of file
+}
@@ -1,60 +1,170 @@
 package com.example.venndiagramapi;
 
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
 
 /**
  * VennDiagramModel<Object> provides the logical structure for an N-set Venn diagram.
  * It is now generic on <Object> to support multiple data types (String, Double, etc.)
+ *
+ * Every element is interned once into a dictionary that hands out dense int ids.
+ * The input sets, the universal set and the partitions are compressed bitmaps over
+ * those ids, so set operations are word-wise bit operations instead of hashing.
+ *
+ * Snapshots share whatever has not changed since the previous one: each bitmap is cloned
+ * once after it was last edited (see {@link #snapshot}), and the dictionary copies only
+ * the chunks written since (see ElementArray).
  */
-public class VennDiagramModel<T> { // We keep <T> for internal consistency, but it will be <Object>
+public class VennDiagramModel<T> implements VennDiagramView<T> { // We keep <T> for internal consistency, but it will be <Object>
+
+    // --- Element Dictionary ---
+    private final Map<T, Integer> elementIds;
+    private ElementArray elementsById; // Freed slots hold null until they are reused
+    private final RoaringBitmap freeIds;
+
+    private Map<String, RoaringBitmap> inputSets;
+    // Sparse region map: only occupied regions have an entry, never the full 2^N space
+    private final Map<RegionMask, Partition> partitions;
+    private volatile List<RegionMask> sortedMasks; // Rebuilt lazily after regions appear or disappear
+    private int elementCount; // Sum of all region sizes
+    // Bumped whenever set names or their order change, so cached region descriptions can be reused
+    private int setOrderVersion;
+    private final RoaringBitmap universalSet;
+    // Every id currently placed in a partition (universal set plus all input sets)
+    private final RoaringBitmap allElements;
+    // Membership mask per element id (the shared instance held by its Partition).
+    // Lets single-element edits move one element between regions instead of
+    // re-probing every set for every element.
+    private RegionMask[] elementMasks;
+    // Regions whose size changed since takeRegionChanges() was last called. Not tracked
+    // once the partitions have been rebuilt, since then every region may have changed.
+    private final Set<RegionMask> changedRegions = new HashSet<>();
+    private boolean partitionsRebuilt;
+    // Set names by bit index and the reverse, rebuilt when setOrderVersion moves on. Both are
+    // replaced rather than mutated, so views handed out earlier stay consistent.
+    private List<String> indexedSetNames = List.of();
+    private Map<String, Integer> setIndexes = Map.of();
+    private int indexedSetOrderVersion = -1;
+    // Rule-defined sets (see SetRule) and the ids interned since the rules were last applied
+    private Map<String, SetRule> rules = new LinkedHashMap<>();
+    private final RoaringBitmap unevaluated = new RoaringBitmap();
+    // Numeric elements in ascending order, kept in step with the dictionary
+    private final NumericIndex numericIndex = new NumericIndex();
+    // What the last snapshot holds of each bitmap, dropped as soon as the bitmap is edited
+    // (see setForEdit and friends), so the next snapshot only clones what changed
+    private final Map<String, RoaringBitmap> frozenSets = new HashMap<>();
+    private RoaringBitmap frozenUniversal;
+    private RoaringBitmap frozenAll;
 
-    private Map<String, Set<T>> inputSets;
-    private final Map<Integer, Set<T>> partitions;
-    private Set<T> universalSet;
+    // When full rebuilds are split across a fork-join pool (see calculatePartitions)
+    private final ParallelRebuild parallelRebuild;
+    // Ids per leaf task of a parallel rebuild
+    private static final int REBUILD_CHUNK = 1 << 16;
 
     public VennDiagramModel() {
+        this(ParallelRebuild.DEFAULT);
+    }
+
+    VennDiagramModel(ParallelRebuild parallelRebuild) {
+        this.parallelRebuild = Objects.requireNonNull(parallelRebuild);
+        this.elementIds = new HashMap<>();
+        this.elementsById = new ElementArray();
+        this.freeIds = new RoaringBitmap();
         this.inputSets = new LinkedHashMap<>();
         this.partitions = new HashMap<>();
-        this.universalSet = new HashSet<>();
+        this.universalSet = new RoaringBitmap();
+        this.allElements = new RoaringBitmap();
+        this.elementMasks = new RegionMask[16];
     }
 
     // --- Getters ---
+    @Override
     public List<String> getSetNames() {
         return new ArrayList<>(inputSets.keySet());
     }
+    @Override
+    public int getSetOrderVersion() {
+        return setOrderVersion;
+    }
     public Map<String, Set<T>> getInputSets() {
-        return Collections.unmodifiableMap(inputSets);
+        Map<String, Set<T>> views = new LinkedHashMap<>();
+        for (Map.Entry<String, RoaringBitmap> entry : inputSets.entrySet()) {
+            views.put(entry.getKey(), new IdSetView(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(views);
     }
+    @Override
     public Set<T> getUniversalSet() {
-        return Collections.unmodifiableSet(universalSet);
+        return new IdSetView(universalSet);
     }
+    @Override
     public Set<T> getElementsInSet(String setName) {
-        if (!inputSets.containsKey(setName)) {
-            throw new IllegalArgumentException("No set found with name: " + setName);
-        }
-        return Collections.unmodifiableSet(inputSets.get(setName));
+        return new IdSetView(requireSet(setName));
     }
 
     // --- Set Management ---
     public void setUniversalSet(Set<T> universalSet) {
-        this.universalSet = Objects.requireNonNull(universalSet, "Universal Set cannot be null");
+        Objects.requireNonNull(universalSet, "Universal Set cannot be null");
+        RoaringBitmap universal = universalForEdit();
+        universal.clear();
+        for (T element : universalSet) universal.add(idFor(element));
         calculatePartitions();
+        applyRules(true);
     }
     public void addSet(String setName, Set<T> set) {
         Objects.requireNonNull(setName, "Set name cannot be null");
         Objects.requireNonNull(set, "Set cannot be null");
         if (inputSets.containsKey(setName)) throw new IllegalArgumentException("Set name already exists: " + setName);
-        inputSets.put(setName, set);
-        this.universalSet.addAll(set);
-        calculatePartitions();
+        addSet(setName, toBitmap(set));
+        applyRules(true);
+    }
+    private void addSet(String setName, RoaringBitmap members) {
+        int index = inputSets.size();
+        inputSets.put(setName, members);
+        setOrderVersion++;
+        universalForEdit().or(members);
+        Map<RegionMask, RegionMask> withBit = new HashMap<>();
+        IntIterator it = members.getIntIterator();
+        while (it.hasNext()) {
+            int id = it.next();
+            placeElement(id, withBit.computeIfAbsent(maskOf(id), m -> m.with(index)));
+        }
     }
     public void removeSet(String setName) {
         if (!inputSets.containsKey(setName)) {
             throw new IllegalArgumentException("No set found with name: " + setName);
         }
+        int index = getSetIndex(setName);
         inputSets.remove(setName);
-        calculatePartitions();
+        frozenSets.remove(setName);
+        rules.remove(setName);
+        setOrderVersion++;
+        // Drop bit 'index' from every mask and shift the higher bits down one place.
+        // Each occupied region maps to exactly one new region, so whole bitmaps move at once.
+        List<Partition> oldPartitions = new ArrayList<>(partitions.values());
+        clearPartitions();
+        RoaringBitmap orphans = new RoaringBitmap();
+        for (Partition old : oldPartitions) {
+            RegionMask newMask = old.mask.removeBit(index);
+            if (newMask.isEmpty() && !old.mask.isEmpty()) {
+                RoaringBitmap outside = RoaringBitmap.andNot(old.members, universalSet);
+                orphans.or(outside);
+                old.members.andNot(outside);
+                if (old.members.isEmpty()) continue;
+            }
+            Partition target = partitionFor(newMask);
+            target.addAll(old.members);
+            old.members.forEach((int id) -> elementMasks[id] = target.mask);
+        }
+        orphans.forEach((int id) -> releaseId(id));
     }
     public void renameSet(String oldName, String newName) {
         if (oldName.equals(newName)) return;
@@ -64,147 +174,859 @@ public class VennDiagramModel<T> { // We keep <T> for internal consistency, but
         if (inputSets.containsKey(newName)) {
             throw new IllegalArgumentException("New set name already exists: " + newName);
         }
-        Map<String, Set<T>> newMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Set<T>> entry : inputSets.entrySet()) {
+        Map<String, RoaringBitmap> newMap = new LinkedHashMap<>();
+        for (Map.Entry<String, RoaringBitmap> entry : inputSets.entrySet()) {
             if (entry.getKey().equals(oldName)) {
                 newMap.put(newName, entry.getValue());
             } else {
                 newMap.put(entry.getKey(), entry.getValue());
             }
         }
+        // Set order is unchanged, so every mask (and therefore every partition) stays valid
         this.inputSets = newMap;
-        calculatePartitions();
+        RoaringBitmap frozen = frozenSets.remove(oldName);
+        if (frozen != null) frozenSets.put(newName, frozen);
+        setOrderVersion++;
+        if (rules.containsKey(oldName)) {
+            Map<String, SetRule> renamed = new LinkedHashMap<>();
+            rules.forEach((name, rule) -> renamed.put(name.equals(oldName) ? newName : name, rule));
+            rules = renamed;
+        }
+    }
+
+    // --- Rule-Defined Sets ---
+
+    /**
+     * Makes {@code setName} the set of elements {@code rule} accepts, creating the set if
+     * needed. The rule is evaluated over the whole dictionary in one parallel pass; after
+     * that only elements that are added or renamed are evaluated (see applyRules). A
+     * membership edit that contradicts the rule turns the set back into a plain set.
+     */
+    public void defineRuleSet(String setName, SetRule rule) {
+        Objects.requireNonNull(setName, "Set name cannot be null");
+        Objects.requireNonNull(rule, "Rule cannot be null");
+        NumericIndex.Range range = rule.valueRange();
+        RoaringBitmap members = range != null ? numericIndex.select(range) : rule.select(elementsById.toArray());
+        members.and(allElements);
+        if (inputSets.containsKey(setName)) {
+            replaceMembers(setName, members);
+        } else {
+            addSet(setName, members);
+        }
+        rules.put(setName, rule);
+    }
+
+    /**
+     * The rule of each rule-defined set, in set order.
+     */
+    public Map<String, SetRule> getRules() {
+        return Collections.unmodifiableMap(rules);
+    }
+
+    /**
+     * Evaluates every rule for the elements interned (or renamed) since the last call and
+     * adds them to, or removes them from, the rule-defined sets. An element's value cannot
+     * change in place, so elements that were already evaluated never need it again.
+     *
+     * @param place Whether to move the elements between regions as well; a bulk load
+     *              only updates the set bitmaps and rebuilds the partitions afterwards.
+     */
+    private void applyRules(boolean place) {
+        if (unevaluated.isEmpty()) return;
+        if (place) unevaluated.and(allElements); // Ids released since they were interned
+        int[] ids = unevaluated.toArray();
+        unevaluated.clear();
+        if (rules.isEmpty() || ids.length == 0) return;
+        Object[] elements = new Object[ids.length];
+        RegionMask[] masks = new RegionMask[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            elements[i] = elementsById.get(ids[i]);
+            masks[i] = maskOf(ids[i]);
+        }
+        for (Map.Entry<String, SetRule> entry : rules.entrySet()) {
+            int index = getSetIndex(entry.getKey());
+            RoaringBitmap members = setForEdit(entry.getKey());
+            RoaringBitmap accepted = entry.getValue().select(elements);
+            Map<RegionMask, RegionMask> transitions = new HashMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                boolean in = accepted.contains(i);
+                if (in == members.contains(ids[i])) continue;
+                if (in) {
+                    members.add(ids[i]);
+                    if (place) masks[i] = transitions.computeIfAbsent(masks[i], m -> m.with(index));
+                } else {
+                    members.remove(ids[i]);
+                    if (place) masks[i] = transitions.computeIfAbsent(masks[i], m -> m.without(index));
+                }
+            }
+        }
+        if (place) {
+            for (int i = 0; i < ids.length; i++) placeElement(ids[i], masks[i]);
+        }
     }
 
     // --- Core Logic ---
     private void calculatePartitions() {
-        partitions.clear();
-        Set<T> allElementsToProcess = new HashSet<>(this.universalSet);
-        for (Set<T> set : inputSets.values()) allElementsToProcess.addAll(set);
-        List<String> setNames = new ArrayList<>(inputSets.keySet());
-        for (T element : allElementsToProcess) {
-            int mask = 0;
-            int bitValue = 1;
-            for (String setName : setNames) {
-                Set<T> currentSet = inputSets.get(setName);
-                // Must use Objects.equals for generic types
-                if (currentSet.contains(element)) {
-                    mask |= bitValue;
+        clearPartitions();
+        List<RoaringBitmap> sets = new ArrayList<>(inputSets.values());
+        RoaringBitmap allElementsToProcess = universalSet.clone();
+        for (RoaringBitmap set : sets) allElementsToProcess.or(set);
+
+        RoaringBitmap orphans = RoaringBitmap.andNot(allElements, allElementsToProcess);
+        orphans.forEach((int id) -> releaseId(id));
+        placedForEdit().or(allElementsToProcess);
+
+        if (allElements.getCardinality() >= parallelRebuild.threshold) {
+            int[] ids = allElements.toArray();
+            Map<RegionMask, RoaringBitmap> regions = parallelRebuild.pool.invoke(
+                    new RegionTask(sets, new ConcurrentHashMap<>(), ids, 0, ids.length));
+            for (Map.Entry<RegionMask, RoaringBitmap> region : regions.entrySet()) {
+                partitionFor(region.getKey()).addAll(region.getValue());
+            }
+            return;
+        }
+        allElements.forEach((int id) -> elementMasks[id] = RegionMask.EMPTY);
+        for (int i = 0; i < sets.size(); i++) {
+            final int index = i;
+            // Only a handful of distinct masks exist, so memoize the transitions
+            Map<RegionMask, RegionMask> withBit = new HashMap<>();
+            sets.get(i).forEach((int id) -> elementMasks[id] = withBit.computeIfAbsent(elementMasks[id], m -> m.with(index)));
+        }
+        allElements.forEach((int id) -> {
+            Partition partition = partitionFor(elementMasks[id]);
+            partition.add(id);
+            elementMasks[id] = partition.mask;
+        });
+    }
+
+    /**
+     * One slice of a parallel rebuild: ids[from, to), a run of consecutive placed ids.
+     * A leaf works out the mask of each of its ids and groups them into its own region
+     * table; tables are merged pairwise as the tasks join, so the workers share nothing
+     * but the disjoint slots of elementMasks they write. New masks are interned through
+     * {@code masks} (consulted only on a leaf's memo misses), so every element ends up
+     * holding its partition's mask instance, as in a sequential rebuild.
+     */
+    private final class RegionTask extends RecursiveTask<Map<RegionMask, RoaringBitmap>> {
+        private static final long serialVersionUID = 1L;
+        private final List<RoaringBitmap> sets;
+        private final ConcurrentHashMap<RegionMask, RegionMask> masks;
+        private final int[] ids;
+        private final int from;
+        private final int to;
+
+        RegionTask(List<RoaringBitmap> sets, ConcurrentHashMap<RegionMask, RegionMask> masks, int[] ids,
+                int from, int to) {
+            this.sets = sets;
+            this.masks = masks;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<RegionMask, RoaringBitmap> compute() {
+            if (to - from > REBUILD_CHUNK) {
+                int mid = (from + to) >>> 1;
+                RegionTask left = new RegionTask(sets, masks, ids, from, mid);
+                left.fork();
+                Map<RegionMask, RoaringBitmap> right = new RegionTask(sets, masks, ids, mid, to).compute();
+                Map<RegionMask, RoaringBitmap> merged = left.join();
+                // Both halves hold different ids, so a shared region is just an OR
+                right.forEach((mask, members) -> merged.merge(mask, members, (a, b) -> {
+                    a.or(b);
+                    return a;
+                }));
+                return merged;
+            }
+            int first = ids[from];
+            int last = ids[to - 1];
+            for (int i = from; i < to; i++) elementMasks[ids[i]] = RegionMask.EMPTY;
+            for (int s = 0; s < sets.size(); s++) {
+                final int index = s;
+                Map<RegionMask, RegionMask> withBit = new HashMap<>();
+                // Every placed id in [first, last] belongs to this slice
+                PeekableIntIterator it = sets.get(s).getIntIterator();
+                it.advanceIfNeeded(first);
+                while (it.hasNext() && it.peekNext() <= last) {
+                    int id = it.next();
+                    elementMasks[id] = withBit.computeIfAbsent(elementMasks[id],
+                            m -> masks.computeIfAbsent(m.with(index), mask -> mask));
                 }
-                bitValue <<= 1;
             }
-            partitions.computeIfAbsent(mask, k -> new HashSet<>()).add(element);
+            Map<RegionMask, RoaringBitmap> regions = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                regions.computeIfAbsent(elementMasks[ids[i]], m -> new RoaringBitmap()).add(ids[i]);
+            }
+            return regions;
+        }
+    }
+
+    /**
+     * Moves a single element into the partition for {@code newMask}.
+     * Elements that end up outside every set and outside the universal set are dropped.
+     */
+    private void placeElement(int id, RegionMask newMask) {
+        if (allElements.contains(id)) {
+            RegionMask oldMask = elementMasks[id];
+            if (oldMask.equals(newMask)) return;
+            removeFromPartition(id, oldMask);
+        }
+        if (newMask.isEmpty() && !universalSet.contains(id)) {
+            releaseId(id);
+            return;
+        }
+        placedForEdit().add(id);
+        Partition partition = partitionFor(newMask);
+        partition.add(id);
+        elementMasks[id] = partition.mask;
+    }
+    private void dropElement(int id) {
+        if (!allElements.contains(id)) return;
+        removeFromPartition(id, elementMasks[id]);
+        releaseId(id);
+    }
+    private void removeFromPartition(int id, RegionMask mask) {
+        Partition oldPartition = partitions.get(mask);
+        oldPartition.remove(id);
+        if (oldPartition.count == 0) {
+            partitions.remove(mask);
+            sortedMasks = null;
+        }
+    }
+    private Partition partitionFor(RegionMask mask) {
+        Partition partition = partitions.get(mask);
+        if (partition == null) {
+            partition = new Partition(mask);
+            partitions.put(mask, partition);
+            sortedMasks = null;
+        }
+        return partition;
+    }
+    private void clearPartitions() {
+        partitions.clear();
+        sortedMasks = null;
+        elementCount = 0;
+        partitionsRebuilt = true;
+        changedRegions.clear();
+    }
+    private RegionMask maskOf(int id) {
+        return allElements.contains(id) ? elementMasks[id] : RegionMask.EMPTY;
+    }
+
+    /**
+     * The regions whose size changed since the previous call, mapped to their new size
+     * (0 when the region is now empty), or null if the partitions were rebuilt in between
+     * and every region may have changed. Resets the tracking either way.
+     */
+    public Map<RegionMask, Integer> takeRegionChanges() {
+        if (partitionsRebuilt) {
+            partitionsRebuilt = false;
+            return null;
+        }
+        Map<RegionMask, Integer> sizes = new HashMap<>();
+        for (RegionMask mask : changedRegions) sizes.put(mask, getPartitionSize(mask));
+        changedRegions.clear();
+        return sizes;
+    }
+
+    /**
+     * The masks of all occupied regions in ascending order. Empty regions are never stored.
+     */
+    @Override
+    public List<RegionMask> getPartitionMasks() {
+        List<RegionMask> masks = sortedMasks;
+        if (masks == null) {
+            List<RegionMask> sorted = new ArrayList<>(partitions.keySet());
+            sorted.sort(null);
+            masks = Collections.unmodifiableList(sorted);
+            sortedMasks = masks;
         }
+        return masks;
+    }
+    @Override
+    public Set<T> getPartition(RegionMask mask) {
+        Partition partition = partitions.get(mask);
+        return partition == null ? Collections.emptySet() : new IdSetView(partition.members);
     }
     public Set<T> getPartition(int mask) {
-        return partitions.getOrDefault(mask, Collections.emptySet());
+        return getPartition(RegionMask.valueOf(Integer.toUnsignedLong(mask)));
+    }
+
+    // --- Cardinalities (maintained on every mutation, no elements are touched) ---
+    @Override
+    public int getPartitionSize(RegionMask mask) {
+        Partition partition = partitions.get(mask);
+        return partition == null ? 0 : partition.count;
+    }
+    /**
+     * Number of elements across all regions (the universal set plus every input set).
+     */
+    @Override
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * One occupied region: its canonical mask, the ids of the elements in it and their count.
+     */
+    private final class Partition {
+        final RegionMask mask;
+        final RoaringBitmap members = new RoaringBitmap();
+        int count;
+        RoaringBitmap frozen; // What the last snapshot holds of members, until they change
+
+        Partition(RegionMask mask) {
+            this.mask = mask;
+        }
+
+        void add(int id) {
+            members.add(id);
+            frozen = null;
+            count++;
+            elementCount++;
+            if (!partitionsRebuilt) changedRegions.add(mask);
+        }
+
+        void remove(int id) {
+            members.remove(id);
+            frozen = null;
+            count--;
+            elementCount--;
+            if (!partitionsRebuilt) changedRegions.add(mask);
+        }
+
+        void addAll(RoaringBitmap ids) {
+            if (!partitionsRebuilt) changedRegions.add(mask);
+            members.or(ids);
+            frozen = null;
+            int newCount = members.getCardinality();
+            elementCount += newCount - count;
+            count = newCount;
+        }
+    }
+
+    // --- Element Dictionary ---
+    private int idFor(T element) {
+        Integer id = elementIds.get(element);
+        if (id != null) return id;
+        int newId;
+        if (freeIds.isEmpty()) {
+            newId = elementsById.add(element);
+            if (newId == elementMasks.length) {
+                elementMasks = Arrays.copyOf(elementMasks, newId * 2);
+            }
+        } else {
+            newId = freeIds.first();
+            freeIds.remove(newId);
+            elementsById.set(newId, element);
+        }
+        elementIds.put(element, newId);
+        if (!rules.isEmpty()) unevaluated.add(newId);
+        if (element instanceof Double) numericIndex.add(newId, (Double) element);
+        return newId;
+    }
+    private void releaseId(int id) {
+        placedForEdit().remove(id);
+        T element = element(id);
+        if (element instanceof Double) numericIndex.remove(id, (Double) element);
+        elementIds.remove(element);
+        elementsById.set(id, null);
+        freeIds.add(id);
+    }
+    @SuppressWarnings("unchecked")
+    private T element(int id) {
+        return (T) elementsById.get(id);
+    }
+
+    // Every edit of a bitmap goes through one of these, so the next snapshot clones it again
+    private RoaringBitmap setForEdit(String setName) {
+        frozenSets.remove(setName);
+        return inputSets.get(setName);
+    }
+    private RoaringBitmap universalForEdit() {
+        frozenUniversal = null;
+        return universalSet;
+    }
+    private RoaringBitmap placedForEdit() {
+        frozenAll = null;
+        return allElements;
+    }
+    private RoaringBitmap toBitmap(Set<T> elements) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (T element : elements) bitmap.add(idFor(element));
+        return bitmap;
+    }
+    private RoaringBitmap requireSet(String setName) {
+        RoaringBitmap set = inputSets.get(setName);
+        if (set == null) throw new IllegalArgumentException("No set found with name: " + setName);
+        return set;
+    }
+
+    /**
+     * A read-only Set view that decodes the ids of a bitmap through the element dictionary.
+     * Nothing is copied, so handing one to Jackson serializes straight from the bitmap.
+     */
+    private class IdSetView extends AbstractSet<T> {
+        private final RoaringBitmap ids;
+
+        IdSetView(RoaringBitmap ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public int size() {
+            return ids.getCardinality();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ids.isEmpty();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            Integer id = elementIds.get((T) o);
+            return id != null && ids.contains(id);
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            IntIterator it = ids.getIntIterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    return element(it.next());
+                }
+            };
+        }
     }
 
     // --- High-Level Set Operations ---
     public Set<T> getFullIntersection() {
         int numSets = inputSets.size();
         if (numSets == 0) return Collections.emptySet();
-        int fullMask = (1 << numSets) - 1;
-        return getPartition(fullMask);
+        return getPartition(RegionMask.allOf(numSets));
     }
-    private int getSetIndex(String setName, List<String> setNames) {
-        int index = setNames.indexOf(setName);
-        if (index == -1) throw new IllegalArgumentException("No set found with name: " + setName);
+    private int getSetIndex(String setName) {
+        Integer index = setIndexes().get(setName);
+        if (index == null) throw new IllegalArgumentException("No set found with name: " + setName);
         return index;
     }
-    private int createMaskFromNames(String... setNames) {
-        List<String> orderedSetNames = new ArrayList<>(inputSets.keySet());
-        int mask = 0;
-        for (String name : setNames) {
-            int index = getSetIndex(name, orderedSetNames);
-            mask |= (1 << index);
+    private Map<String, Integer> setIndexes() {
+        if (indexedSetOrderVersion != setOrderVersion) {
+            List<String> names = List.copyOf(inputSets.keySet());
+            Map<String, Integer> indexes = new HashMap<>();
+            for (int i = 0; i < names.size(); i++) indexes.put(names.get(i), i);
+            indexedSetNames = names;
+            setIndexes = indexes;
+            indexedSetOrderVersion = setOrderVersion;
         }
-        return mask;
+        return setIndexes;
+    }
+    private RoaringBitmap[] requireSets(String... setNames) {
+        RoaringBitmap[] sets = new RoaringBitmap[setNames.length];
+        for (int i = 0; i < setNames.length; i++) sets[i] = requireSet(setNames[i]);
+        return sets;
     }
+    @Override
     public Set<T> getIntersection(String... setNames) {
         if (setNames.length == 0) return Collections.emptySet();
-        int targetMask = createMaskFromNames(setNames);
-        Set<T> result = new HashSet<>();
-        for (Map.Entry<Integer, Set<T>> entry : partitions.entrySet()) {
-            if ((entry.getKey() & targetMask) == targetMask) result.addAll(entry.getValue());
-        }
-        return result;
+        return new IdSetView(FastAggregation.and(requireSets(setNames)));
     }
+    @Override
     public Set<T> getUnion(String... setNames) {
         if (setNames.length == 0) return Collections.emptySet();
-        int targetMask = createMaskFromNames(setNames);
-        Set<T> result = new HashSet<>();
-        for (Map.Entry<Integer, Set<T>> entry : partitions.entrySet()) {
-            if ((entry.getKey() & targetMask) != 0) result.addAll(entry.getValue());
-        }
-        return result;
+        return new IdSetView(FastAggregation.or(requireSets(setNames)));
     }
+    @Override
     public Set<T> getDifference(String setA, String setB) {
-        int maskA = createMaskFromNames(setA);
-        int maskB = createMaskFromNames(setB);
-        Set<T> result = new HashSet<>();
-        for (Map.Entry<Integer, Set<T>> entry : partitions.entrySet()) {
-            int partitionMask = entry.getKey();
-            if ((partitionMask & maskA) != 0 && (partitionMask & maskB) == 0) result.addAll(entry.getValue());
-        }
-        return result;
+        return new IdSetView(RoaringBitmap.andNot(requireSet(setA), requireSet(setB)));
     }
+    @Override
     public Set<T> getComplement(String setName) {
-        int maskA = createMaskFromNames(setName);
-        Set<T> result = new HashSet<>();
-        for (Map.Entry<Integer, Set<T>> entry : partitions.entrySet()) {
-            int partitionMask = entry.getKey();
-            if ((partitionMask & maskA) == 0) result.addAll(entry.getValue());
+        return new IdSetView(RoaringBitmap.andNot(allElements, requireSet(setName)));
+    }
+
+    /**
+     * The union of every occupied region whose mask satisfies the predicate,
+     * found in one pass over the regions (see SetExpression).
+     */
+    @Override
+    public Set<T> getRegionsMatching(Predicate<RegionMask> predicate) {
+        List<RoaringBitmap> matching = new ArrayList<>();
+        for (Partition partition : partitions.values()) {
+            if (predicate.test(partition.mask)) matching.add(partition.members);
+        }
+        return new IdSetView(FastAggregation.or(matching.iterator()));
+    }
+    @Override
+    public int countRegionsMatching(Predicate<RegionMask> predicate) {
+        int count = 0;
+        for (Partition partition : partitions.values()) {
+            if (predicate.test(partition.mask)) count += partition.count;
         }
-        return result;
+        return count;
     }
 
-    // --- Element Management Methods ---
-    public Set<String> getSetsForElement(T element) {
-        Set<String> memberSets = new HashSet<>();
-        for (Map.Entry<String, Set<T>> entry : inputSets.entrySet()) {
-            if (entry.getValue().contains(element)) {
-                memberSets.add(entry.getKey());
+    /**
+     * Takes an immutable copy of the current state, tagged with the owning workspace's version.
+     * Only the bitmaps edited since the previous snapshot are cloned; the others, and the
+     * dictionary's chunks and the numeric index's sorted base, are shared with it. Callers
+     * must not take two snapshots at once (see DiagramWorkspace.snapshot).
+     */
+    public ModelSnapshot<T> snapshot(long version) {
+        Map<String, RoaringBitmap> sets = new LinkedHashMap<>();
+        for (Map.Entry<String, RoaringBitmap> entry : inputSets.entrySet()) {
+            sets.put(entry.getKey(), frozenSets.computeIfAbsent(entry.getKey(), name -> entry.getValue().clone()));
+        }
+        List<RegionMask> masks = getPartitionMasks();
+        RoaringBitmap[] members = new RoaringBitmap[masks.size()];
+        int[] counts = new int[masks.size()];
+        for (int i = 0; i < members.length; i++) {
+            Partition partition = partitions.get(masks.get(i));
+            if (partition.frozen == null) partition.frozen = partition.members.clone();
+            members[i] = partition.frozen;
+            counts[i] = partition.count;
+        }
+        if (frozenUniversal == null) frozenUniversal = universalSet.clone();
+        if (frozenAll == null) frozenAll = allElements.clone();
+        return new ModelSnapshot<>(version, setOrderVersion, sets, frozenUniversal, frozenAll, masks, members,
+                counts, elementsById.share(), elementCount, new LinkedHashMap<>(rules), numericIndex.copy());
+    }
+
+    /**
+     * Puts the model back into the exact state captured by {@code snapshot}, including
+     * element ids. Used to roll back a batch that failed half way through.
+     */
+    void restore(ModelSnapshot<T> snapshot) {
+        elementsById = snapshot.elementsById().share();
+        int size = elementsById.size();
+        elementIds.clear();
+        freeIds.clear();
+        numericIndex.clear();
+        for (int id = 0; id < size; id++) {
+            T element = element(id);
+            if (element != null) {
+                elementIds.put(element, id);
+                if (element instanceof Double) numericIndex.add(id, (Double) element);
+            } else {
+                freeIds.add(id);
             }
         }
-        return memberSets;
+        elementMasks = new RegionMask[Math.max(16, size)];
+
+        // The snapshot's bitmaps are never modified, so they stand in for the frozen copies
+        Map<String, RoaringBitmap> sets = new LinkedHashMap<>();
+        frozenSets.clear();
+        for (Map.Entry<String, RoaringBitmap> entry : snapshot.sets().entrySet()) {
+            sets.put(entry.getKey(), entry.getValue().clone());
+            frozenSets.put(entry.getKey(), entry.getValue());
+        }
+        inputSets = sets;
+        rules = new LinkedHashMap<>(snapshot.rules());
+        unevaluated.clear();
+        setOrderVersion++;
+        universalSet.clear();
+        universalSet.or(snapshot.universalSet());
+        frozenUniversal = snapshot.universalSet();
+        allElements.clear();
+        allElements.or(snapshot.allElements());
+        frozenAll = snapshot.allElements();
+
+        clearPartitions();
+        List<RegionMask> masks = snapshot.getPartitionMasks();
+        for (int i = 0; i < masks.size(); i++) {
+            Partition partition = partitionFor(masks.get(i));
+            partition.addAll(snapshot.regionMembers(i));
+            partition.frozen = snapshot.regionMembers(i);
+            partition.members.forEach((int id) -> elementMasks[id] = partition.mask);
+        }
+    }
+
+    /**
+     * Loads a workspace file straight from its mapping, for import and recovery: the
+     * dictionary is decoded once in id order and each bitmap is copied once out of its
+     * mapped view, with no intermediate snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    void restore(WorkspaceFile file) throws IOException {
+        int size = file.dictionarySize();
+        elementsById = new ElementArray();
+        elementIds.clear();
+        freeIds.clear();
+        numericIndex.clear();
+        WorkspaceFile.Elements elements = file.elements();
+        for (int id = 0; id < size; id++) {
+            T element = (T) elements.next();
+            elementsById.add(element);
+            if (element != null) {
+                if (elementIds.put(element, id) != null) {
+                    throw new IllegalArgumentException("Corrupt workspace file (element " + element + " appears twice)");
+                }
+                if (element instanceof Double) numericIndex.add(id, (Double) element);
+            } else {
+                freeIds.add(id);
+            }
+        }
+        elementMasks = new RegionMask[Math.max(16, size)];
+
+        Map<String, RoaringBitmap> sets = new LinkedHashMap<>();
+        frozenSets.clear();
+        List<String> setNames = file.setNames();
+        for (int i = 0; i < setNames.size(); i++) sets.put(setNames.get(i), file.set(i).toRoaringBitmap());
+        inputSets = sets;
+        rules = new LinkedHashMap<>(file.rules());
+        unevaluated.clear();
+        setOrderVersion++;
+        universalSet.clear();
+        universalSet.or(file.universalSet().toRoaringBitmap());
+        frozenUniversal = null;
+        allElements.clear();
+        allElements.or(file.allElements().toRoaringBitmap());
+        frozenAll = null;
+
+        clearPartitions();
+        for (int i = 0; i < file.regionCount(); i++) {
+            Partition partition = partitionFor(file.regionMask(i));
+            partition.addAll(file.regionMembers(i).toRoaringBitmap());
+            partition.members.forEach((int id) -> elementMasks[id] = partition.mask);
+        }
+    }
+
+    // --- Bulk Loading ---
+
+    /**
+     * Starts a bulk load. Rows go straight into the set bitmaps and the partitions are
+     * rebuilt once by {@link BulkLoad#finish()}, instead of moving every element between
+     * regions as it arrives. Until then the partitions are stale, so the caller must hold
+     * the workspace's write lock for the whole load.
+     */
+    public BulkLoad bulkLoad() {
+        return new BulkLoad();
+    }
+
+    public final class BulkLoad {
+        private int rows;
+        private int setsCreated;
+
+        private BulkLoad() {
+        }
+
+        /**
+         * Same meaning as {@link #updateElementMembership}: the element joins the universal
+         * set and belongs to exactly {@code setNames} afterwards. Unknown sets are created.
+         * Rule-defined sets are left to their rules, as a file is not an edit of them.
+         */
+        public void add(T element, Collection<String> setNames) {
+            boolean known = elementIds.containsKey(element);
+            int id = idFor(element);
+            universalForEdit().add(id);
+            if (known) {
+                // Only elements that existed before can be in sets they are leaving
+                for (Map.Entry<String, RoaringBitmap> entry : inputSets.entrySet()) {
+                    if (!setNames.contains(entry.getKey()) && !rules.containsKey(entry.getKey())
+                            && entry.getValue().checkedRemove(id)) {
+                        frozenSets.remove(entry.getKey());
+                    }
+                }
+            }
+            for (String setName : setNames) {
+                if (rules.containsKey(setName)) continue; // Decided by the rule in finish()
+                RoaringBitmap set = inputSets.get(setName);
+                if (set == null) {
+                    set = new RoaringBitmap();
+                    inputSets.put(setName, set);
+                    setOrderVersion++;
+                    setsCreated++;
+                }
+                if (set.checkedAdd(id)) frozenSets.remove(setName);
+            }
+            rows++;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public int getSetsCreated() {
+            return setsCreated;
+        }
+
+        /**
+         * Rebuilds the partitions from the loaded sets.
+         */
+        public void finish() {
+            applyRules(false);
+            for (RoaringBitmap set : inputSets.values()) set.runOptimize();
+            calculatePartitions();
+        }
+    }
+
+    // --- Element Management Methods ---
+    /**
+     * The sets an element belongs to, decoded from its region mask: one dictionary lookup,
+     * whatever the number of sets. The result is a read-only view that stays valid (as of
+     * this call) after later edits.
+     */
+    public Set<String> getSetsForElement(T element) {
+        Integer id = elementIds.get(element);
+        if (id == null) return Collections.emptySet();
+        Map<String, Integer> indexes = setIndexes();
+        return new MaskSetNames(maskOf(id), indexedSetNames, indexes);
     }
     public void removeElement(T element) {
-        universalSet.remove(element);
-        for (Set<T> set : inputSets.values()) {
-            set.remove(element);
+        Integer id = elementIds.get(element);
+        if (id == null) return;
+        universalForEdit().remove(id);
+        for (Map.Entry<String, RoaringBitmap> entry : inputSets.entrySet()) {
+            if (entry.getValue().checkedRemove(id)) frozenSets.remove(entry.getKey());
         }
-        calculatePartitions();
+        dropElement(id);
     }
     public void renameElement(T oldName, T newName) {
         // Use Objects.equals for generic object comparison
         if (Objects.equals(oldName, newName)) return;
-        if (universalSet.contains(newName)) {
+        if (getUniversalSet().contains(newName)) {
             throw new IllegalArgumentException("New element name '" + newName + "' already exists.");
         }
-        Set<String> memberSets = getSetsForElement(oldName);
-        removeElement(oldName);
-        updateElementMembership(newName, memberSets);
+        Integer id = elementIds.get(oldName);
+        if (id == null || elementIds.containsKey(newName)) {
+            // Nothing to carry over, or merging into a known element: take the long way
+            Set<String> memberSets = new HashSet<>(getSetsForElement(oldName));
+            memberSets.removeAll(rules.keySet()); // Decided by the rules for the new name
+            removeElement(oldName);
+            updateElementMembership(newName, memberSets);
+            return;
+        }
+        // Same id, so every bitmap and region stays as it is; only the dictionary is re-keyed
+        elementIds.remove(oldName);
+        elementIds.put(newName, id);
+        elementsById.set(id, newName);
+        if (oldName instanceof Double) numericIndex.remove(id, (Double) oldName);
+        if (newName instanceof Double) numericIndex.add(id, (Double) newName);
+        universalForEdit().add(id);
+        if (!rules.isEmpty()) {
+            unevaluated.add(id);
+            applyRules(true);
+        }
     }
     public void updateElementMembership(T element, Set<String> setNamesToJoin) {
-        universalSet.add(element); // Add to universal set
-        for (String setName : inputSets.keySet()) {
-            Set<T> currentSet = inputSets.get(setName);
-            if (setNamesToJoin.contains(setName)) {
-                currentSet.add(element);
-            } else {
-                currentSet.remove(element);
-            }
+        Integer knownId = elementIds.get(element);
+        boolean placed = knownId != null && allElements.contains(knownId);
+        int id = idFor(element);
+        universalForEdit().add(id); // Add to universal set
+        Map<String, Integer> indexes = setIndexes();
+        RegionMask oldMask = maskOf(id);
+        long[] words = new long[(indexes.size() + 63) >>> 6];
+        for (String setName : setNamesToJoin) {
+            Integer index = indexes.get(setName); // Unknown set names are ignored
+            if (index != null) words[index >>> 6] |= 1L << index;
         }
-        calculatePartitions();
+        if (!rules.isEmpty()) detachContradictedRules(element, placed ? oldMask : null, words, indexes);
+        RegionMask newMask = RegionMask.fromWords(words);
+        // Only the sets the element leaves or joins are touched
+        for (int i = oldMask.nextSetBit(0); i >= 0; i = oldMask.nextSetBit(i + 1)) {
+            if (!newMask.get(i)) setForEdit(indexedSetNames.get(i)).remove(id);
+        }
+        for (int i = newMask.nextSetBit(0); i >= 0; i = newMask.nextSetBit(i + 1)) {
+            if (!oldMask.get(i)) setForEdit(indexedSetNames.get(i)).add(id);
+        }
+        placeElement(id, newMask);
+        applyRules(true);
     }
-    public void setElementMembershipForSet(String setName, Set<T> elements) {
-        if (!inputSets.containsKey(setName)) {
-            throw new IllegalArgumentException("No set found with name: " + setName);
+
+    /**
+     * Drops the rule of every rule-defined set the request puts the element in or keeps it
+     * out of against the rule's verdict, so they become plain sets and the request wins. A
+     * new element left out of a rule's set is not a contradiction: the rule places it.
+     *
+     * @param oldMask The element's current mask, or null if it is new.
+     */
+    private void detachContradictedRules(T element, RegionMask oldMask, long[] words, Map<String, Integer> indexes) {
+        Iterator<Map.Entry<String, SetRule>> it = rules.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, SetRule> entry = it.next();
+            int index = indexes.get(entry.getKey());
+            boolean requested = (words[index >>> 6] & 1L << index) != 0;
+            boolean current = oldMask != null ? oldMask.get(index)
+                    : entry.getValue().select(new Object[] { element }).contains(0);
+            if (requested != current && (oldMask != null || requested)) it.remove();
         }
-        Set<T> newElements = new HashSet<>(elements);
-        universalSet.addAll(newElements);
+    }
+    /**
+     * Makes {@code elements} the members of the set. If the set is rule-defined and the
+     * members differ from what the rule selected, the rule is dropped (see defineRuleSet).
+     */
+    public void setElementMembershipForSet(String setName, Set<T> elements) {
+        getSetIndex(setName);
+        RoaringBitmap members = toBitmap(elements);
+        if (rules.containsKey(setName) && !members.equals(inputSets.get(setName))) rules.remove(setName);
+        replaceMembers(setName, members);
+        applyRules(true);
+    }
+    private void replaceMembers(String setName, RoaringBitmap newElements) {
+        int index = getSetIndex(setName);
+        RoaringBitmap oldElements = inputSets.get(setName);
+        universalForEdit().or(newElements);
         inputSets.put(setName, newElements);
-        calculatePartitions();
+        frozenSets.remove(setName);
+        Map<RegionMask, RegionMask> withoutBit = new HashMap<>();
+        Map<RegionMask, RegionMask> withBit = new HashMap<>();
+        RoaringBitmap.andNot(oldElements, newElements)
+                .forEach((int id) -> placeElement(id, withoutBit.computeIfAbsent(maskOf(id), m -> m.without(index))));
+        newElements.forEach((int id) -> placeElement(id, withBit.computeIfAbsent(maskOf(id), m -> m.with(index))));
+    }
+
+    /**
+     * Set names decoded lazily from a region mask.
+     */
+    private static final class MaskSetNames extends AbstractSet<String> {
+        private final RegionMask mask;
+        private final List<String> names;
+        private final Map<String, Integer> indexes;
+
+        MaskSetNames(RegionMask mask, List<String> names, Map<String, Integer> indexes) {
+            this.mask = mask;
+            this.names = names;
+            this.indexes = indexes;
+        }
+
+        @Override
+        public int size() {
+            return mask.bitCount();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            Integer index = indexes.get(o);
+            return index != null && mask.get(index);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<>() {
+                private int next = mask.nextSetBit(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                @Override
+                public String next() {
+                    if (next < 0) throw new NoSuchElementException();
+                    String name = names.get(next);
+                    next = mask.nextSetBit(next + 1);
+                    return name;
+                }
+            };
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,49 @@
+package com.example.venndiagramapi;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The read-only side of a Venn diagram, shared by the live VennDiagramModel and its
+ * immutable ModelSnapshot, so formatters and statistics can work from either.
+ */
+public interface VennDiagramView<T> {
+
+    List<String> getSetNames();
+
+    /**
+     * Changes whenever set names or their order change.
+     */
+    int getSetOrderVersion();
+
+    Set<T> getUniversalSet();
+
+    Set<T> getElementsInSet(String setName);
+
+    /**
+     * The masks of all occupied regions in ascending order.
+     */
+    List<RegionMask> getPartitionMasks();
+
+    Set<T> getPartition(RegionMask mask);
+
+    int getPartitionSize(RegionMask mask);
+
+    /**
+     * Number of elements across all regions (the universal set plus every input set).
+     */
+    int getElementCount();
+
+    Set<T> getIntersection(String... setNames);
+
+    Set<T> getUnion(String... setNames);
+
+    Set<T> getDifference(String setA, String setB);
+
+    Set<T> getComplement(String setName);
+
+    Set<T> getRegionsMatching(Predicate<RegionMask> predicate);
+
+    int countRegionsMatching(Predicate<RegionMask> predicate);
+}
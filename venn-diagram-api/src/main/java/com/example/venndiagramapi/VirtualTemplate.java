@@ -0,0 +1,522 @@
+package com.example.venndiagramapi;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * A probability template whose universe is never stored. Its outcomes are the integers
+ * 0..size-1 in a fixed order, decoded into elements only when something iterates them,
+ * and each set is a predicate over an outcome. A region is identified by the bits of its
+ * mask, so with at most a handful of sets the whole partition table is one small array of
+ * counts, computed once (in closed form where the template has one, otherwise by a
+ * parallel scan over the outcomes).
+ *
+ * Templates never change, so a workspace built on one is read-only and every view handed
+ * out here stays valid forever.
+ */
+abstract class VirtualTemplate implements VennDiagramView<Object> {
+
+    private static final int SCAN_CHUNK = 1 << 16;
+
+    private final String templateName;
+    private final String name;
+    private final String elementType;
+    private final int size;
+    private final List<String> setNames;
+    private final ReentrantLock countLock = new ReentrantLock();
+    private volatile long[] regionCounts; // Indexed by mask bits
+
+    VirtualTemplate(String templateName, String name, String elementType, int size, List<String> setNames) {
+        this.templateName = templateName;
+        this.name = name;
+        this.elementType = elementType;
+        this.size = size;
+        this.setNames = List.copyOf(setNames);
+    }
+
+    // --- Outcome encoding ---
+    // Outcomes are walked through a reusable int[] state, so a scan allocates nothing per outcome.
+
+    abstract int stateLength();
+
+    /**
+     * Decodes the outcome with the given rank into {@code state}.
+     */
+    abstract void unrank(int rank, int[] state);
+
+    /**
+     * Moves {@code state} to the outcome with the next rank.
+     */
+    abstract void advance(int[] state);
+
+    /**
+     * The bits of the region the outcome belongs to (bit i set when it is in set i).
+     */
+    abstract int mask(int[] state);
+
+    abstract Object element(int[] state);
+
+    /**
+     * Encodes an element back into {@code state}.
+     *
+     * @return false if the element is not an outcome of this template.
+     */
+    abstract boolean parse(Object element, int[] state);
+
+    // --- Metadata ---
+
+    String getTemplateName() { return templateName; }
+    String getName() { return name; }
+    String getElementType() { return elementType; }
+
+    // --- Region counts ---
+
+    /**
+     * Counts the outcomes in each region. Templates with a closed form override this;
+     * the default scans every outcome.
+     */
+    long[] countRegions() {
+        return scanRegions();
+    }
+
+    /**
+     * Counts the outcomes in each region by decoding all of them, in parallel chunks.
+     */
+    final long[] scanRegions() {
+        int regions = 1 << setNames.size();
+        int chunks = (size + SCAN_CHUNK - 1) / SCAN_CHUNK;
+        return IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            long[] counts = new long[regions];
+            int[] state = new int[stateLength()];
+            int from = chunk * SCAN_CHUNK;
+            int to = Math.min(size, from + SCAN_CHUNK);
+            unrank(from, state);
+            for (int rank = from; rank < to; rank++) {
+                if (rank > from) advance(state);
+                counts[mask(state)]++;
+            }
+            return counts;
+        }).reduce((a, b) -> {
+            for (int i = 0; i < a.length; i++) a[i] += b[i];
+            return a;
+        }).orElseGet(() -> new long[regions]);
+    }
+
+    private long[] counts() {
+        long[] counts = regionCounts;
+        if (counts != null) return counts;
+        countLock.lock();
+        try {
+            if (regionCounts == null) regionCounts = countRegions();
+            return regionCounts;
+        } finally {
+            countLock.unlock();
+        }
+    }
+
+    /**
+     * The sets an element belongs to, or none if it is not an outcome of this template.
+     */
+    Set<String> getSetsForElement(Object element) {
+        int[] state = new int[stateLength()];
+        if (!parse(element, state)) return Set.of();
+        int bits = mask(state);
+        Set<String> sets = new LinkedHashSet<>();
+        for (int i = 0; i < setNames.size(); i++) {
+            if ((bits & (1 << i)) != 0) sets.add(setNames.get(i));
+        }
+        return sets;
+    }
+
+    // --- VennDiagramView ---
+
+    @Override
+    public List<String> getSetNames() {
+        return new ArrayList<>(setNames);
+    }
+
+    @Override
+    public int getSetOrderVersion() {
+        return 0;
+    }
+
+    @Override
+    public Set<Object> getUniversalSet() {
+        return regions(bits -> true);
+    }
+
+    @Override
+    public Set<Object> getElementsInSet(String setName) {
+        int bit = 1 << requireSet(setName);
+        return regions(bits -> (bits & bit) != 0);
+    }
+
+    @Override
+    public List<RegionMask> getPartitionMasks() {
+        long[] counts = counts();
+        List<RegionMask> masks = new ArrayList<>();
+        for (int bits = 0; bits < counts.length; bits++) {
+            if (counts[bits] > 0) masks.add(RegionMask.valueOf(bits));
+        }
+        return masks;
+    }
+
+    @Override
+    public Set<Object> getPartition(RegionMask mask) {
+        int region = regionBits(mask);
+        return region < 0 ? Collections.emptySet() : regions(bits -> bits == region);
+    }
+
+    @Override
+    public int getPartitionSize(RegionMask mask) {
+        int region = regionBits(mask);
+        return region < 0 ? 0 : (int) counts()[region];
+    }
+
+    @Override
+    public int getElementCount() {
+        return size;
+    }
+
+    @Override
+    public Set<Object> getIntersection(String... setNames) {
+        if (setNames.length == 0) return Collections.emptySet();
+        int all = setBits(setNames);
+        return regions(bits -> (bits & all) == all);
+    }
+
+    @Override
+    public Set<Object> getUnion(String... setNames) {
+        if (setNames.length == 0) return Collections.emptySet();
+        int any = setBits(setNames);
+        return regions(bits -> (bits & any) != 0);
+    }
+
+    @Override
+    public Set<Object> getDifference(String setA, String setB) {
+        int a = 1 << requireSet(setA);
+        int b = 1 << requireSet(setB);
+        return regions(bits -> (bits & a) != 0 && (bits & b) == 0);
+    }
+
+    @Override
+    public Set<Object> getComplement(String setName) {
+        int bit = 1 << requireSet(setName);
+        return regions(bits -> (bits & bit) == 0);
+    }
+
+    @Override
+    public Set<Object> getRegionsMatching(Predicate<RegionMask> predicate) {
+        boolean[] matching = matching(predicate);
+        return regions(bits -> matching[bits]);
+    }
+
+    @Override
+    public int countRegionsMatching(Predicate<RegionMask> predicate) {
+        boolean[] matching = matching(predicate);
+        long[] counts = counts();
+        long count = 0;
+        for (int bits = 0; bits < counts.length; bits++) {
+            if (matching[bits]) count += counts[bits];
+        }
+        return (int) count;
+    }
+
+    private boolean[] matching(Predicate<RegionMask> predicate) {
+        boolean[] matching = new boolean[1 << setNames.size()];
+        for (int bits = 0; bits < matching.length; bits++) matching[bits] = predicate.test(RegionMask.valueOf(bits));
+        return matching;
+    }
+
+    private Set<Object> regions(IntPredicate regions) {
+        boolean[] matching = new boolean[1 << setNames.size()];
+        for (int bits = 0; bits < matching.length; bits++) matching[bits] = regions.test(bits);
+        return new ScanSet(matching);
+    }
+
+    // -1 for masks naming sets this template does not have
+    private int regionBits(RegionMask mask) {
+        long[] words = mask.toLongArray();
+        if (words.length == 0) return 0;
+        return words.length == 1 && words[0] >>> setNames.size() == 0 ? (int) words[0] : -1;
+    }
+
+    private int requireSet(String setName) {
+        int index = setNames.indexOf(setName);
+        if (index == -1) throw new IllegalArgumentException("No set found with name: " + setName);
+        return index;
+    }
+
+    private int setBits(String... names) {
+        int bits = 0;
+        for (String setName : names) bits |= 1 << requireSet(setName);
+        return bits;
+    }
+
+    /**
+     * The outcomes in a union of regions. Its size comes from the region counts; iterating
+     * it decodes outcomes in rank order and stops after the last match. contains() encodes
+     * the element instead of searching.
+     */
+    private final class ScanSet extends AbstractSet<Object> {
+        private final boolean[] regions;
+        private final int size;
+
+        ScanSet(boolean[] regions) {
+            this.regions = regions;
+            long[] counts = counts();
+            long total = 0;
+            for (int bits = 0; bits < counts.length; bits++) {
+                if (regions[bits]) total += counts[bits];
+            }
+            this.size = (int) total;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            int[] state = new int[stateLength()];
+            return parse(o, state) && regions[mask(state)];
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            int[] state = new int[stateLength()];
+            return new Iterator<Object>() {
+                private int remaining = size;
+                private boolean started;
+
+                @Override
+                public boolean hasNext() {
+                    return remaining > 0;
+                }
+
+                @Override
+                public Object next() {
+                    if (remaining == 0) throw new NoSuchElementException();
+                    do {
+                        if (started) {
+                            advance(state);
+                        } else {
+                            unrank(0, state);
+                            started = true;
+                        }
+                    } while (!regions[mask(state)]);
+                    remaining--;
+                    return element(state);
+                }
+            };
+        }
+    }
+
+    // --- Templates ---
+
+    /**
+     * Every roll of n six-sided dice, ordered like the materialized template (the first die
+     * changes slowest). Region counts come from the distribution of the other dice's sum.
+     */
+    static final class Dice extends VirtualTemplate {
+        static final int MAX_DICE = 10; // 6^10 outcomes; 6^12 would not fit an int
+
+        private final int dice;
+
+        Dice(String templateName, int dice) {
+            super(templateName, dice + " Dice Rolls", "DICE_ROLL", pow6(dice), setNames(dice));
+            this.dice = dice;
+        }
+
+        private static int pow6(int dice) {
+            if (dice < 1 || dice > MAX_DICE) {
+                throw new IllegalArgumentException("Number of dice must be between 1 and " + MAX_DICE);
+            }
+            int size = 1;
+            for (int i = 0; i < dice; i++) size *= 6;
+            return size;
+        }
+
+        private static List<String> setNames(int dice) {
+            return dice >= 2 ? List.of("Sum is 7", "Doubles (All Same)", "Sum > 8", "First Die Even")
+                    : List.of("First Die Even");
+        }
+
+        private int mask(int sum, int first, boolean allSame) {
+            boolean firstEven = first % 2 == 0;
+            if (dice < 2) return firstEven ? 1 : 0;
+            return (sum == 7 ? 1 : 0) | (allSame ? 2 : 0) | (sum > 8 ? 4 : 0) | (firstEven ? 8 : 0);
+        }
+
+        @Override
+        long[] countRegions() {
+            // ways[s]: rolls of the other dice that sum to s
+            long[] ways = { 1 };
+            for (int i = 1; i < dice; i++) {
+                long[] next = new long[ways.length + 6];
+                for (int s = 0; s < ways.length; s++) {
+                    for (int face = 1; face <= 6; face++) next[s + face] += ways[s];
+                }
+                ways = next;
+            }
+            long[] counts = new long[1 << getSetNames().size()];
+            for (int first = 1; first <= 6; first++) {
+                for (int s = 0; s < ways.length; s++) counts[mask(first + s, first, false)] += ways[s];
+                // Exactly one of those rolls shows the first face on every die
+                counts[mask(dice * first, first, false)]--;
+                counts[mask(dice * first, first, true)]++;
+            }
+            return counts;
+        }
+
+        @Override
+        int stateLength() {
+            return dice;
+        }
+
+        @Override
+        void unrank(int rank, int[] state) {
+            for (int i = dice - 1; i >= 0; i--) {
+                state[i] = rank % 6 + 1;
+                rank /= 6;
+            }
+        }
+
+        @Override
+        void advance(int[] state) {
+            int i = dice - 1;
+            while (state[i] == 6) state[i--] = 1;
+            state[i]++;
+        }
+
+        @Override
+        int mask(int[] state) {
+            int sum = 0;
+            boolean allSame = true;
+            for (int face : state) {
+                sum += face;
+                allSame &= face == state[0];
+            }
+            return mask(sum, state[0], allSame);
+        }
+
+        @Override
+        Object element(int[] state) {
+            return DiceRoll.of(state);
+        }
+
+        @Override
+        boolean parse(Object element, int[] state) {
+            if (!(element instanceof DiceRoll roll) || roll.getCount() != dice) return false;
+            for (int i = 0; i < dice; i++) state[i] = roll.getDie(i);
+            return true;
+        }
+    }
+
+    /**
+     * Every k-card hand from a 52-card deck. A hand is its sorted card codes (rank c % 13
+     * of suit c / 13, see PlayingCard), ranked in the combinatorial number system.
+     */
+    static final class CardHands extends VirtualTemplate {
+        static final int MIN_CARDS = 2;
+        static final int MAX_CARDS = 6; // C(52, 6) is about 20 million hands
+        private static final int ACE = 12;
+        // BINOMIAL[n][k] = C(n, k)
+        private static final int[][] BINOMIAL = new int[53][MAX_CARDS + 1];
+
+        static {
+            for (int n = 0; n <= 52; n++) {
+                BINOMIAL[n][0] = 1;
+                for (int k = 1; k <= MAX_CARDS; k++) {
+                    BINOMIAL[n][k] = n == 0 ? 0 : BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+                }
+            }
+        }
+
+        private final int cards;
+        private final int run; // Rank bits of a straight starting at the lowest rank
+
+        CardHands(String templateName, int cards) {
+            super(templateName, cards + "-Card Hands", "CARD_HAND", handCount(cards),
+                    List.of("Flush", "Straight", "Has a Pair", "Has an Ace", "All Red"));
+            this.cards = cards;
+            this.run = (1 << cards) - 1;
+        }
+
+        private static int handCount(int cards) {
+            if (cards < MIN_CARDS || cards > MAX_CARDS) {
+                throw new IllegalArgumentException(
+                        "Number of cards must be between " + MIN_CARDS + " and " + MAX_CARDS);
+            }
+            return BINOMIAL[52][cards];
+        }
+
+        @Override
+        int stateLength() {
+            return cards;
+        }
+
+        @Override
+        void unrank(int rank, int[] state) {
+            int c = 52;
+            for (int i = cards - 1; i >= 0; i--) {
+                do c--; while (BINOMIAL[c][i + 1] > rank);
+                state[i] = c;
+                rank -= BINOMIAL[c][i + 1];
+            }
+        }
+
+        @Override
+        void advance(int[] state) {
+            int i = 0;
+            while (i < cards - 1 && state[i] + 1 == state[i + 1]) i++;
+            state[i]++;
+            for (int j = 0; j < i; j++) state[j] = j;
+        }
+
+        @Override
+        int mask(int[] state) {
+            int rankBits = 0;
+            int suitBits = 0;
+            for (int c : state) {
+                rankBits |= 1 << (c % 13);
+                suitBits |= 1 << (c / 13);
+            }
+            boolean distinct = Integer.bitCount(rankBits) == cards;
+            // The ace also plays low, below the two
+            int aceLow = ((rankBits << 1) | (rankBits >>> ACE)) & 0x1FFF;
+            boolean straight = distinct && (isRun(rankBits) || isRun(aceLow));
+            return (Integer.bitCount(suitBits) == 1 ? 1 : 0)
+                    | (straight ? 2 : 0)
+                    | (distinct ? 0 : 4)
+                    | ((rankBits & (1 << ACE)) != 0 ? 8 : 0)
+                    | ((suitBits & ~3) == 0 ? 16 : 0);
+        }
+
+        private boolean isRun(int rankBits) {
+            return rankBits >>> Integer.numberOfTrailingZeros(rankBits) == run;
+        }
+
+        @Override
+        Object element(int[] state) {
+            PlayingCard[] hand = new PlayingCard[cards];
+            for (int i = 0; i < cards; i++) hand[i] = PlayingCard.of(state[i]);
+            return new CardHand(Arrays.asList(hand));
+        }
+
+        @Override
+        boolean parse(Object element, int[] state) {
+            if (!(element instanceof CardHand hand) || hand.getCards().size() != cards) return false;
+            for (int i = 0; i < cards; i++) state[i] = hand.getCards().get(i).getCode();
+            Arrays.sort(state);
+            for (int i = 1; i < cards; i++) {
+                if (state[i] == state[i - 1]) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.venndiagramapi;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One entry of the write-ahead operation log: a workspace being created, or a batch of
+ * edits that was applied to it. Edits are logged as the raw strings the API received,
+ * so replaying them goes through exactly the same parsing and model code as the original.
+ *
+ * The first byte is the type, with the top bit set since strings are written by
+ * ElementCodec.writeString; records from before that hold writeUTF strings.
+ */
+final class WalRecord {
+
+    enum Type {
+        CREATE_BLANK, CREATE_TEMPLATE, BATCH
+    }
+
+    private static final int LENGTH_PREFIXED = 0x80;
+
+    final long lsn; // Log sequence number, assigned when the record is appended
+    final Type type;
+    final String diagramId;
+    final String name; // Diagram name (CREATE_BLANK) or template name (CREATE_TEMPLATE)
+    final String elementType;
+    final List<BatchOperation> operations;
+
+    private WalRecord(long lsn, Type type, String diagramId, String name, String elementType,
+            List<BatchOperation> operations) {
+        this.lsn = lsn;
+        this.type = type;
+        this.diagramId = diagramId;
+        this.name = name;
+        this.elementType = elementType;
+        this.operations = operations;
+    }
+
+    static WalRecord createBlank(String diagramId, String name, String elementType) {
+        return new WalRecord(0, Type.CREATE_BLANK, diagramId, name, elementType, List.of());
+    }
+
+    static WalRecord createTemplate(String diagramId, String templateName) {
+        return new WalRecord(0, Type.CREATE_TEMPLATE, diagramId, templateName, null, List.of());
+    }
+
+    static WalRecord batch(String diagramId, List<BatchOperation> operations) {
+        return new WalRecord(0, Type.BATCH, diagramId, null, null, operations);
+    }
+
+    /**
+     * The same record with the given LSN, for records rebuilt from something other than the log.
+     */
+    WalRecord withLsn(long lsn) {
+        return new WalRecord(lsn, type, diagramId, name, elementType, operations);
+    }
+
+    /**
+     * Encodes everything except the LSN, which the log adds to the frame header.
+     */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(LENGTH_PREFIXED | type.ordinal());
+            ElementCodec.writeString(out, diagramId);
+            ElementCodec.writeNullableString(out, name);
+            ElementCodec.writeNullableString(out, elementType);
+            out.writeInt(operations.size());
+            for (BatchOperation op : operations) {
+                out.writeByte(op.op.ordinal());
+                ElementCodec.writeNullableString(out, op.name);
+                ElementCodec.writeNullableString(out, op.newName);
+                writeStrings(out, op.sets);
+                writeStrings(out, op.elements);
+                if (op.op == BatchOperation.Type.DEFINE_RULE_SET) ElementCodec.writeString(out, op.rule);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cannot happen with an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    static WalRecord decode(long lsn, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int first = in.readUnsignedByte();
+        boolean legacy = (first & LENGTH_PREFIXED) == 0;
+        Type type = Type.values()[first & ~LENGTH_PREFIXED];
+        String diagramId = ElementCodec.readString(in, legacy);
+        String name = ElementCodec.readNullableString(in, legacy);
+        String elementType = ElementCodec.readNullableString(in, legacy);
+        int count = in.readInt();
+        List<BatchOperation> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BatchOperation.Type op = BatchOperation.Type.values()[in.readUnsignedByte()];
+            String opName = ElementCodec.readNullableString(in, legacy);
+            String newName = ElementCodec.readNullableString(in, legacy);
+            BatchOperation operation = new BatchOperation(op, opName, newName,
+                    readStrings(in, legacy), readStrings(in, legacy));
+            if (op == BatchOperation.Type.DEFINE_RULE_SET) operation.rule = ElementCodec.readString(in, legacy);
+            operations.add(operation);
+        }
+        return new WalRecord(lsn, type, diagramId, name, elementType, operations);
+    }
+
+    private static void writeStrings(DataOutput out, Set<String> values) throws IOException {
+        out.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (String value : values) ElementCodec.writeString(out, value);
+        }
+    }
+
+    private static Set<String> readStrings(DataInput in, boolean legacy) throws IOException {
+        int size = in.readInt();
+        if (size < 0) return null;
+        Set<String> values = new LinkedHashSet<>(size * 2);
+        for (int i = 0; i < size; i++) values.add(ElementCodec.readString(in, legacy));
+        return values;
+    }
+}
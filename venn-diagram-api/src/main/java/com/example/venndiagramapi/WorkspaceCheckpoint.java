@@ -0,0 +1,31 @@
+package com.example.venndiagramapi;
+
+/**
+ * A workspace's full state at one point: its metadata, a model snapshot, and the LSN of
+ * the last logged operation the snapshot includes. Recovery loads the checkpoint and then
+ * replays only log records with a higher LSN. Stored on disk as a {@link WorkspaceFile}.
+ */
+final class WorkspaceCheckpoint {
+
+    final String diagramId;
+    final String name;
+    final String elementType;
+    final long lsn;
+    final ModelSnapshot<Object> snapshot;
+
+    WorkspaceCheckpoint(String diagramId, String name, String elementType, long lsn, ModelSnapshot<Object> snapshot) {
+        this.diagramId = diagramId;
+        this.name = name;
+        this.elementType = elementType;
+        this.lsn = lsn;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Captures the workspace's snapshot together with the LSN it includes, under one read lock.
+     */
+    static WorkspaceCheckpoint of(DiagramWorkspace workspace) {
+        return workspace.read(() -> new WorkspaceCheckpoint(workspace.getDiagramId(), workspace.getName(),
+                workspace.getElementType(), workspace.getLastLsn(), workspace.snapshot()));
+    }
+}
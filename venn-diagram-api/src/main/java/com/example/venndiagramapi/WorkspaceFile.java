@@ -0,0 +1,429 @@
+package com.example.venndiagramapi;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The binary on-disk format of a workspace, used for checkpoints and for export/import.
+ *
+ * <pre>
+ * [magic][format version]
+ * metadata     diagramId, name, elementType, lsn, elementCount, set names,
+ *              rule-defined set names with their rule text (since version 2)
+ * dictionary   one ElementCodec entry per element id (null for free ids)
+ * bitmaps      portable Roaring serialization: each set, universe, all elements, each region
+ * tables       dictionary offsets, bitmap offsets, region masks
+ * trailer      offsets of the sections above, then [format version][magic]
+ * </pre>
+ *
+ * Strings are written as ElementCodec writes them; files before version 3 used writeUTF.
+ *
+ * Everything that locates data sits in the fixed-size trailer, so the file can be written
+ * to a plain stream in one pass (an export goes straight into the HTTP response). A reader
+ * maps the file with {@link FileChannel#map}, in segments because one mapping stops at
+ * 2 GB, and reaches any set, region or element through the tables without reading the
+ * rest; bitmaps are used in place as {@link ImmutableRoaringBitmap}s over the mapping.
+ * All offsets are longs. Every count in the file is checked against the bytes it claims
+ * before anything is allocated for it, since the file may be an upload.
+ */
+final class WorkspaceFile implements Closeable {
+
+    private static final int MAGIC = 0x564E5753; // "VNWS"
+    private static final int FORMAT_VERSION = 3;
+    private static final int OLDEST_FORMAT_VERSION = 1; // Without rules
+    private static final int LENGTH_PREFIXED_SINCE = 3;
+    private static final int TRAILER_BYTES = 8 * 5 + 4 * 3 + 4 + 4;
+    // The file is mapped in segments of this size; a bitmap that straddles two is mapped on its own
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+
+    private final FileChannel channel;
+    private final long size;
+    private final MappedByteBuffer[] segments;
+    private final boolean legacyStrings;
+    private final String diagramId;
+    private final String name;
+    private final String elementType;
+    private final long lsn;
+    private final int elementCount;
+    private final List<String> setNames;
+    private final Map<String, SetRule> rules;
+    private final long dictionaryStart;
+    private final long dictionaryEnd;
+    private final long dictionaryTable;
+    private final int dictionarySize;
+    private final long bitmapTable;
+    private final List<RegionMask> masks;
+
+    private WorkspaceFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        if (size < 8 + TRAILER_BYTES) throw new IOException("Not a workspace file (too short)");
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long position = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_BYTES, size - position));
+        }
+        long trailer = size - TRAILER_BYTES;
+        if (getInt(0) != MAGIC || getInt(size - 4) != MAGIC) throw new IOException("Not a workspace file");
+        int formatVersion = getInt(size - 8);
+        if (formatVersion < OLDEST_FORMAT_VERSION || formatVersion > FORMAT_VERSION) {
+            throw new IOException("Unsupported workspace file version: " + formatVersion);
+        }
+        legacyStrings = formatVersion < LENGTH_PREFIXED_SINCE;
+        long metadataStart = getLong(trailer);
+        dictionaryStart = getLong(trailer + 8);
+        dictionaryTable = getLong(trailer + 16);
+        bitmapTable = getLong(trailer + 24);
+        long maskTable = getLong(trailer + 32);
+        dictionarySize = getInt(trailer + 40);
+        int bitmapCount = getInt(trailer + 44);
+        int regionCount = getInt(trailer + 48);
+
+        // Sections are written in this order, so anything else is a corrupt or forged file
+        check(8 <= metadataStart && metadataStart <= dictionaryStart && dictionaryStart <= dictionaryTable
+                && dictionaryTable <= bitmapTable && bitmapTable <= maskTable && maskTable <= trailer, "section offsets");
+        check(dictionarySize >= 0 && bitmapTable - dictionaryTable == 8L * dictionarySize + 8, "dictionary size");
+        check(bitmapCount >= 0 && maskTable - bitmapTable == 8L * bitmapCount + 8, "bitmap count");
+        // Every entry takes at least a tag byte, and the bitmaps follow the dictionary
+        dictionaryEnd = dictionaryStart + getLong(dictionaryTable + 8L * dictionarySize);
+        check(dictionaryEnd - dictionaryStart >= dictionarySize && dictionaryEnd <= getLong(bitmapTable)
+                && getLong(bitmapTable + 8L * bitmapCount) <= dictionaryTable, "dictionary offsets");
+
+        Input metadata = new Input(metadataStart, dictionaryStart);
+        diagramId = ElementCodec.readString(metadata, legacyStrings);
+        name = ElementCodec.readString(metadata, legacyStrings);
+        elementType = ElementCodec.readString(metadata, legacyStrings);
+        lsn = metadata.readLong();
+        elementCount = metadata.readInt();
+        check(elementCount >= 0 && elementCount <= dictionarySize, "element count");
+        int setCount = metadata.readInt();
+        // A name takes at least its two- or four-byte length
+        check(setCount >= 0 && setCount <= metadata.remaining() / 2, "set count");
+        check(bitmapCount == setCount + 2L + regionCount, "bitmap table");
+        setNames = new ArrayList<>(setCount);
+        for (int i = 0; i < setCount; i++) setNames.add(ElementCodec.readString(metadata, legacyStrings));
+        rules = new LinkedHashMap<>();
+        if (formatVersion >= 2) {
+            int ruleCount = metadata.readInt();
+            check(ruleCount >= 0 && ruleCount <= setCount, "rule count");
+            for (int i = 0; i < ruleCount; i++) {
+                String setName = ElementCodec.readString(metadata, legacyStrings);
+                String rule = ElementCodec.readString(metadata, legacyStrings);
+                try {
+                    rules.put(setName, SetRule.parse(rule));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupt workspace file (rule for '" + setName + "')", e);
+                }
+            }
+        }
+
+        Input maskInput = new Input(maskTable, trailer);
+        check(regionCount >= 0 && regionCount <= maskInput.remaining() / 4, "region count");
+        masks = new ArrayList<>(regionCount);
+        for (int i = 0; i < regionCount; i++) {
+            int words = maskInput.readInt();
+            check(words >= 0 && words <= maskInput.remaining() / 8, "region mask");
+            long[] mask = new long[words];
+            for (int w = 0; w < words; w++) mask[w] = maskInput.readLong();
+            RegionMask regionMask = RegionMask.fromWords(mask);
+            check(regionMask.nextSetBit(setCount) < 0, "region mask");
+            masks.add(regionMask);
+        }
+    }
+
+    /**
+     * Maps a workspace file. Only the trailer, metadata and tables are read up front.
+     */
+    static WorkspaceFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new WorkspaceFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    String diagramId() {
+        return diagramId;
+    }
+
+    String name() {
+        return name;
+    }
+
+    String elementType() {
+        return elementType;
+    }
+
+    long lsn() {
+        return lsn;
+    }
+
+    int elementCount() {
+        return elementCount;
+    }
+
+    List<String> setNames() {
+        return setNames;
+    }
+
+    Map<String, SetRule> rules() {
+        return rules;
+    }
+
+    int dictionarySize() {
+        return dictionarySize;
+    }
+
+    int regionCount() {
+        return masks.size();
+    }
+
+    RegionMask regionMask(int index) {
+        return masks.get(index);
+    }
+
+    /**
+     * Decodes a single element by id, without touching the rest of the dictionary.
+     */
+    Object element(int id) throws IOException {
+        Objects.checkIndex(id, dictionarySize);
+        long start = dictionaryStart + getLong(dictionaryTable + 8L * id);
+        long end = dictionaryStart + getLong(dictionaryTable + 8L * id + 8);
+        check(dictionaryStart <= start && start <= end && end <= dictionaryEnd, "dictionary offsets");
+        return readElement(new Input(start, end));
+    }
+
+    /**
+     * Decodes the whole dictionary in id order, in one pass over the mapping.
+     */
+    Elements elements() {
+        return new Elements();
+    }
+
+    final class Elements {
+        private final Input in = new Input(dictionaryStart, dictionaryEnd);
+
+        Object next() throws IOException {
+            return readElement(in);
+        }
+    }
+
+    ImmutableRoaringBitmap set(int index) throws IOException {
+        return bitmap(Objects.checkIndex(index, setNames.size()));
+    }
+
+    ImmutableRoaringBitmap universalSet() throws IOException {
+        return bitmap(setNames.size());
+    }
+
+    ImmutableRoaringBitmap allElements() throws IOException {
+        return bitmap(setNames.size() + 1);
+    }
+
+    ImmutableRoaringBitmap regionMembers(int index) throws IOException {
+        return bitmap(setNames.size() + 2 + Objects.checkIndex(index, masks.size()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Object readElement(DataInput in) throws IOException {
+        return legacyStrings ? ElementCodec.readLegacy(in) : ElementCodec.read(in);
+    }
+
+    private ImmutableRoaringBitmap bitmap(int index) throws IOException {
+        long start = getLong(bitmapTable + 8L * index);
+        long end = getLong(bitmapTable + 8L * index + 8);
+        check(dictionaryEnd <= start && start <= end && end <= dictionaryTable, "bitmap offsets");
+        ImmutableRoaringBitmap bitmap = new ImmutableRoaringBitmap(slice(start, end - start));
+        // Ids index the dictionary, so one past its end would fail only much later
+        check(bitmap.isEmpty() || Integer.toUnsignedLong(bitmap.last()) < dictionarySize, "bitmap ids");
+        return bitmap;
+    }
+
+    /**
+     * The bytes [position, position + length) as one buffer: a view of their segment, or a
+     * mapping of their own when they straddle two.
+     */
+    private ByteBuffer slice(long position, long length) throws IOException {
+        int segment = (int) (position >>> SEGMENT_SHIFT);
+        long offset = position & (SEGMENT_BYTES - 1);
+        if (offset + length <= SEGMENT_BYTES) return segments[segment].slice((int) offset, (int) length);
+        check(length <= Integer.MAX_VALUE, "bitmap larger than 2 GB");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    private byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & (SEGMENT_BYTES - 1)));
+    }
+
+    private int getInt(long position) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) value = value << 8 | get(position + i) & 0xFF;
+        return value;
+    }
+
+    private long getLong(long position) {
+        check(position >= 0 && position <= size - 8, "offset " + position);
+        return (long) getInt(position) << 32 | getInt(position + 4) & 0xFFFFFFFFL;
+    }
+
+    private static void check(boolean valid, String what) {
+        if (!valid) throw new IllegalArgumentException("Corrupt workspace file (" + what + ")");
+    }
+
+    /**
+     * Big-endian reads of [position, end), across segment boundaries. Reading past the end
+     * throws EOFException, so a section can never be read beyond its own bytes.
+     */
+    private final class Input extends DataInputStream {
+        Input(long position, long end) {
+            super(new SegmentStream(position, end));
+        }
+
+        long remaining() {
+            return ((SegmentStream) in).end - ((SegmentStream) in).position;
+        }
+    }
+
+    private final class SegmentStream extends InputStream {
+        private long position;
+        private final long end;
+
+        SegmentStream(long position, long end) {
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() {
+            return position < end ? get(position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (position >= end) return -1;
+            int offset = (int) (position & (SEGMENT_BYTES - 1));
+            int n = (int) Math.min(Math.min(len, end - position), SEGMENT_BYTES - offset);
+            segments[(int) (position >>> SEGMENT_SHIFT)].get(offset, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+
+    // --- Writing ---
+
+    /**
+     * Writes a checkpoint in this format, in a single pass over {@code out}.
+     */
+    static void write(WorkspaceCheckpoint checkpoint, OutputStream out) throws IOException {
+        ModelSnapshot<Object> snapshot = checkpoint.snapshot;
+        CountingOutputStream counter = new CountingOutputStream(out);
+        DataOutputStream data = new DataOutputStream(counter);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+
+        long metadataStart = counter.position();
+        List<String> setNames = snapshot.getSetNames();
+        ElementCodec.writeString(data, checkpoint.diagramId);
+        ElementCodec.writeString(data, checkpoint.name);
+        ElementCodec.writeString(data, checkpoint.elementType);
+        data.writeLong(checkpoint.lsn);
+        data.writeInt(snapshot.getElementCount());
+        data.writeInt(setNames.size());
+        for (String setName : setNames) ElementCodec.writeString(data, setName);
+        data.writeInt(snapshot.getRules().size());
+        for (Map.Entry<String, SetRule> rule : snapshot.getRules().entrySet()) {
+            ElementCodec.writeString(data, rule.getKey());
+            ElementCodec.writeString(data, rule.getValue().toString());
+        }
+
+        long dictionaryStart = counter.position();
+        ElementArray elements = snapshot.elementsById();
+        int dictionarySize = elements.size();
+        long[] dictionaryOffsets = new long[dictionarySize + 1];
+        for (int id = 0; id < dictionarySize; id++) {
+            dictionaryOffsets[id] = counter.position() - dictionaryStart;
+            ElementCodec.write(data, elements.get(id));
+        }
+        dictionaryOffsets[dictionarySize] = counter.position() - dictionaryStart;
+
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+        for (String setName : setNames) bitmaps.add(snapshot.sets().get(setName));
+        bitmaps.add(snapshot.universalSet());
+        bitmaps.add(snapshot.allElements());
+        List<RegionMask> masks = snapshot.getPartitionMasks();
+        for (int i = 0; i < masks.size(); i++) bitmaps.add(snapshot.regionMembers(i));
+        long[] bitmapOffsets = new long[bitmaps.size() + 1];
+        for (int i = 0; i < bitmaps.size(); i++) {
+            bitmapOffsets[i] = counter.position();
+            bitmaps.get(i).serialize(data);
+        }
+        bitmapOffsets[bitmaps.size()] = counter.position();
+
+        long dictionaryTable = counter.position();
+        for (long offset : dictionaryOffsets) data.writeLong(offset);
+        long bitmapTable = counter.position();
+        for (long offset : bitmapOffsets) data.writeLong(offset);
+        long maskTable = counter.position();
+        for (RegionMask mask : masks) {
+            long[] words = mask.toLongArray();
+            data.writeInt(words.length);
+            for (long word : words) data.writeLong(word);
+        }
+
+        data.writeLong(metadataStart);
+        data.writeLong(dictionaryStart);
+        data.writeLong(dictionaryTable);
+        data.writeLong(bitmapTable);
+        data.writeLong(maskTable);
+        data.writeInt(dictionarySize);
+        data.writeInt(bitmaps.size());
+        data.writeInt(masks.size());
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(MAGIC);
+        data.flush();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long position;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long position() {
+            return position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+    }
+}
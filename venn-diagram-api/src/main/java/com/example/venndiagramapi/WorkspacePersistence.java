@@ -0,0 +1,316 @@
+package com.example.venndiagramapi;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Keeps workspaces across restarts without an external database.
+ *
+ * Every successful write is appended to an {@link OperationLog} while the workspace's
+ * write lock is still held, and a background task periodically writes each changed
+ * workspace to its own checkpoint file. On startup the checkpoints are loaded and only
+ * the log tail after them is replayed, so recovery time is bounded by the checkpoint
+ * interval rather than by the age of the data.
+ *
+ * By default writes do not wait for the disk: the log writer fsyncs in groups, and at
+ * most the last group can be lost in a crash. Set venn.persistence.sync-commit=true to
+ * make each write wait for its group's fsync instead.
+ *
+ * A generated template (see VirtualTemplate) has nothing to store but its name, so its
+ * checkpoint is a small ".template" file that recovery turns back into the log record
+ * that created it.
+ */
+@Component
+public class WorkspacePersistence {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkspacePersistence.class);
+
+    private static final String CHECKPOINT_SUFFIX = ".vnws";
+    private static final String TEMPLATE_SUFFIX = ".template";
+
+    private final boolean enabled;
+    private final Path logDir;
+    private final Path checkpointDir;
+    private final boolean syncCommit;
+    private final long checkpointIntervalSeconds;
+    private final OperationLog operationLog;
+    // LSN each checkpoint file loaded at startup covers
+    private final Map<String, Long> checkpointedLsn = new ConcurrentHashMap<>();
+    // Workspace version each checkpoint file holds in this run, to skip unchanged workspaces
+    private final Map<String, Long> checkpointedVersion = new ConcurrentHashMap<>();
+    // Serializes checkpoint rounds (scheduled and at shutdown)
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    // Guards replacing checkpoint files; innermost, never held while waiting for a workspace lock
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private ScheduledExecutorService scheduler;
+    private Supplier<Collection<DiagramWorkspace>> workspaces;
+
+    public WorkspacePersistence(
+            @Value("${venn.persistence.enabled:true}") boolean enabled,
+            @Value("${venn.persistence.dir:data}") String dir,
+            @Value("${venn.persistence.fsync:true}") boolean fsync,
+            @Value("${venn.persistence.sync-commit:false}") boolean syncCommit,
+            @Value("${venn.persistence.checkpoint-interval-seconds:60}") long checkpointIntervalSeconds) {
+        this.enabled = enabled;
+        this.logDir = Paths.get(dir, "log");
+        this.checkpointDir = Paths.get(dir, "checkpoints");
+        this.syncCommit = syncCommit;
+        this.checkpointIntervalSeconds = checkpointIntervalSeconds;
+        this.operationLog = new OperationLog(logDir, fsync);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Loads every checkpoint, then replays the log records that are newer than them, and
+     * finally opens the log for appending. Must run before any write is logged.
+     */
+    public void recover(Consumer<WorkspaceFile> onCheckpoint, Consumer<WalRecord> onRecord) {
+        if (!enabled) return;
+        try {
+            long maxLsn = 0;
+            for (Path file : checkpointFiles(CHECKPOINT_SUFFIX)) {
+                try (WorkspaceFile checkpoint = WorkspaceFile.open(file)) {
+                    onCheckpoint.accept(checkpoint);
+                    checkpointedLsn.put(checkpoint.diagramId(), checkpoint.lsn());
+                    maxLsn = Math.max(maxLsn, checkpoint.lsn());
+                }
+            }
+            for (Path file : checkpointFiles(TEMPLATE_SUFFIX)) {
+                String fileName = file.getFileName().toString();
+                String diagramId = fileName.substring(0, fileName.length() - TEMPLATE_SUFFIX.length());
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    String templateName = in.readUTF();
+                    long lsn = in.readLong();
+                    onRecord.accept(WalRecord.createTemplate(diagramId, templateName).withLsn(lsn));
+                    checkpointedLsn.put(diagramId, lsn);
+                    maxLsn = Math.max(maxLsn, lsn);
+                }
+            }
+            maxLsn = Math.max(maxLsn, operationLog.replay(onRecord));
+            operationLog.open(maxLsn + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not recover workspaces from " + logDir.getParent(), e);
+        }
+    }
+
+    /**
+     * Starts periodic checkpoints of the given workspaces.
+     */
+    public void start(Supplier<Collection<DiagramWorkspace>> workspaces) {
+        if (!enabled) return;
+        this.workspaces = workspaces;
+        // Workspaces with no log tail on top of their checkpoint need no new one
+        for (DiagramWorkspace workspace : workspaces.get()) {
+            Long covered = checkpointedLsn.get(workspace.getDiagramId());
+            if (covered != null && covered == workspace.getLastLsn()) {
+                checkpointedVersion.put(workspace.getDiagramId(), workspace.getVersion());
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "venn-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly,
+                checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // --- Logging (call while holding the workspace's write lock) ---
+
+    public long logCreateBlank(String diagramId, String name, String elementType) {
+        return append(WalRecord.createBlank(diagramId, name, elementType));
+    }
+
+    public long logCreateTemplate(String diagramId, String templateName) {
+        return append(WalRecord.createTemplate(diagramId, templateName));
+    }
+
+    /**
+     * Encodes a batch ahead of the write that applies it, so a record that cannot be
+     * logged fails before the model is touched. Null when persistence is off.
+     */
+    public byte[] encodeBatch(String diagramId, List<BatchOperation> operations) {
+        return enabled ? WalRecord.batch(diagramId, operations).encode() : null;
+    }
+
+    /**
+     * Logs a batch encoded by encodeBatch.
+     */
+    public long logBatch(byte[] record) {
+        return enabled ? operationLog.append(record) : 0;
+    }
+
+    /**
+     * Fails if edits can no longer be logged (the log writer stopped after an I/O error),
+     * so a write can be refused before it is applied.
+     */
+    public void requireWritable() {
+        if (enabled && operationLog.isClosed()) throw new IllegalStateException("Operation log is closed");
+    }
+
+    private long append(WalRecord record) {
+        return enabled ? operationLog.append(record) : 0;
+    }
+
+    /**
+     * With sync-commit on, waits until the record with this LSN is on disk. Call after
+     * releasing the write lock, so other writers can join the same fsync group.
+     */
+    public void awaitDurable(long lsn) {
+        if (!enabled || !syncCommit) return;
+        try {
+            operationLog.awaitDurable(lsn);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- Checkpoints ---
+
+    /**
+     * Writes a checkpoint for every workspace that changed since its last one, then drops
+     * the log segments all of them now cover.
+     */
+    public void checkpoint() throws IOException {
+        if (!enabled || workspaces == null) return;
+        checkpointLock.lock();
+        try {
+            // Everything logged before the rotation is captured by the checkpoints below
+            long firstUncovered = operationLog.rotate();
+            Files.createDirectories(checkpointDir);
+            for (DiagramWorkspace workspace : workspaces.get()) {
+                if (!changedSinceCheckpoint(workspace)) continue;
+                if (workspace.isVirtual()) {
+                    writeTemplateCheckpoint(workspace);
+                } else {
+                    writeCheckpoint(WorkspaceCheckpoint.of(workspace));
+                }
+            }
+            operationLog.deleteSegmentsBefore(firstUncovered);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Checkpoints one workspace right away, e.g. after an import that was not logged.
+     */
+    public void checkpoint(DiagramWorkspace workspace) throws IOException {
+        checkpoint(WorkspaceCheckpoint.of(workspace));
+    }
+
+    /**
+     * Writes an already captured checkpoint. Safe to call while holding the workspace's
+     * write lock, which lets a bulk load be checkpointed before anyone else can log an
+     * edit on top of it.
+     */
+    public void checkpoint(WorkspaceCheckpoint checkpoint) throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(checkpointDir);
+        writeCheckpoint(checkpoint);
+    }
+
+    private boolean changedSinceCheckpoint(DiagramWorkspace workspace) {
+        Long written = checkpointedVersion.get(workspace.getDiagramId());
+        return written == null || written != workspace.getVersion();
+    }
+
+    private void writeCheckpoint(WorkspaceCheckpoint checkpoint) throws IOException {
+        String diagramId = checkpoint.diagramId;
+        long version = checkpoint.snapshot.getVersion();
+        Path temp = Files.createTempFile(checkpointDir, diagramId, ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                    BufferedOutputStream out = new BufferedOutputStream(file, 1 << 16)) {
+                WorkspaceFile.write(checkpoint, out);
+                file.getChannel().force(true);
+            }
+            fileLock.lock();
+            try {
+                // A scheduled round and a forced checkpoint can race; the newer version wins
+                Long written = checkpointedVersion.get(diagramId);
+                if (written != null && written > version) return;
+                Files.move(temp, checkpointDir.resolve(diagramId + CHECKPOINT_SUFFIX),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                checkpointedVersion.put(diagramId, version);
+            } finally {
+                fileLock.unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void writeTemplateCheckpoint(DiagramWorkspace workspace) throws IOException {
+        String diagramId = workspace.getDiagramId();
+        // The LSN and version as of the same write
+        long[] state = workspace.read(() -> new long[] { workspace.getLastLsn(), workspace.getVersion() });
+        Path temp = Files.createTempFile(checkpointDir, diagramId, ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                    DataOutputStream out = new DataOutputStream(file)) {
+                out.writeUTF(workspace.getTemplate().getTemplateName());
+                out.writeLong(state[0]);
+                file.getChannel().force(true);
+            }
+            fileLock.lock();
+            try {
+                Files.move(temp, checkpointDir.resolve(diagramId + TEMPLATE_SUFFIX),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                checkpointedVersion.put(diagramId, state[1]);
+            } finally {
+                fileLock.unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            log.error("Checkpoint failed; the operation log keeps growing until one succeeds", e);
+        }
+    }
+
+    private List<Path> checkpointFiles(String suffix) throws IOException {
+        if (!Files.isDirectory(checkpointDir)) return List.of();
+        try (Stream<Path> files = Files.list(checkpointDir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(suffix)).toList();
+        }
+    }
+
+    /**
+     * Takes a final checkpoint so the next start has nothing to replay, then closes the log.
+     */
+    @PreDestroy
+    public void close() {
+        if (!enabled) return;
+        if (scheduler != null) scheduler.shutdownNow();
+        checkpointQuietly();
+        operationLog.close();
+    }
+}
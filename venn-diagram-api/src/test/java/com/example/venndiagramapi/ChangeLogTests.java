@@ -0,0 +1,66 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeLogTests {
+
+    private final DiagramManagerService service = new DiagramManagerService(new ObjectMapper(),
+            new WorkspacePersistence(false, "target/unused", false, false, 60));
+
+    @Test
+    void changesCarryTheOperationsAndTheRegionsTheyTouched() {
+        String id = service.createBlankWorkspace("Numbers", "NUMBER").getDiagramId();
+        service.addSet(id, "A");
+        service.addSet(id, "B");
+        long since = service.getWorkspace(id).getVersion();
+
+        service.setElementMembershipForSet(id, "A", Set.of("1", "2"));
+        service.updateElementMembership(id, "2", Set.of("A", "B"));
+        service.renameSet(id, "B", "Beta");
+        ChangeLog.ChangeSet changes = service.getChangesSince(id, since);
+        assertFalse(changes.reset);
+        assertEquals(since + 3, changes.version);
+        assertEquals(3, changes.changes.size());
+        assertEquals(Map.of("1", 2), changes.changes.get(0).regions);
+        assertEquals(Map.of("1", 1, "3", 1), changes.changes.get(1).regions);
+        assertEquals(BatchOperation.Type.RENAME_SET, changes.changes.get(2).operations.get(0).op);
+        assertEquals(Map.of(), changes.changes.get(2).regions);
+
+        // A failed edit leaves no gap in the versions
+        assertThrows(IllegalArgumentException.class, () -> service.addSet(id, "Beta"));
+        assertEquals(changes.version, service.getWorkspace(id).getVersion());
+
+        // Removing a set shifts every mask, so the change lists all regions
+        service.removeSet(id, "A");
+        ChangeLog.Change removed = service.getChangesSince(id, changes.version).changes.get(0);
+        assertTrue(removed.regionsReplaced);
+        assertEquals(1, removed.regions.get("1"));
+        assertTrue(service.getChangesSince(id, changes.version + 1).changes.isEmpty());
+    }
+
+    @Test
+    void clientsThatCannotCatchUpAreToldToResync() throws IOException {
+        String id = service.createBlankWorkspace("Letters", "STRING").getDiagramId();
+        long start = service.getWorkspace(id).getVersion();
+        assertTrue(service.getChangesSince(id, start + 5).reset); // From another run
+
+        service.importMemberships(id, "text/csv", new ByteArrayInputStream("a,A\n".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(service.getChangesSince(id, start).changes.get(0).reset);
+
+        for (int i = 0; i <= ChangeLog.MAX_ENTRIES; i++) service.addSet(id, "S" + i);
+        assertTrue(service.getChangesSince(id, start).reset);
+        long recent = service.getWorkspace(id).getVersion() - 1;
+        assertEquals(List.of("S" + ChangeLog.MAX_ENTRIES),
+                List.of(service.getChangesSince(id, recent).changes.get(0).operations.get(0).name));
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NumericIndexTests {
+
+    private static NumericIndex.Range range(String text) {
+        return NumericIndex.Range.parse(text);
+    }
+
+    @Test
+    void followsTheModelThroughEditsAndRestores() {
+        VennDiagramModel<Object> model = new VennDiagramModel<>();
+        model.addSet("Low", new HashSet<>(List.of(3.0, 1.0, 2.0)));
+        model.addSet("High", new HashSet<>(List.of(30.0, 10.0, 20.0)));
+        model.updateElementMembership(-0.0, Set.of());
+        model.updateElementMembership(Double.NaN, Set.of());
+        model.removeElement(2.0);
+        model.renameElement(30.0, 15.0);
+        ModelSnapshot<Object> before = model.snapshot(1);
+        assertEquals(List.of(-0.0, 1.0, 3.0, 10.0, 15.0, 20.0, Double.NaN), before.getSortedElements(0, 100));
+        assertEquals(List.of(3.0, 10.0), before.getSortedElements(2, 2));
+
+        // A failed batch rolls back through restore, which rebuilds the index
+        model.updateElementMembership(12.0, Set.of("High"));
+        model.restore(before);
+        assertEquals(before.getSortedElements(0, 100), model.snapshot(2).getSortedElements(0, 100));
+
+        VennDiagramModel<Object>.BulkLoad load = model.bulkLoad();
+        for (int i = 100; i > 50; i--) load.add((double) i, List.of("High"));
+        load.finish();
+        ModelSnapshot<Object> after = model.snapshot(3);
+        assertEquals(57, after.getSortedElements(0, 100).size());
+        assertEquals(List.of(100.0, 99.0, 98.0), after.getTopElements(3, true));
+        assertEquals(List.of(-0.0, 1.0), after.getTopElements(2, false));
+    }
+
+    @Test
+    void keepsDeletesAsTombstonesUntilTheNextMerge() {
+        NumericIndex index = new NumericIndex();
+        for (int id = 0; id < 10; id++) index.add(id, id * 10.0);
+        index.copy();
+        index.remove(3, 30.0);
+        index.remove(7, 70.0);
+        index.add(3, 30.0); // A released id reused for the same value
+        index.add(10, 5.0);
+        index.remove(10, 5.0); // Never sorted in
+        index.remove(3, 30.0);
+        index.add(11, 70.0);
+
+        NumericIndex copy = index.copy();
+        assertArrayEquals(new int[] { 0, 1, 2, 4, 5, 6, 11, 8, 9 }, copy.ids(0, copy.size()));
+        assertEquals(11, copy.id(6));
+        assertArrayEquals(new int[] { 6, 11, 8 }, copy.ids(5, 8));
+    }
+
+    @Test
+    void copiesAnswerLikeASortedListThroughManyEdits() {
+        NumericIndex index = new NumericIndex();
+        TreeMap<Double, Integer> expected = new TreeMap<>(Double::compare);
+        Random random = new Random(11);
+        int nextId = 0;
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < 300; i++) {
+                double value = random.nextInt(5000) - 100;
+                if (random.nextInt(3) > 0 && !expected.containsKey(value)) {
+                    expected.put(value, nextId);
+                    index.add(nextId++, value);
+                } else if (expected.containsKey(value)) {
+                    index.remove(expected.remove(value), value);
+                }
+            }
+            NumericIndex copy = index.copy();
+            int[] ids = copy.ids(0, copy.size());
+            assertArrayEquals(expected.values().stream().mapToInt(Integer::intValue).toArray(), ids, "round " + round);
+            for (int from = 0; from < ids.length; from += 97) {
+                assertArrayEquals(Arrays.copyOfRange(ids, from, Math.min(from + 5, ids.length)),
+                        copy.ids(from, Math.min(from + 5, ids.length)));
+            }
+            NumericIndex.Range range = range("[1000, 2500)");
+            assertEquals(expected.subMap(1000.0, 2500.0).size(), copy.end(range) - copy.start(range));
+        }
+    }
+
+    @Test
+    void answersRangesLikeTheEquivalentRule() {
+        VennDiagramModel<Object> model = new VennDiagramModel<>();
+        Set<Object> values = new HashSet<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) values.add((double) random.nextInt(200) - 50);
+        values.add(-0.0);
+        model.setUniversalSet(values);
+        model.addSet("Even", new HashSet<>(model.getUniversalSet().stream().filter(v -> (Double) v % 2 == 0).toList()));
+        ModelSnapshot<Object> snapshot = model.snapshot(1);
+
+        String[][] cases = { { "[10, 50)", "value >= 10 and value < 50" }, { "(0, 0]", "value > 0 and value <= 0" },
+                { "[0, 0]", "value = 0" }, { "(, -20]", "value <= -20" }, { "(140, )", "value > 140" } };
+        for (String[] c : cases) {
+            Set<Object> expected = model.getRegionsMatching(mask -> true).stream()
+                    .filter(v -> SetRule.parse(c[1]).select(new Object[] { v }).contains(0))
+                    .collect(Collectors.toSet());
+            List<Object> inRange = snapshot.getElementsInRange(range(c[0]));
+            assertEquals(expected, new HashSet<>(inRange), c[0]);
+            List<Object> sorted = new ArrayList<>(inRange);
+            sorted.sort(Comparator.comparingDouble(v -> (Double) v));
+            assertEquals(sorted, inRange);
+            assertEquals(range(c[0]).toString(), SetRule.parse(c[1]).valueRange().toString(), c[1]);
+        }
+
+        int[] counts = snapshot.countRangeByRegion(range("[10, 50)"));
+        assertEquals(snapshot.getElementsInRange(range("[10, 50)")).size(), Arrays.stream(counts).sum());
+        model.defineRuleSet("Mid", SetRule.parse("value >= 10 and value < 50"));
+        assertEquals(new HashSet<>(snapshot.getElementsInRange(range("[10, 50)"))), model.getElementsInSet("Mid"));
+        assertNull(SetRule.parse("value >= 10 or value < 0").valueRange());
+
+        assertThrows(IllegalArgumentException.class, () -> range("10, 50"));
+        assertThrows(IllegalArgumentException.class, () -> range("[ten, 50)"));
+    }
+
+    @Test
+    void servesOrderedAndStatisticalQueries() {
+        DiagramManagerService service = new DiagramManagerService(new ObjectMapper(),
+                new WorkspacePersistence(false, "target/unused", false, false, 60));
+        String id = service.createBlankWorkspace("Scores", "NUMBER").getDiagramId();
+        service.addSet(id, "Passed");
+        for (int score = 1; score <= 10; score++) {
+            service.updateElementMembership(id, Integer.toString(score * 10), score >= 5 ? Set.of("Passed") : Set.of());
+        }
+
+        assertEquals(List.of(10.0, 20.0, 30.0), service.getElements(id, 0, 3));
+        assertEquals(List.of(100.0), service.getElements(id, 9, 5));
+        assertEquals(List.of(100.0, 90.0), service.getTopElements(id, 2, "desc"));
+        assertEquals(50.0, service.getPercentile(id, 50));
+        assertEquals(100.0, service.getPercentile(id, 100));
+        assertEquals(10.0, service.getPercentile(id, 0));
+
+        DiagramStats.RangeStats stats = service.getRangeStats(id, "[30, 60]");
+        assertEquals(4, stats.count);
+        for (DiagramStats.RegionStat region : stats.regions) {
+            assertEquals(2, region.count, region.sets.toString()); // 30 and 40 fail, 50 and 60 pass
+            assertEquals(0.5, region.probability);
+        }
+        assertEquals(List.of(30.0, 40.0, 50.0, 60.0), service.getElementsInRange(id, "[30, 60]"));
+
+        String letters = service.createBlankWorkspace("Letters", "STRING").getDiagramId();
+        assertThrows(IllegalArgumentException.class, () -> service.getTopElements(letters, 3, "desc"));
+        assertThrows(IllegalArgumentException.class, () -> service.getPercentile(id, 101));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedElementsTests {
+
+    @Test
+    void rollsAndCardsAreCanonicalAndKeepTheirJsonShape() throws IOException {
+        assertSame(DiceRoll.of(3, 1, 6), DiceRoll.of(List.of(3, 1, 6)));
+        assertSame(PlayingCard.of("10", "S"), PlayingCard.of(PlayingCard.of("10", "S").getCode()));
+        assertEquals(DiceRoll.of(1, 2, 3, 4, 5, 6), DiceRoll.of(1, 2, 3, 4, 5, 6)); // Too many dice to be canonical
+        assertEquals(List.of(6, 5, 4, 3, 2, 1), DiceRoll.of(6, 5, 4, 3, 2, 1).getDice());
+        assertThrows(IllegalArgumentException.class, () -> DiceRoll.of(0, 7));
+        assertThrows(IllegalArgumentException.class, () -> PlayingCard.of("1", "H"));
+
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals("{\"dice\":[2,5]}", mapper.writeValueAsString(DiceRoll.of(2, 5)));
+        assertEquals("{\"dice\": [2, 5]}", DiceRoll.of(2, 5).toString());
+        assertEquals("{\"rank\":\"Q\",\"suit\":\"D\",\"color\":\"RED\",\"faceCard\":true}",
+                mapper.writeValueAsString(PlayingCard.of("Q", "D")));
+        assertEquals("QD", PlayingCard.of("Q", "D").toString());
+    }
+
+    @Test
+    void codecFormatIsUnchanged() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ElementCodec.write(out, DiceRoll.of(4, 2));
+        ElementCodec.write(out, PlayingCard.of("A", "C"));
+        // Tag, dice count, faces; then tag and the rank and suit as length-prefixed strings
+        assertArrayEquals(new byte[] { 3, 2, 4, 2, 4, 0, 0, 0, 1, 'A', 0, 0, 0, 1, 'C' }, bytes.toByteArray());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertSame(DiceRoll.of(4, 2), ElementCodec.read(in));
+        assertSame(PlayingCard.of("A", "C"), ElementCodec.read(in));
+
+        // Files from before length-prefixed strings still read
+        DataInputStream legacy = new DataInputStream(new ByteArrayInputStream(
+                new byte[] { 3, 2, 4, 2, 4, 0, 1, 'A', 0, 1, 'C' }));
+        assertSame(DiceRoll.of(4, 2), ElementCodec.readLegacy(legacy));
+        assertSame(PlayingCard.of("A", "C"), ElementCodec.readLegacy(legacy));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.venndiagramapi;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTests {
+
+    private static ResponseCache.Entry entry(int bytes) {
+        return new ResponseCache.Entry("application/json", new byte[bytes]);
+    }
+
+    @Test
+    void keepsOnlyTheNewestVersion() {
+        ResponseCache cache = new ResponseCache();
+        cache.put("/sets", 3, entry(10));
+        assertNotNull(cache.get("/sets", 3));
+        assertNull(cache.get("/sets", 4));
+
+        cache.put("/elements", 4, entry(10));
+        assertNull(cache.get("/sets", 3));
+        // A slow request that computed an older version must not bring it back
+        cache.put("/sets", 3, entry(10));
+        assertNull(cache.get("/sets", 3));
+        assertNotNull(cache.get("/elements", 4));
+    }
+
+    @Test
+    void skipsBodiesOverTheLimits() {
+        ResponseCache cache = new ResponseCache();
+        cache.put("/big", 1, entry(ResponseCache.MAX_ENTRY_BYTES + 1));
+        assertNull(cache.get("/big", 1));
+        for (int i = 0; i < ResponseCache.MAX_ENTRIES + 10; i++) cache.put("/q?" + i, 1, entry(1));
+        assertNotNull(cache.get("/q?0", 1));
+        assertNull(cache.get("/q?" + ResponseCache.MAX_ENTRIES, 1));
+    }
+}
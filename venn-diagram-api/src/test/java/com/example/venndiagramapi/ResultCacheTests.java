@@ -0,0 +1,46 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTests {
+
+    @Test
+    void evictsLeastRecentlyUsedByWeight() {
+        ResultCache cache = new ResultCache(100);
+        cache.get(1, "a", () -> "A", value -> 40);
+        cache.get(1, "b", () -> "B", value -> 40);
+        cache.get(1, "a", () -> "stale", value -> 40); // Touch "a", so "b" is the eldest
+        cache.get(1, "c", () -> "C", value -> 40);
+        assertEquals("A", cache.get(1, "a", () -> "recomputed", value -> 40));
+        assertEquals("B2", cache.get(1, "b", () -> "B2", value -> 40));
+
+        ResultCache.Stats stats = cache.stats();
+        assertEquals(2, stats.hits);
+        assertEquals(4, stats.misses);
+        assertEquals(2, stats.evictions);
+        assertTrue(stats.weight <= 100);
+    }
+
+    @Test
+    void aWriteInvalidatesCachedResults() {
+        DiagramManagerService service = new DiagramManagerService(new ObjectMapper(),
+                new WorkspacePersistence(false, "target/unused", false, false, 60));
+        String id = service.createBlankWorkspace("Numbers", "NUMBER").getDiagramId();
+        service.addSet(id, "A");
+        service.addSet(id, "B");
+        service.setElementMembershipForSet(id, "A", Set.of("1", "2"));
+
+        assertEquals(Set.of(1.0, 2.0), service.getUnion(id, "A", "B"));
+        assertEquals(Set.of(1.0, 2.0), service.getUnion(id, "A", "B"));
+        assertEquals(1, service.getResultCacheStats(id).hits);
+
+        service.setElementMembershipForSet(id, "B", Set.of("3"));
+        assertEquals(Set.of(1.0, 2.0, 3.0), service.getUnion(id, "A", "B"));
+        assertEquals(1, service.getResultCacheStats(id).entries);
+    }
+}
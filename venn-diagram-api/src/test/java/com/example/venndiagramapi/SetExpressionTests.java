@@ -0,0 +1,49 @@
+package com.example.venndiagramapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SetExpressionTests {
+
+    private final VennDiagramModel<Object> model = new VennDiagramModel<>();
+
+    SetExpressionTests() {
+        model.addSet("A", new HashSet<>(List.of(1, 2, 3, 4)));
+        model.addSet("B", new HashSet<>(List.of(3, 4, 5, 6)));
+        model.addSet("C", new HashSet<>(List.of(4, 6, 7)));
+        model.addSet("Doubles (All Same)", new HashSet<>(List.of(1, 7)));
+        model.updateElementMembership(8, Set.of());
+    }
+
+    private Set<Object> eval(String expression) {
+        return model.getRegionsMatching(SetExpression.parse(expression).compile(model.getSetNames()));
+    }
+
+    @Test
+    void evaluatesOperatorsWithPrecedence() {
+        assertEquals(Set.of(1, 2, 3, 4, 5, 6), eval("A ∪ B"));
+        assertEquals(Set.of(3), eval("A ∩ B ∖ C"));
+        assertEquals(Set.of(1, 2, 3, 5, 6), eval("(A | B) - (A & C)"));
+        assertEquals(Set.of(1, 2, 4), eval("A \\ B | A & C"));
+        assertEquals(Set.of(5, 6, 7, 8), eval("¬A"));
+        assertEquals(Set.of(5, 6, 7, 8), eval("A'"));
+        assertEquals(Set.of(1, 2, 3, 5, 7, 8), eval("~(A ∩ C) ∖ (B ∩ C)"));
+        assertEquals(Set.of(1, 2, 3, 5, 6, 7, 8), eval("!A | !C"));
+        assertEquals(Set.of(1, 7), eval("\"Doubles (All Same)\""));
+        assertEquals(Set.of(), eval("A ∩ ¬A"));
+        assertEquals(1, model.countRegionsMatching(SetExpression.parse("C ∖ B").compile(model.getSetNames())));
+    }
+
+    @Test
+    void rejectsMalformedExpressions() {
+        assertThrows(IllegalArgumentException.class, () -> SetExpression.parse("(A ∪ B"));
+        assertThrows(IllegalArgumentException.class, () -> SetExpression.parse("A ∪"));
+        assertThrows(IllegalArgumentException.class, () -> SetExpression.parse(" "));
+        assertThrows(IllegalArgumentException.class, () -> eval("A ∪ Missing"));
+    }
+}
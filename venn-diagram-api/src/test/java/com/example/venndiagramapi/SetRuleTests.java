@@ -0,0 +1,115 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SetRuleTests {
+
+    private static Set<Object> matching(String rule, Object... elements) {
+        Set<Object> matched = new HashSet<>();
+        SetRule.parse(rule).select(elements).forEach((int i) -> matched.add(elements[i]));
+        return matched;
+    }
+
+    @Test
+    void evaluatesAttributesAndConnectives() {
+        DiceRoll low = DiceRoll.of(1, 2), high = DiceRoll.of(6, 5), pair = DiceRoll.of(4, 4);
+        assertEquals(Set.of(high, pair), matching("sum >= 8", low, high, pair));
+        assertEquals(Set.of(pair), matching("distinct = 1 and not sum > 10", low, high, pair));
+        assertEquals(Set.of(low, high), matching("die1 = 1 || (max == 6 && min != 1)", low, high, pair));
+
+        PlayingCard queen = PlayingCard.of("Q", "D"), ace = PlayingCard.of("A", "S"), two = PlayingCard.of("2", "H");
+        assertEquals(Set.of(queen, ace), matching("rank in (J, Q, K, A)", queen, ace, two));
+        assertEquals(Set.of(two), matching("color = RED and rankValue < 10", queen, ace, two));
+
+        assertEquals(Set.of(2.5, 10.0), matching("value > 2 and value <= 10", 1.0, 2.5, 10.0, 11.0));
+        assertEquals(Set.of("img_01"), matching("text startsWith \"img_\" and length < 7", "img_01", "img_001", "doc"));
+        assertEquals(Set.of("a1", "b22"), matching("text matches \"[a-z][0-9]+\"", "a1", "b22", "cc"));
+        assertEquals(Set.of(), matching("text = x", (Object) null)); // Free dictionary slots never match
+    }
+
+    @Test
+    void rejectsMalformedAndInapplicableRules() {
+        assertThrows(IllegalArgumentException.class, () -> SetRule.parse("sum >"));
+        assertThrows(IllegalArgumentException.class, () -> SetRule.parse("(sum > 3"));
+        assertThrows(IllegalArgumentException.class, () -> SetRule.parse("weight > 3"));
+        assertThrows(IllegalArgumentException.class, () -> SetRule.parse("text matches \"[\""));
+        assertThrows(IllegalArgumentException.class, () -> SetRule.parse("sum startsWith 1"));
+        assertThrows(IllegalArgumentException.class, () -> SetRule.parse("sum > 3").requireApplicable("PLAYING_CARD"));
+        SetRule.parse("length > 3").requireApplicable("STRING");
+    }
+
+    @Test
+    void ruleSetsFollowTheirRuleAsTheModelChanges() {
+        VennDiagramModel<Object> model = new VennDiagramModel<>();
+        model.addSet("Picked", new HashSet<>(List.of(1.0, 5.0)));
+        model.updateElementMembership(12.0, Set.of());
+        model.defineRuleSet("Big", SetRule.parse("value >= 5"));
+        assertEquals(Set.of(5.0, 12.0), model.getElementsInSet("Big"));
+
+        // New and renamed elements are evaluated; edits that agree with the rule keep it
+        model.updateElementMembership(7.0, Set.of("Picked"));
+        model.renameElement(12.0, 3.0);
+        assertEquals(Set.of(5.0, 7.0), model.getElementsInSet("Big"));
+        assertEquals(Set.of("Picked", "Big"), model.getSetsForElement(7.0));
+        model.updateElementMembership(7.0, Set.of("Picked", "Big"));
+        model.setElementMembershipForSet("Big", Set.of(5.0, 7.0));
+        assertEquals(Set.of("Big"), model.getRules().keySet());
+
+        VennDiagramModel<Object>.BulkLoad load = model.bulkLoad();
+        load.add(9.0, List.of("Picked"));
+        load.add(4.0, List.of("Big"));
+        load.finish();
+        assertEquals(Set.of(5.0, 7.0, 9.0), model.getElementsInSet("Big"));
+        assertEquals(model.getElementsInSet("Big"), model.getRegionsMatching(
+                SetExpression.parse("Big").compile(model.getSetNames())));
+
+        // Redefining replaces the members; renaming keeps the rule
+        model.defineRuleSet("Big", SetRule.parse("value > 8"));
+        model.renameSet("Big", "Huge");
+        model.updateElementMembership(20.0, Set.of());
+        assertEquals(Set.of(9.0, 20.0), model.getElementsInSet("Huge"));
+        assertEquals("value > 8", model.getRules().get("Huge").toString());
+        model.removeSet("Huge");
+        assertTrue(model.getRules().isEmpty());
+
+        // An edit against the rule turns the set into a plain set holding what was asked for
+        model.defineRuleSet("Small", SetRule.parse("value < 3"));
+        model.updateElementMembership(6.0, Set.of("Small"));
+        assertTrue(model.getRules().isEmpty());
+        assertEquals(Set.of(1.0, 6.0), model.getElementsInSet("Small"));
+        model.defineRuleSet("Small", SetRule.parse("value < 3"));
+        model.setElementMembershipForSet("Small", Set.of(1.0, 9.0));
+        model.updateElementMembership(0.0, Set.of());
+        assertTrue(model.getRules().isEmpty());
+        assertEquals(Set.of(1.0, 9.0), model.getElementsInSet("Small"));
+    }
+
+    @Test
+    void templateSetsCanBeRenamedAndEdited() {
+        DiagramManagerService service = new DiagramManagerService(new ObjectMapper(),
+                new WorkspacePersistence(false, "target/unused", false, false, 60));
+        String id = service.createTemplateWorkspace("DICE_ROLLS_2").getDiagramId();
+        // As the editor saves a set: rename, then post the ticked elements
+        service.renameSet(id, "Sum is 7", "Lucky");
+        Set<String> lucky = new HashSet<>();
+        for (Object roll : service.getElementsInSet(id, "Lucky")) {
+            DiceRoll dice = (DiceRoll) roll;
+            lucky.add("(" + dice.getDie(0) + "," + dice.getDie(1) + ")");
+        }
+        lucky.add("(1,1)");
+        service.setElementMembershipForSet(id, "Lucky", lucky);
+        assertEquals(7, service.getElementsInSet(id, "Lucky").size());
+        assertTrue(service.getElementsInSet(id, "Lucky").contains(DiceRoll.of(1, 1)));
+
+        service.updateElementMembership(id, "(6,6)", Set.of("Lucky", "Sum > 8"));
+        assertEquals(Set.of("Lucky", "Sum > 8"), service.getSetsForElement(id, "(6,6)"));
+        assertFalse(service.getElementsInSet(id, "Doubles (All Same)").contains(DiceRoll.of(6, 6)));
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.venndiagramapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VennDiagramModelTests {
+
+    private VennDiagramModel<Object> sampleModel() {
+        VennDiagramModel<Object> model = new VennDiagramModel<>();
+        model.addSet("A", new HashSet<>(List.of("a", "ab", "abc")));
+        model.addSet("B", new HashSet<>(List.of("ab", "abc", "b")));
+        model.addSet("C", new HashSet<>(List.of("abc", "c")));
+        model.updateElementMembership("none", Set.of());
+        return model;
+    }
+
+    @Test
+    void partitionsFollowMembershipEdits() {
+        VennDiagramModel<Object> model = sampleModel();
+        assertEquals(Set.of("a"), model.getPartition(0b001));
+        assertEquals(Set.of("ab"), model.getPartition(0b011));
+        assertEquals(Set.of("abc"), model.getPartition(0b111));
+        assertEquals(Set.of("none"), model.getPartition(0));
+
+        model.updateElementMembership("a", Set.of("B", "C"));
+        assertTrue(model.getPartition(0b001).isEmpty());
+        assertEquals(Set.of("a"), model.getPartition(0b110));
+
+        model.setElementMembershipForSet("C", Set.of("c", "none"));
+        assertEquals(Set.of("a", "b"), model.getPartition(0b010));
+        assertEquals(Set.of("abc", "ab"), model.getPartition(0b011));
+        assertEquals(Set.of("none", "c"), model.getPartition(0b100));
+
+        model.removeElement("c");
+        assertEquals(Set.of("none"), model.getPartition(0b100));
+        assertFalse(model.getUniversalSet().contains("c"));
+    }
+
+    @Test
+    void removingASetShiftsHigherBitsDown() {
+        VennDiagramModel<Object> model = sampleModel();
+        model.removeSet("A");
+        assertEquals(List.of("B", "C"), model.getSetNames());
+        assertEquals(Set.of("a", "none"), model.getPartition(0));
+        assertEquals(Set.of("ab", "b"), model.getPartition(0b01));
+        assertEquals(Set.of("abc"), model.getPartition(0b11));
+        assertEquals(Set.of("c"), model.getPartition(0b10));
+    }
+
+    @Test
+    void renamesKeepPartitionsAndMemberships() {
+        VennDiagramModel<Object> model = sampleModel();
+        model.renameSet("B", "Beta");
+        assertEquals(List.of("A", "Beta", "C"), model.getSetNames());
+        assertEquals(Set.of("ab", "abc"), model.getIntersection("A", "Beta"));
+
+        model.renameElement("ab", "ba");
+        assertEquals(Set.of("A", "Beta"), model.getSetsForElement("ba"));
+        assertEquals(Set.of("ba"), model.getPartition(0b011));
+        assertEquals(Set.of("a", "ba", "abc", "b"), model.getUnion("A", "Beta"));
+        assertEquals(Set.of("a"), model.getDifference("A", "Beta"));
+        assertEquals(Set.of("b", "c", "none"), model.getComplement("A"));
+    }
+
+    @Test
+    void membershipLookupsDecodeTheElementMask() {
+        VennDiagramModel<Object> model = sampleModel();
+        Set<String> before = model.getSetsForElement("abc");
+        assertEquals(Set.of("A", "B", "C"), before);
+        assertTrue(before.contains("B"));
+        assertTrue(model.getSetsForElement("none").isEmpty());
+        assertTrue(model.getSetsForElement("missing").isEmpty());
+
+        // Only the sets that change are touched, and unknown names are ignored
+        model.updateElementMembership("abc", Set.of("A", "C", "Z"));
+        assertEquals(Set.of("A", "C"), model.getSetsForElement("abc"));
+        assertEquals(Set.of("ab", "b"), model.getElementsInSet("B"));
+        assertEquals(Set.of("abc"), model.getPartition(0b101));
+        // A result handed out earlier is not affected by later edits
+        model.renameSet("A", "Alpha");
+        assertEquals(Set.of("A", "B", "C"), before);
+        assertEquals(Set.of("Alpha", "C"), model.getSetsForElement("abc"));
+    }
+
+    @Test
+    void bulkLoadMatchesOneByOneEdits() {
+        VennDiagramModel<Object> expected = sampleModel();
+        expected.addSet("D", new HashSet<>());
+        expected.updateElementMembership("a", Set.of("C"));
+        expected.updateElementMembership("new", Set.of("A", "D"));
+        expected.updateElementMembership("lonely", Set.of());
+
+        VennDiagramModel<Object> model = sampleModel();
+        VennDiagramModel<Object>.BulkLoad load = model.bulkLoad();
+        load.add("a", List.of("B"));
+        load.add("new", List.of("A", "D"));
+        load.add("a", List.of("C")); // The last row for an element wins
+        load.add("lonely", List.of());
+        load.finish();
+
+        assertEquals(1, load.getSetsCreated());
+        assertEquals(expected.getSetNames(), model.getSetNames());
+        assertEquals(expected.getPartitionMasks(), model.getPartitionMasks());
+        for (RegionMask mask : expected.getPartitionMasks()) {
+            assertEquals(expected.getPartition(mask), model.getPartition(mask));
+        }
+    }
+
+    @Test
+    void snapshotsShareWhatLaterEditsDoNotTouch() {
+        VennDiagramModel<Object> model = sampleModel();
+        ModelSnapshot<Object> first = model.snapshot(1);
+        model.updateElementMembership("a", Set.of("A", "B"));
+        model.renameElement("abc", "cba");
+        model.removeElement("b");
+        model.updateElementMembership("d", Set.of("B")); // Reuses the id "b" had
+        ModelSnapshot<Object> second = model.snapshot(2);
+
+        assertEquals(Set.of("a", "ab", "abc"), first.getElementsInSet("A"));
+        assertEquals(Set.of("ab", "abc", "b"), first.getElementsInSet("B"));
+        assertEquals(Set.of("abc"), first.getPartition(RegionMask.allOf(3)));
+        assertEquals(Set.of("a", "ab", "cba", "d"), second.getElementsInSet("B"));
+        assertSame(first.sets().get("C"), second.sets().get("C"));
+        assertNotSame(first.sets().get("B"), second.sets().get("B"));
+
+        model.restore(first);
+        assertEquals(Set.of("ab", "abc", "b"), model.getElementsInSet("B"));
+        assertSame(first.sets().get("A"), model.snapshot(3).sets().get("A"));
+    }
+
+    private static VennDiagramModel<Object> multiplesModel(VennDiagramModel<Object> model, int size) {
+        Set<Object> universe = new HashSet<>();
+        for (int i = 0; i < size; i++) universe.add(i);
+        for (int divisor : new int[] { 2, 3, 5 }) {
+            Set<Object> multiples = new HashSet<>();
+            for (int i = 0; i < size; i += divisor) multiples.add(i);
+            model.addSet("x" + divisor, multiples);
+        }
+        model.setUniversalSet(universe); // A full rebuild over every set
+        model.updateElementMembership(7, Set.of("x2")); // Moves one element using its rebuilt mask
+        return model;
+    }
+
+    @Test
+    void parallelRebuildMatchesSequential() {
+        VennDiagramModel<Object> expected = multiplesModel(new VennDiagramModel<>(), 150_000);
+        ParallelRebuild parallel = ParallelRebuild.of(1, 3);
+        VennDiagramModel<Object> model;
+        try {
+            model = multiplesModel(new VennDiagramModel<>(parallel), 150_000);
+        } finally {
+            parallel.shutdown();
+        }
+
+        assertEquals(expected.getPartitionMasks(), model.getPartitionMasks());
+        for (RegionMask mask : expected.getPartitionMasks()) {
+            assertEquals(expected.getPartition(mask), model.getPartition(mask));
+        }
+        assertEquals(Set.of("x2"), model.getSetsForElement(7));
+        assertEquals(150_000, model.getElementCount());
+    }
+
+    @Test
+    void supportsMoreSetsThanFitInAnInt() {
+        VennDiagramModel<Object> model = new VennDiagramModel<>();
+        for (int i = 0; i < 100; i++) {
+            model.addSet("S" + i, new HashSet<>(List.of("x" + i, "all")));
+        }
+        assertEquals(Set.of("all"), model.getFullIntersection());
+        assertEquals(101, model.getPartitionMasks().size());
+        assertEquals(Set.of("x70"), model.getPartition(RegionMask.EMPTY.with(70)));
+        assertEquals(Set.of("all"), model.getIntersection("S40", "S41"));
+        // Pairs of all 100 sets are only listed when asked for
+        DiagramStats stats = DiagramStats.from(model, null);
+        assertTrue(stats.pairsTruncated);
+        assertEquals(120, stats.pairs.size());
+        assertEquals(1, DiagramStats.from(model, List.of("S40", "S41")).pairs.get(0).intersection);
+
+        model.removeSet("S0");
+        assertEquals(Set.of("x70"), model.getPartition(RegionMask.EMPTY.with(69)));
+        assertEquals(Set.of("x0"), model.getPartition(RegionMask.EMPTY));
+        assertEquals(Set.of("all"), model.getFullIntersection());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualTemplateTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void diceMatchTheMaterializedTemplate() {
+        VennDiagramView<Object> materialized = ProbabilityTemplateFactory
+                .createFromTemplate("eager", "DICE_ROLLS_3").snapshot();
+        VirtualTemplate.Dice virtual = new VirtualTemplate.Dice("DICE_ROLLS_3", 3);
+        assertEquals(materialized.getSetNames(), virtual.getSetNames());
+        assertEquals(materialized.getPartitionMasks(), virtual.getPartitionMasks());
+        for (RegionMask mask : materialized.getPartitionMasks()) {
+            assertEquals(materialized.getPartition(mask), virtual.getPartition(mask));
+        }
+
+        // The closed-form counts agree with decoding every roll
+        VirtualTemplate.Dice seven = new VirtualTemplate.Dice("DICE_ROLLS_7", 7);
+        assertArrayEquals(seven.scanRegions(), seven.countRegions());
+    }
+
+    @Test
+    void fiveCardHandsAreCountedWithoutBeingListed() {
+        DiagramManagerService service = new DiagramManagerService(new ObjectMapper(),
+                new WorkspacePersistence(false, "target/unused", false, false, 60));
+        String id = service.createTemplateWorkspace("CARD_HANDS_5").getDiagramId();
+
+        assertEquals(2_598_960, service.countExpression(id, "Flush | ~Flush"));
+        assertEquals(5_148, service.countExpression(id, "Flush"));
+        assertEquals(10_240, service.countExpression(id, "Straight"));
+        assertEquals(1_281_072, service.countExpression(id, "Has a Pair"));
+        Set<Object> straightFlushes = service.getIntersection(id, "Flush", "Straight");
+        assertEquals(40, straightFlushes.size());
+        assertEquals(40, Set.copyOf(straightFlushes).size());
+        assertTrue(straightFlushes.contains(service.parseElement(id, "10H JH QH KH AH")));
+        assertEquals(Set.of("Flush", "Straight", "Has an Ace", "All Red"),
+                service.getSetsForElement(id, "AD 2D 3D 4D 5D"));
+
+        assertThrows(IllegalArgumentException.class, () -> service.getAllElements(id));
+        assertThrows(IllegalArgumentException.class, () -> service.addSet(id, "Mine"));
+    }
+
+    @Test
+    void templatesSurviveACheckpointAndRestart() throws IOException {
+        WorkspacePersistence persistence = new WorkspacePersistence(true, dir.toString(), true, true, 3600);
+        DiagramManagerService before = new DiagramManagerService(new ObjectMapper(), persistence);
+        before.recover();
+        String id = before.createTemplateWorkspace("DICE_ROLLS_8").getDiagramId();
+        persistence.checkpoint();
+
+        DiagramManagerService after = new DiagramManagerService(new ObjectMapper(),
+                new WorkspacePersistence(true, dir.toString(), true, true, 3600));
+        after.recover();
+        assertTrue(after.getWorkspace(id).isVirtual());
+        assertEquals(1_679_616, after.getWorkspace(id).view().getElementCount());
+        assertEquals(before.getStats(id, null).sets.get(0).size, after.getStats(id, null).sets.get(0).size);
+        assertEquals(List.of("Sum is 7", "Doubles (All Same)", "Sum > 8", "First Die Even"), after.getSetNames(id));
+    }
+}
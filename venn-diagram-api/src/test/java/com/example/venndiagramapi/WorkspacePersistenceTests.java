@@ -0,0 +1,204 @@
+package com.example.venndiagramapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkspacePersistenceTests {
+
+    @TempDir
+    Path dir;
+    private WorkspacePersistence persistence;
+
+    // sync-commit, so every write is on disk when it returns and "crashing" is just dropping the instance
+    private DiagramManagerService start() {
+        persistence = new WorkspacePersistence(true, dir.toString(), true, true, 3600);
+        DiagramManagerService service = new DiagramManagerService(new ObjectMapper(), persistence);
+        service.recover();
+        return service;
+    }
+
+    private static void edit(DiagramManagerService service, String id) {
+        service.addSet(id, "A");
+        service.addSet(id, "B");
+        service.setElementMembershipForSet(id, "A", Set.of("1", "2", "3"));
+        service.updateElementMembership(id, "3", Set.of("A", "B"));
+        service.renameElement(id, "2", "20");
+        service.renameSet(id, "B", "Beta");
+    }
+
+    @Test
+    void replaysTheLogAfterACrash() {
+        DiagramManagerService before = start();
+        String id = before.createBlankWorkspace("Letters", "STRING").getDiagramId();
+        edit(before, id);
+        String deck = before.createTemplateWorkspace("DECK_OF_CARDS").getDiagramId();
+        before.addSet(deck, "Mine");
+
+        DiagramManagerService after = start();
+        assertEquals(before.getPartitions(id), after.getPartitions(id));
+        assertEquals(before.getPartitions(deck), after.getPartitions(deck));
+        assertEquals(List.of("A", "Beta"), after.getSetNames(id));
+    }
+
+    @Test
+    void loadsCheckpointThenReplaysOnlyTheTail() throws IOException {
+        DiagramManagerService before = start();
+        String id = before.createBlankWorkspace("Numbers", "NUMBER").getDiagramId();
+        edit(before, id);
+        persistence.checkpoint();
+        // Segments covered by the checkpoint are gone
+        try (Stream<Path> segments = Files.list(dir.resolve("log"))) {
+            assertEquals(1, segments.count());
+        }
+        before.applyBatch(id, List.of(
+                new BatchOperation(BatchOperation.Type.ADD_SET, "C", null, null, null),
+                new BatchOperation(BatchOperation.Type.SET_MEMBERSHIP, "1", null, Set.of("C"), null)));
+
+        DiagramManagerService after = start();
+        assertEquals(before.getPartitions(id), after.getPartitions(id));
+        assertEquals(Set.of(1.0), after.getElementsInSet(id, "C"));
+    }
+
+    @Test
+    void ruleSetsSurviveCheckpointAndReplay() throws IOException {
+        DiagramManagerService before = start();
+        String id = before.createBlankWorkspace("Numbers", "NUMBER").getDiagramId();
+        edit(before, id);
+        before.defineRuleSet(id, "Small", "value < 10");
+        persistence.checkpoint();
+        before.updateElementMembership(id, "4", Set.of("A"));
+
+        DiagramManagerService after = start();
+        assertEquals(before.getPartitions(id), after.getPartitions(id));
+        // The rule itself came back, so it still applies to new elements
+        after.updateElementMembership(id, "5", Set.of());
+        assertEquals(Set.of(1.0, 3.0, 4.0, 5.0), after.getElementsInSet(id, "Small"));
+        assertEquals("value < 10", after.getSetsInfo(id).get(2).getRule());
+    }
+
+    @Test
+    void elementsOver64KbAreLoggedAndCheckpointed() throws IOException {
+        DiagramManagerService before = start();
+        String id = before.createBlankWorkspace("Images", "IMAGE_URL").getDiagramId();
+        String image = "data:image/png;base64," + "A".repeat(70_000);
+        before.addSet(id, "Big");
+        before.updateElementMembership(id, image, Set.of("Big"));
+        persistence.checkpoint();
+        before.updateElementMembership(id, image + "B", Set.of("Big"));
+
+        DiagramManagerService after = start();
+        assertEquals(Set.of(image, image + "B"), after.getElementsInSet(id, "Big"));
+
+        // Once nothing can be logged, edits are refused rather than applied unlogged
+        persistence.close();
+        assertThrows(IllegalStateException.class, () -> after.addSet(id, "Lost"));
+        assertEquals(List.of("Big"), after.getSetNames(id));
+    }
+
+    @Test
+    void exportedWorkspaceImportsAsACopy() throws IOException {
+        DiagramManagerService service = start();
+        String deck = service.createTemplateWorkspace("DECK_OF_CARDS").getDiagramId();
+        service.removeSet(deck, "Aces");
+        Path file = dir.resolve("deck.vnws");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            service.exportWorkspace(deck, out);
+        }
+
+        // Sets and elements can be read straight from the mapping
+        try (WorkspaceFile mapped = WorkspaceFile.open(file)) {
+            assertEquals(service.getSetNames(deck), mapped.setNames());
+            int hearts = mapped.setNames().indexOf("Hearts");
+            assertEquals(13, mapped.set(hearts).getCardinality());
+            assertEquals("H", ((PlayingCard) mapped.element(mapped.set(hearts).first())).getSuit());
+        }
+
+        String copy;
+        try (InputStream in = Files.newInputStream(file)) {
+            copy = service.importWorkspace(in).getDiagramId();
+        }
+        assertNotEquals(deck, copy);
+        assertEquals(service.getPartitions(deck), service.getPartitions(copy));
+        // The copy is durable without any log records of its own
+        assertEquals(service.getPartitions(deck), start().getPartitions(copy));
+    }
+
+    @Test
+    void forgedCountsAreRejectedBeforeAllocating() throws IOException {
+        DiagramManagerService service = start();
+        String deck = service.createTemplateWorkspace("DECK_OF_CARDS").getDiagramId();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.exportWorkspace(deck, out);
+        byte[] exported = out.toByteArray();
+        int trailer = exported.length - 60;
+        int maskTable = (int) ByteBuffer.wrap(exported).getLong(trailer + 32);
+
+        // The dictionary size, the region count and a mask's word count, each claiming far more than the file holds
+        for (int position : new int[] { trailer + 40, trailer + 48, maskTable }) {
+            byte[] forged = exported.clone();
+            ByteBuffer.wrap(forged).putInt(position, Integer.MAX_VALUE);
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> service.importWorkspace(new ByteArrayInputStream(forged)));
+            assertTrue(e.getMessage().contains("Corrupt workspace file"), e.getMessage());
+        }
+    }
+
+    @Test
+    void bulkImportIsAtomicAndSurvivesARestart() throws IOException {
+        DiagramManagerService service = start();
+        String id = service.createBlankWorkspace("Numbers", "NUMBER").getDiagramId();
+        service.addSet(id, "Even");
+        String csv = "2,Even\n3,Odd,Prime\n\n\"4\",Even,Square\n5,Odd,Prime\n";
+        MembershipImport.Result result = service.importMemberships(id, "text/csv",
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(4, result.rows);
+        assertEquals(3, result.setsCreated);
+        assertEquals(Set.of(3.0, 5.0), service.getIntersection(id, "Odd", "Prime"));
+
+        String ndjson = "{\"element\": 9, \"sets\": [\"Odd\", \"Square\"]}\n{\"element\": \"nine\"}\n";
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> service.importMemberships(
+                id, "application/x-ndjson", new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8))));
+        assertTrue(error.getMessage().contains("line 2"), error.getMessage());
+        assertEquals(Set.of(2.0, 4.0), service.getElementsInSet(id, "Even"));
+        assertEquals(Set.of(3.0, 5.0), service.getElementsInSet(id, "Odd"));
+
+        // Logged edits after the import replay on top of its checkpoint
+        service.deleteElement(id, "2");
+        assertEquals(service.getPartitions(id), start().getPartitions(id));
+    }
+
+    @Test
+    void ignoresATornRecordAtTheTail() throws IOException {
+        DiagramManagerService before = start();
+        String id = before.createBlankWorkspace("Letters", "STRING").getDiagramId();
+        edit(before, id);
+        Path segment;
+        try (Stream<Path> segments = Files.list(dir.resolve("log"))) {
+            segment = segments.findFirst().orElseThrow();
+        }
+        Files.write(segment, new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+        DiagramManagerService after = start();
+        assertEquals(before.getPartitions(id), after.getPartitions(id));
+        // The new run can keep logging after the truncated tail
+        after.addSet(id, "C");
+        assertEquals(List.of("A", "Beta", "C"), start().getSetNames(id));
+    }
+}
@@ -52,6 +52,29 @@ export const createTemplateDiagram = (templateName) => {
     return apiRequest('/diagrams/template', { method: 'POST', body });
 };
 
+/**
+ * Uploads a file from exportDiagram as a new diagram. Resolves to its summary.
+ */
+export const importDiagram = (file) => {
+    return apiRequest('/diagrams/import', {
+        method: 'POST',
+        headers: { 'Content-Type': 'application/octet-stream' },
+        body: file
+    });
+};
+
+/**
+ * Downloads a diagram in the binary workspace format, as a Blob.
+ */
+export const exportDiagram = async (diagramId) => {
+    const response = await fetch(`${API_BASE_URL}/diagrams/${diagramId}/export`);
+    if (!response.ok) {
+        const errorText = await response.text();
+        throw new Error(errorText || `Network response was not ok (${response.status})`);
+    }
+    return response.blob();
+};
+
 
 // --- Editor GET Requests ---
 
@@ -92,6 +115,61 @@ export const fetchAllData = async (diagramId) => {
     };
 };
 
+/**
+ * Fetches the partition table as structured JSON regions.
+ * Pass countsOnly to get region sizes without the element lists.
+ */
+export const fetchPartitionRegions = (diagramId, { offset = 0, limit, countsOnly = false } = {}) => {
+    const params = new URLSearchParams({ offset, countsOnly });
+    if (limit !== undefined) params.append('limit', limit);
+    return apiRequest(`/diagrams/${diagramId}/partitions/regions?${params.toString()}`);
+};
+
+/**
+ * Fetches set sizes, region sizes and probabilities without any element lists.
+ * Pairwise probabilities are returned for the given sets. When omitted, only the first 16
+ * sets are paired, and pairsTruncated tells whether any were left out.
+ */
+export const fetchStats = (diagramId, sets) => {
+    const params = new URLSearchParams();
+    (sets || []).forEach(set => params.append('sets', set));
+    const query = params.toString();
+    return apiRequest(`/diagrams/${diagramId}/stats${query ? `?${query}` : ''}`);
+};
+
+/**
+ * Fetches a page of a diagram's elements; NUMBER diagrams list them in ascending order.
+ */
+export const fetchElementsPage = (diagramId, { offset = 0, limit } = {}) => {
+    const params = new URLSearchParams({ offset });
+    if (limit !== undefined) params.append('limit', limit);
+    return apiRequest(`/diagrams/${diagramId}/elements?${params.toString()}`);
+};
+
+// --- Numeric Queries (NUMBER diagrams) ---
+
+/**
+ * Fetches the elements in a range such as '[10, 50)' or '[100, )', in ascending order.
+ */
+export const fetchRange = (diagramId, range) => {
+    return apiRequest(`/diagrams/${diagramId}/range?${new URLSearchParams({ range }).toString()}`);
+};
+
+/**
+ * Fetches how many elements of a range fall in each region. Resolves to { range, count, regions }.
+ */
+export const fetchRangeStats = (diagramId, range) => {
+    return apiRequest(`/diagrams/${diagramId}/range/stats?${new URLSearchParams({ range }).toString()}`);
+};
+
+export const fetchTopElements = (diagramId, k = 10, order = 'desc') => {
+    return apiRequest(`/diagrams/${diagramId}/top?${new URLSearchParams({ k, order }).toString()}`);
+};
+
+export const fetchPercentile = (diagramId, p) => {
+    return apiRequest(`/diagrams/${diagramId}/percentile?${new URLSearchParams({ p }).toString()}`);
+};
+
 export const getElementDetails = (diagramId, elementName) => {
     return apiRequest(`/diagrams/${diagramId}/element/${encodeURIComponent(elementName)}`);
 };
@@ -121,6 +199,14 @@ export const runOperation = (diagramId, operation, setA, setB) => {
 };
 
 
+/**
+ * Evaluates a set expression such as "(A ∪ B) ∖ (C ∩ D)" in a single request.
+ */
+export const runExpression = (diagramId, expr) => {
+    const queryString = new URLSearchParams({ expr }).toString();
+    return apiRequest(`/diagrams/${diagramId}/query?${queryString}`);
+};
+
 // --- Editor POST Requests ---
 
 export const createSet = (diagramId, name) => {
@@ -143,6 +229,16 @@ export const updateSetMembership = (diagramId, name, elements) => {
     return apiRequest(`/diagrams/${diagramId}/set/membership`, { method: 'POST', body });
 };
 
+/**
+ * Makes a set the elements matching a rule, e.g. 'sum > 8' or 'rank in (J, Q, K)'.
+ * The server keeps it up to date as elements are added or renamed; editing its members
+ * directly (against the rule) turns it back into a plain set.
+ */
+export const defineRuleSet = (diagramId, name, rule) => {
+    const body = createUrlEncodedForm({ name, rule });
+    return apiRequest(`/diagrams/${diagramId}/set/rule`, { method: 'POST', body });
+};
+
 export const renameElement = (diagramId, oldName, newName) => {
     const body = createUrlEncodedForm({ oldName, newName });
     return apiRequest(`/diagrams/${diagramId}/element/rename`, { method: 'POST', body });
@@ -156,4 +252,68 @@ export const updateElementMembership = (diagramId, name, sets) => {
 export const deleteElement = (diagramId, name) => {
     const body = createUrlEncodedForm({ name });
     return apiRequest(`/diagrams/${diagramId}/element/delete`, { method: 'POST', body });
-};
\ No newline at end of file
+};
+
+/**
+ * Applies many edits in one atomic request, e.g.
+ * [{ op: 'ADD_SET', name: 'A' }, { op: 'SET_MEMBERSHIP', name: 'x', sets: ['A'] }].
+ * Resolves to { version, applied }.
+ */
+export const applyBatch = (diagramId, operations) => {
+    return apiRequest(`/diagrams/${diagramId}/batch`, {
+        method: 'POST',
+        headers: { 'Content-Type': 'application/json' },
+        body: JSON.stringify(operations)
+    });
+};
+
+/**
+ * Streams a membership file into a diagram in one request. The file (a File or Blob)
+ * has one row per element: CSV "element,set1,set2" or NDJSON {"element", "sets"}.
+ * Resolves to { version, rows, setsCreated, elementCount }.
+ */
+export const importMemberships = (diagramId, file, format = 'csv') => {
+    return apiRequest(`/diagrams/${diagramId}/import/memberships`, {
+        method: 'POST',
+        headers: { 'Content-Type': format === 'ndjson' ? 'application/x-ndjson' : 'text/csv' },
+        body: file
+    });
+};
+
+/**
+ * Opens one of the streaming downloads and resolves to the raw Response, so large results
+ * can be read incrementally from response.body. path is e.g. 'elements', 'set/A/elements',
+ * 'memberships' or 'query' (with params { expr }); format is 'ndjson' or 'csv'.
+ */
+export const openStream = async (diagramId, path, params = {}, format = 'ndjson') => {
+    const query = new URLSearchParams({ ...params, format });
+    const response = await fetch(`${API_BASE_URL}/diagrams/${diagramId}/${path}/stream?${query}`);
+    if (!response.ok) {
+        const errorText = await response.text();
+        throw new Error(errorText || `Network response was not ok (${response.status})`);
+    }
+    return response;
+};
+
+/**
+ * Gets the edits made after version `since`. If the reply has reset: true, the diagram
+ * has to be refetched instead (the client is too far behind, or the server restarted).
+ */
+export const getChanges = (diagramId, since) => {
+    return apiRequest(`/diagrams/${diagramId}/changes?since=${since}`);
+};
+
+/**
+ * Subscribes to a diagram's edits as server-sent events. Fetch the diagram first and pass
+ * its version as `since`, so no edit is missed or applied twice. onChange receives each
+ * change ({ version, operations, regions, regionsReplaced }); onReset({ version }) means
+ * the diagram has to be refetched. Returns the EventSource; call close() to unsubscribe.
+ */
+export const subscribeToChanges = (diagramId, since, { onChange, onReset, onError } = {}) => {
+    const query = since != null ? `?since=${since}` : '';
+    const source = new EventSource(`${API_BASE_URL}/diagrams/${diagramId}/changes/stream${query}`);
+    source.addEventListener('change', (event) => onChange && onChange(JSON.parse(event.data)));
+    source.addEventListener('reset', (event) => onReset && onReset(JSON.parse(event.data)));
+    if (onError) source.onerror = onError;
+    return source;
+};